@@ -29,10 +29,17 @@
 
 package br.ufpb.di.redes.layers.datalink.datalink1.src;
 
+import br.ufpb.di.redes.layers.all.HeaderLayout;
 import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.all.InterlayerDataPool;
+import br.ufpb.di.redes.layers.all.PacketTrace.Direction;
+import br.ufpb.di.redes.layers.all.PacketTrace.Stage;
+import br.ufpb.di.redes.layers.all.Priority;
 import br.ufpb.di.redes.layers.datalink.interfaces.DataLink;
 import br.ufpb.di.redes.layers.physical.interfaces.Physical;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,14 +61,6 @@ public class DataLink1 extends DataLink {
      */
     private static final int BITSDADOS = 8;
 
-    /**
-     * Tamanho dos quadros de dados e de permissao e endereçamento e dos quadros
-     * sem CRC.
-     */
-    private static final int TAMQUADRODEDADOS = 16;
-    private static final int TAMQUADROPERMISSAOENDERECAMENTO = 16;
-    private static final int TAMMENSAGEMSEMCRC = 12;
-    
     /**
      * Valores de campos de controle de quadro para os 3 tipos diferentes
      * de quadro possíveis.
@@ -77,6 +76,40 @@ public class DataLink1 extends DataLink {
     private static final int TAMMAC = 3;
     private static final int TAMCRC = 4;
 
+    /** Bits de preenchimento, antes do bit de dados ou do CRC. */
+    private static final int TAMPREENCHIMENTO = 2;
+
+    /**
+     * Formato do quadro de permissão e endereçamento (CCOOODDDXXbpcccc),
+     * campo a campo.
+     */
+    private static final HeaderLayout TOKEN = new HeaderLayout();
+    private static final HeaderLayout.Field TOKEN_CONTROLE = TOKEN.add("controle", TAMCONTROLE);
+    private static final HeaderLayout.Field TOKEN_ORIGEM = TOKEN.add("origem", TAMMAC);
+    private static final HeaderLayout.Field TOKEN_DESTINO = TOKEN.add("destino", TAMMAC);
+    private static final HeaderLayout.Field TOKEN_PREENCHIMENTO = TOKEN.add("preenchimento", TAMPREENCHIMENTO);
+    private static final HeaderLayout.Field TOKEN_BITDEDADOS = TOKEN.add("dados", 1);
+    private static final HeaderLayout.Field TOKEN_PERMISSAO = TOKEN.add("permissao", 1);
+    private static final HeaderLayout.Field TOKEN_CRC = TOKEN.add("crc", TAMCRC);
+
+    /**
+     * Formato do quadro de dados (CCddddddddXXcccc). O controle fica na mesma
+     * posição nos dois formatos.
+     */
+    private static final HeaderLayout QUADRO = new HeaderLayout();
+    private static final HeaderLayout.Field QUADRO_CONTROLE = QUADRO.add("controle", TAMCONTROLE);
+    private static final HeaderLayout.Field QUADRO_DADOS = QUADRO.add("dados", BITSDADOS);
+    private static final HeaderLayout.Field QUADRO_PREENCHIMENTO = QUADRO.add("preenchimento", TAMPREENCHIMENTO);
+    private static final HeaderLayout.Field QUADRO_CRC = QUADRO.add("crc", TAMCRC);
+
+    /**
+     * Tamanho dos quadros de dados e de permissao e endereçamento e dos quadros
+     * sem CRC (o CRC começa na mesma posição nos dois formatos).
+     */
+    private static final int TAMQUADRODEDADOS = QUADRO.length();
+    private static final int TAMQUADROPERMISSAOENDERECAMENTO = TOKEN.length();
+    private static final int TAMMENSAGEMSEMCRC = QUADRO_CRC.getStart();
+
     /**
      * Armazenará os quadros recebidos pertencentes a determinada mensagem
      * até que o último seja recebido, para que possam ser unidos.
@@ -98,8 +131,8 @@ public class DataLink1 extends DataLink {
     /** Campo referente ao MAC deste enlace. */
     private int mac;
 
-    /** Thread utilizada para testar o timeout da passagem de token */
-    private Thread monitorToken;
+    /** Laco utilizado para testar o timeout da passagem de token */
+    private Future<?> monitorToken;
 
     /** Tempo maximo (em segundos) que o enlace pode passar sem receber token */
     private final double timeout = 15;
@@ -108,6 +141,12 @@ public class DataLink1 extends DataLink {
     private double tempoAtual;
     private double tempoUltimoToken;
 
+    /**
+     * Reserva de onde saem os quadros criados por este enlace. Se for null,
+     * cada quadro e' criado com new.
+     */
+    private volatile InterlayerDataPool pool;
+
     public DataLink1 (Physical downLayer, int id, int mac) {
         super(downLayer, id);
         this.mac = mac;
@@ -123,20 +162,21 @@ public class DataLink1 extends DataLink {
     }
 
     /**
-     * Retorna a Thread que sera utilizada para monitorar a passagem de token
-     * neste enlace
+     * Retorna o laco que sera utilizado para monitorar a passagem de token
+     * neste enlace. O laco termina quando sua thread for interrompida.
      * @param enlace referencia para o enlace atual
-     * @return a thread desejada
+     * @return o laco desejado
      */
-    private Thread getMonitorToken(DataLink1 enlace) {
+    private Runnable getMonitorToken(DataLink1 enlace) {
         final DataLink1 enlaceInterno = enlace;
-        return new Thread() {
+        return new Runnable() {
             public void run(){
                 while (true) {
                     try {
                         Thread.sleep(1000);
                     } catch (InterruptedException ex) {
-                        logger.warn("Excecao em thread de monitor de token.");
+                        logger.debug("Monitor de token interrompido.");
+                        return;
                     }
                     enlaceInterno.checaPassagemDeToken();
                 }
@@ -144,6 +184,36 @@ public class DataLink1 extends DataLink {
         };
     }
 
+    /**
+     * Passa a criar quadros a partir de uma reserva, em vez de criar um novo
+     * quadro a cada vez. Quadros consumidos por este enlace (tokens e quadros
+     * de dados que não são repassados) são devolvidos à reserva de origem.
+     * @param pool a reserva, ou null para voltar a criar quadros com new.
+     */
+    public void setPool(InterlayerDataPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Cria um quadro vazio, a partir da reserva, se houver.
+     * @param tamanho tamanho do quadro em bits.
+     * @return o quadro, com todos os bits zerados.
+     */
+    private InterlayerData novoQuadro(int tamanho) {
+        InterlayerDataPool curPool = pool;
+        return curPool == null ? new InterlayerData(tamanho) : curPool.acquire(tamanho);
+    }
+
+    /**
+     * Devolve à reserva os quadros guardados da mensagem sendo recebida e
+     * esvazia a lista.
+     */
+    private void descartaMensagemRecebida() {
+        for (InterlayerData quadro : mensagemReceivedAtual)
+            InterlayerDataPool.recycle(quadro);
+        mensagemReceivedAtual.clear();
+    }
+
     /**
      * Utilizado para verificar a última vez em que um token foi recebido
      * ou enviado por este enlace.
@@ -153,11 +223,11 @@ public class DataLink1 extends DataLink {
         //logger.info("DIFERENCA: {}", ((this.tempoAtual - this.tempoUltimoToken) / 1000));
         if (((this.tempoAtual - this.tempoUltimoToken) / 1000) > this.timeout) {
             logger.info ("Erro de timeout, enviando novo token.");
-            mensagemReceivedAtual.clear();
+            descartaMensagemRecebida();
             mensagemASerRecebida = false;
             descartaQuadros = true;
             this.tempoUltimoToken = this.tempoAtual;
-            bubbleDown(criaTokenInicial());
+            bubbleDown(criaTokenInicial(), Priority.CONTROL);
         }
     }
 
@@ -177,39 +247,34 @@ public class DataLink1 extends DataLink {
         }
 
         /**
-         * Cria-se inicialmente uma mensagem auxiliar contendo os 12 bits
-         * de dados a partir dos quais se calculará o CRC. Os bits seguintes
-         * são preenchidos com 0.
+         * A mensagem auxiliar, com os 12 bits de dados seguidos de 4 bits 0,
+         * cabe num int: a divisão é feita nele, sem percorrer bits de um
+         * InterlayerData.
          */
-        InterlayerData aux = new InterlayerData(TAMMENSAGEMSEMCRC + TAMCRC);
-        aux.putInfo(0, TAMMENSAGEMSEMCRC, dados.takeInfo(0, TAMMENSAGEMSEMCRC));
+        int aux = dados.takeInfo(0, TAMMENSAGEMSEMCRC) << TAMCRC;
 
         /**
-         * O polinomio gerador utilizado é o x^4 + x + 1 = 0b10011. O bit
-         * mais significativo, porém, não é necessário, por conta disso,
-         * será representado como 0b0011 = 3.
+         * O polinomio gerador utilizado é o x^4 + x + 1 = 0b10011.
          */
-        int polinomioGerador = 3;
+        int polinomioGerador = 0x13;
 
-        int infoAtual = 0;
-        for (int i = 0; i < TAMMENSAGEMSEMCRC; i++) {
+        for (int i = TAMMENSAGEMSEMCRC - 1; i >= 0; i--) {
             /**
              * O XOR deve ser efetuado quando o bit da posição atual
              * (que é o mais significativo, já que os anteriores são zerados
-             * a cada etapa) for 1.
+             * a cada etapa) for 1. Na última etapa o bit é apenas zerado,
+             * sem o XOR nos bits do CRC, como sempre foi feito aqui.
              */
-            if (aux.getBit(i)) {
-                infoAtual = aux.takeInfo(i+1, TAMCRC);
-                infoAtual ^= polinomioGerador;
-                aux.clearBit(i);
-                if (i != (TAMMENSAGEMSEMCRC -1)) {
-                    aux.putInfo(i+1, TAMCRC, infoAtual);
+            if (((aux >>> (i + TAMCRC)) & 1) != 0) {
+                if (i != 0) {
+                    aux ^= polinomioGerador << i;
+                } else {
+                    aux &= ~(1 << TAMCRC);
                 }
             }
         }
         /** O CRC estará nos últimos 4 bits de aux. */
-        //logger.debug("CRC calculado: " + aux.takeInfo(aux.length-TAMCRC, TAMCRC));
-        return aux.takeInfo(aux.length-TAMCRC, TAMCRC);
+        return aux & ((1 << TAMCRC) - 1);
     }
 
     /**
@@ -220,22 +285,22 @@ public class DataLink1 extends DataLink {
      */
     private InterlayerData criaQuadroDeDados (int controle,
                     InterlayerData dados) {
-        InterlayerData aux = new InterlayerData (TAMQUADRODEDADOS);
         if (dados.length != BITSDADOS) {
             logger.warn("Recebido um quadro com tamanho errado.");
             logger.warn("Nao foi possivel criar o quadro de dados.");
             logger.warn("Retornando um quadro nulo!");
             return null;
         }
+        InterlayerData aux = novoQuadro(TAMQUADRODEDADOS);
 
         logger.info("Criando quadro de dados com controle " + controle + ".");
  
         defineControle(controle, aux);
         /** Armazena os dados no quadro */
-        aux.putInfo(TAMCONTROLE, BITSDADOS, dados.takeInfo(0, BITSDADOS));
+        QUADRO_DADOS.set(aux, dados.takeInfo(0, BITSDADOS));
         int CRC = calculaCRC4(aux);
         /** Armazena o CRC nos últimos bits do quadro */
-        aux.putInfo(aux.length-TAMCRC, TAMCRC, CRC);
+        QUADRO_CRC.set(aux, CRC);
 
         return aux;
     }
@@ -254,18 +319,17 @@ public class DataLink1 extends DataLink {
         logger.info("\tMAC de Destino: " + dest_mac);
         logger.info("\tBit de Dados: " + bitDeDados);
         logger.info("\tBit de Permissão: " + bitDePermissao);
-        InterlayerData aux = new InterlayerData(TAMQUADROPERMISSAOENDERECAMENTO);
-        defineControle(CTRLQUADROPERMISSAOEENDERECAMENTO, aux);
-        /** Armazena o MAC de origem no quadro */
-        aux.putInfo(TAMCONTROLE, TAMMAC, mac);
-        /** Armazena o MAC de destino */
-        aux.putInfo(TAMCONTROLE+TAMMAC, TAMMAC, dest_mac);
+        InterlayerData aux = novoQuadro(TAMQUADROPERMISSAOENDERECAMENTO);
+        TOKEN_CONTROLE.set(aux, CTRLQUADROPERMISSAOEENDERECAMENTO);
+        /** Armazena os MACs de origem e destino */
+        TOKEN_ORIGEM.set(aux, mac);
+        TOKEN_DESTINO.set(aux, dest_mac);
         /** Armazena os bits de dados e permissão */
-        aux.putInfo(aux.length-(TAMCRC+2), 1, bitDeDados);
-        aux.putInfo(aux.length-(TAMCRC+1), 1, bitDePermissao);
+        TOKEN_BITDEDADOS.set(aux, bitDeDados);
+        TOKEN_PERMISSAO.set(aux, bitDePermissao);
         int CRC = calculaCRC4(aux);
         /** Armazena o CRC nos últimos bits do quadro */
-        aux.putInfo(aux.length-TAMCRC, TAMCRC, CRC);
+        TOKEN_CRC.set(aux, CRC);
 
         return aux;
     }
@@ -288,11 +352,11 @@ public class DataLink1 extends DataLink {
         }
         ArrayList<InterlayerData> quadros = new ArrayList<InterlayerData>();
         InterlayerData aux;
-        for (int i = 0; i < dados.length; i += BITSDADOS) {
-            aux = new InterlayerData (BITSDADOS);
-            aux.putInfo(0, BITSDADOS, dados.takeInfo(i, BITSDADOS));
-            aux = criaQuadroDeDados ((i + BITSDADOS < dados.length) ? 
-                CTRLQUADRODEDADOSINTERMEDIARIO : CTRLQUADRODEDADOSFINAL, aux);
+        /** Cada byte da mensagem é uma visão dela, sem cópia. */
+        List<InterlayerData> bytes = dados.scatter(BITSDADOS);
+        for (int i = 0; i < bytes.size(); i++) {
+            aux = criaQuadroDeDados ((i + 1 < bytes.size()) ?
+                CTRLQUADRODEDADOSINTERMEDIARIO : CTRLQUADRODEDADOSFINAL, bytes.get(i));
             
             /**
              * Se não for possível criar o quadro de dados, é retornada uma
@@ -336,27 +400,7 @@ public class DataLink1 extends DataLink {
             return;
         }
 
-        quadro.putInfo(0, TAMCONTROLE, controle);
-    }
-
-    /**
-     * Retira os bits inseridos pelo enlace neste quadro para que apenas
-     * os dados relevantes à camada de rede possam ser repassados.
-     * @param quadro criado pelo enlace, de onde serao retiradas informacoes
-     * irrelevantes para as camadas superiores.
-     * @return dados sem os campos inseridos pelo enlace.
-     */
-    private InterlayerData desenquadra (InterlayerData quadro) {
-        if (quadro.length != TAMQUADRODEDADOS) {
-            logger.warn("Recebido quadro de dados com tamanho errado.");
-            logger.warn("Não é possível desenquadrar.");
-            logger.warn("Retornando o quadro sem modificações.");
-            return quadro;
-        }
-        InterlayerData aux = new InterlayerData(BITSDADOS);
-        aux.putInfo(0, BITSDADOS, quadro.takeInfo(TAMCONTROLE, BITSDADOS));
-        
-        return aux;
+        QUADRO_CONTROLE.set(quadro, controle);
     }
 
     /**
@@ -373,9 +417,7 @@ public class DataLink1 extends DataLink {
      * @return bit de dados.
      */
     public boolean getBitDeDadosToken (InterlayerData token) {
-        if (token.takeInfo(TAMQUADROPERMISSAOENDERECAMENTO-(TAMCRC+2), 1) == 1)
-            return true;
-        else return false;
+        return TOKEN_BITDEDADOS.isSet(token);
     }
 
     /**
@@ -384,9 +426,7 @@ public class DataLink1 extends DataLink {
      * @return bit de permissão.
      */
     public boolean getBitDePermissaoToken (InterlayerData token) {
-        if (token.takeInfo(TAMQUADROPERMISSAOENDERECAMENTO-(TAMCRC+1), 1) == 1)
-            return true;
-        else return false;
+        return TOKEN_PERMISSAO.isSet(token);
     }
 
     /**
@@ -395,7 +435,7 @@ public class DataLink1 extends DataLink {
      * @return controle.
      */
     public int getControle(InterlayerData dados) {
-        return dados.takeInfo(0, TAMCONTROLE);
+        return QUADRO_CONTROLE.get(dados);
     }
 
     /**
@@ -404,7 +444,7 @@ public class DataLink1 extends DataLink {
      * @return MAC de destino.
      */
     public int getMACDestino (InterlayerData token) {
-        return token.takeInfo(TAMCONTROLE+TAMMAC, TAMMAC);
+        return TOKEN_DESTINO.get(token);
     }
 
     /**
@@ -413,7 +453,7 @@ public class DataLink1 extends DataLink {
      * @return MAC de origem.
      */
     public int getMACOrigem (InterlayerData token) {
-        return token.takeInfo(TAMCONTROLE, TAMMAC);
+        return TOKEN_ORIGEM.get(token);
     }
 
     /**
@@ -436,12 +476,9 @@ public class DataLink1 extends DataLink {
             logger.warn("Retornando referência nula.");
             return null;
         }
-        InterlayerData aux = new InterlayerData(msg.size() * BITSDADOS);
-
-        for (int i = 0; i < msg.size(); i++) {
-            aux.putInfo(i*BITSDADOS, BITSDADOS,
-                    desenquadra(msg.get(i)).takeInfo(0, BITSDADOS));
-        }
+        /** Junta os campos de dados de todos os quadros numa única cópia. */
+        InterlayerData aux = InterlayerData.gather(msg,
+                QUADRO_DADOS.getStart(), QUADRO_DADOS.getWidth());
 
         logger.info("Mensagem recuperada com tamanho " + aux.length);
         logger.debug("Mensagem recuperada: " + aux);
@@ -466,10 +503,9 @@ public class DataLink1 extends DataLink {
         logger.info("Enlace de MAC " + mac + " iniciado.");
         if (mac == PRIMEIROMAC) {
             this.tempoUltimoToken = System.currentTimeMillis();
-            bubbleDown(criaTokenInicial());
+            bubbleDown(criaTokenInicial(), Priority.CONTROL);
             logger.info("Token enviado.");
-            monitorToken = getMonitorToken(this);
-            monitorToken.start();
+            monitorToken = startWorker(getName() + ":token", getMonitorToken(this));
         }
     }
 
@@ -479,6 +515,16 @@ public class DataLink1 extends DataLink {
         super.bubbleDown(data);
     }
 
+    /**
+     * O envio espera, em s1, que a thread de recebimento veja o token livre;
+     * por isso este enlace sempre usa threads, mesmo que o modo sincrono
+     * tenha sido pedido. As outras camadas da pilha podem ser sincronas.
+     */
+    @Override
+    public boolean isSynchronous() {
+        return false;
+    }
+
     @Override
     protected void processSentData(InterlayerData data, int dest_mac) {
         logger.info("Mensagem " + data + " recebida da camada de Rede.");
@@ -494,7 +540,30 @@ public class DataLink1 extends DataLink {
             logger.info("Aguardando autorização para envio de mensagem.");
             s1.acquire();
         } catch (InterruptedException ex) {
-            logger.error("Excecao lancada em processSentData ", ex);
+            /** Entidade sendo parada: a mensagem nao sera enviada. */
+            logger.info("Interrompido aguardando o token. Mensagem descartada.");
+            for (InterlayerData quadro : mensagemSentAtual)
+                InterlayerDataPool.recycle(quadro);
+            mensagemASerEnviada = false;
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        /**
+         * Se o prazo da mensagem venceu enquanto esperava o token, descarta
+         * os quadros e devolve o token livre ao anel.
+         */
+        if (isExpired(currentDeadline())) {
+            logger.info("Mensagem expirou aguardando o token. Descartada.");
+            getSendBuffer().markExpired();
+            traceEvent(currentTrace(), Direction.DOWN, Stage.EXPIRED);
+            for (InterlayerData quadro : mensagemSentAtual)
+                InterlayerDataPool.recycle(quadro);
+            this.tempoUltimoToken = System.currentTimeMillis();
+            bubbleDown(criaTokenInicial(), Priority.CONTROL);
+            mensagemASerEnviada = false;
+            s2.release();
+            return;
         }
         
         /** Envia na frente um token relativo à mensagem atual. */
@@ -511,37 +580,54 @@ public class DataLink1 extends DataLink {
     @Override
     protected void processReceivedData(InterlayerData data) {
         logger.info("Mensagem recebida da camada Física: {}.", data);
+        if (!trataQuadroRecebido(data))
+            InterlayerDataPool.recycle(data);
+    }
+
+    /**
+     * Trata um quadro vindo da camada física.
+     * @param data o quadro.
+     * @return true se o quadro continua em uso (foi repassado para a camada
+     * física ou guardado como parte de uma mensagem); false se foi consumido
+     * e pode voltar à reserva.
+     */
+    private boolean trataQuadroRecebido(InterlayerData data) {
         if (data.length != TAMQUADRODEDADOS &&
             data.length != TAMQUADROPERMISSAOENDERECAMENTO) {
             logger.warn("Mensagem com tamanho incorreto será descartada.");
-            return;
+            return false;
         }
 
         int controle = getControle(data);
 
         if (descartaQuadros && controle != 1) {
-            return;
+            return false;
         }
 
         if (!verificaCRC(data) && controle == 1) {
             logger.warn ("Erro de CRC, enviando novo token.");
-            mensagemReceivedAtual.clear();
+            descartaMensagemRecebida();
             mensagemASerRecebida = false;
             descartaQuadros = true;
             this.tempoUltimoToken = System.currentTimeMillis();
-            bubbleDown(criaTokenInicial());
-            return;
+            bubbleDown(criaTokenInicial(), Priority.CONTROL);
+            return false;
         }
 
         if (controle == CTRLQUADROPERMISSAOEENDERECAMENTO) {
             this.tempoUltimoToken = System.currentTimeMillis();
 
+            /** Lê os campos do token uma única vez. */
+            int macDestino = TOKEN_DESTINO.get(data);
+            boolean bitDeDados = TOKEN_BITDEDADOS.isSet(data);
+            boolean bitDePermissao = TOKEN_PERMISSAO.isSet(data);
+
             /** Sai do modo de descartar quadros se esse token estiver correto. */
             descartaQuadros = false;
 
             if (mensagemASerRecebida) {
                 mensagemASerRecebida = false;
-                mensagemReceivedAtual.clear();
+                descartaMensagemRecebida();
             }
 
             /**
@@ -550,29 +636,29 @@ public class DataLink1 extends DataLink {
              * devolve o token à camada física.
              */
             if (!mensagemASerEnviada &&
-                (!getBitDeDadosToken(data) || (getMACDestino(data) != mac))) {
+                (!bitDeDados || (macDestino != mac))) {
                 logger.info("Repassando token que nao interessa a este enlace.");
                 bubbleDown(data);
-                return;
+                return true;
             }
 
             /**
              * Se o token atual contém mensagem para este enlace, prepara-se
              * para recebê-la.
              */
-            if (getBitDeDadosToken(data) && (getMACDestino(data) == mac)
-                    && !(getBitDePermissaoToken(data))) {
-                if (mensagemASerRecebida) mensagemReceivedAtual.clear();
+            if (bitDeDados && (macDestino == mac)
+                    && !bitDePermissao) {
+                if (mensagemASerRecebida) descartaMensagemRecebida();
                 mensagemASerRecebida = true;
                 logger.info("Token recebido que há mensagem para este enlace.");
-                return;
+                return false;
             }
 
             /**
              * Se o enlace tem mensagem a ser enviada e o token está livre,
              * libera a thread de envio.
              */
-            if (mensagemASerEnviada && getBitDePermissaoToken(data)) {
+            if (mensagemASerEnviada && bitDePermissao) {
                 logger.info("Ocupado o token para envio de mensagem.");
                 s1.release();
                 try {
@@ -583,10 +669,14 @@ public class DataLink1 extends DataLink {
                     s2.acquire();
                 } catch (InterruptedException ex) {
                    logger.error("Excecao lancada em processReceivedData ", ex);
+                   Thread.currentThread().interrupt();
                 }
-                return;
-            } else if (mensagemASerEnviada && !getBitDePermissaoToken(data))
+                return false;
+            } else if (mensagemASerEnviada && !bitDePermissao) {
                 bubbleDown(data);
+                return true;
+            }
+            return false;
         } else if (controle == CTRLQUADRODEDADOSINTERMEDIARIO) {
             /**
              * Se nao há mensagem para ser recebida, este quadro de dados
@@ -595,21 +685,21 @@ public class DataLink1 extends DataLink {
             if (!mensagemASerRecebida) {
                 logger.info("Mandando para baixo quadro de dados que não interessa.");
                 bubbleDown(data);
-                return;
+                return true;
             }
 
             if (!verificaCRC(data)) {
                 logger.warn("Erro nos dados recebidos. Descartando..");
                 mensagemASerRecebida = false;
-                mensagemReceivedAtual.clear();
+                descartaMensagemRecebida();
                 descartaQuadros = true;
-                bubbleDown(criaTokenInicial());
-                return;
+                bubbleDown(criaTokenInicial(), Priority.CONTROL);
+                return false;
             }
             
             logger.info("Armazenando quadro de dados intermediário (" + data + ").");
             mensagemReceivedAtual.add(data);
-            return;
+            return true;
         } else if (controle == CTRLQUADRODEDADOSFINAL) {
             /**
              * Se nao há mensagem para ser recebida, este quadro de dados
@@ -618,16 +708,16 @@ public class DataLink1 extends DataLink {
             if (!mensagemASerRecebida) {
                 logger.info("Mandando para baixo quadro de dados que não interessa.");
                 bubbleDown(data);
-                return;
+                return true;
             }
 
             if (!verificaCRC(data)) {
                 logger.warn("Erro nos dados recebidos. Descartando..");
                 mensagemASerRecebida = false;
-                mensagemReceivedAtual.clear();
+                descartaMensagemRecebida();
                 descartaQuadros = true;
-                bubbleDown(criaTokenInicial());
-                return;
+                bubbleDown(criaTokenInicial(), Priority.CONTROL);
+                return false;
             }
 
             mensagemReceivedAtual.add(data);
@@ -636,13 +726,14 @@ public class DataLink1 extends DataLink {
             if (msg != null)
                 bubbleUp(msg, mac);
 
-            mensagemReceivedAtual.clear();
+            /** Devolve à reserva todos os quadros da mensagem, inclusive este. */
+            descartaMensagemRecebida();
             mensagemASerRecebida = false;
             /**
              * Com a mensagem recebida, envia um novo token para a rede.
              */
             this.tempoUltimoToken = System.currentTimeMillis();
-            bubbleDown(criaTokenInicial());
+            bubbleDown(criaTokenInicial(), Priority.CONTROL);
 
             /**
              * Com o token livre novamente, pode ser interessante já verificar
@@ -658,8 +749,9 @@ public class DataLink1 extends DataLink {
 //                }
 //                return;
 //            }
-            return;
+            return true;
         }
+        return false;
     }
 
     @Override
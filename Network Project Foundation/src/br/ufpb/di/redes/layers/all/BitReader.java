@@ -0,0 +1,127 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Cursor para ler os campos de um InterlayerData em sequencia, como quem le
+ * um cabecalho: cada read() devolve o proximo campo e avanca a posicao.
+ * <p/>
+ * Cada campo e' lido direto do array <code>data</code>, com no maximo duas
+ * palavras acessadas, e o cursor nao cria objetos. Para ler outro
+ * InterlayerData com o mesmo cursor, use reset().
+ *
+ * @author Thiago
+ */
+public class BitReader {
+
+    private InterlayerData source;
+    private int position;
+
+    /**
+     * Cria um cursor no inicio de <code>source</code>.
+     */
+    public BitReader(InterlayerData source) {
+        reset(source);
+    }
+
+    /**
+     * Passa a ler <code>source</code>, a partir do bit 0.
+     *
+     * @return este cursor
+     */
+    public BitReader reset (InterlayerData source) {
+        this.source = source;
+        this.position = 0;
+        return this;
+    }
+
+    /**
+     * Le um campo de <code>len</code> bits e avanca o cursor. O primeiro bit
+     * lido vira o bit mais significativo do resultado, como em takeInfo().
+     *
+     * @param len tamanho do campo, entre 0 e 32
+     * @return o campo, alinhado a direita
+     *
+     * @throws ArrayIndexOutOfBoundsException se o campo passar do fim dos
+     * dados.
+     */
+    public int read (int len) {
+        if (len > 32 || len < 0)
+            throw new InvalidParameterException();
+        check(len);
+
+        int result = InterlayerData.readBits(source.data,
+                source.offset + position, len);
+        position += len;
+        return result;
+    }
+
+    /**
+     * Le um bit e avanca o cursor.
+     *
+     * @return <code>true</code> se o bit for 1
+     */
+    public boolean readBit () {
+        return read(1) == 1;
+    }
+
+    /**
+     * Pula <code>len</code> bits, sem le-los.
+     *
+     * @return este cursor
+     */
+    public BitReader skip (int len) {
+        if (len < 0)
+            throw new InvalidParameterException();
+        check(len);
+
+        position += len;
+        return this;
+    }
+
+    /**
+     * @return posicao do proximo bit a ser lido
+     */
+    public int position () {
+        return position;
+    }
+
+    /**
+     * Move o cursor para o bit <code>position</code>.
+     *
+     * @return este cursor
+     */
+    public BitReader position (int position) {
+        if (position < 0 || position > source.length)
+            throw new ArrayIndexOutOfBoundsException("posicao fora dos dados");
+
+        this.position = position;
+        return this;
+    }
+
+    /**
+     * @return quantos bits ainda podem ser lidos
+     */
+    public int remaining () {
+        return source.length - position;
+    }
+
+    /**
+     * @return os bits ainda nao lidos, como uma visao somente-leitura (vide
+     * InterlayerData.slice()). O cursor nao se move.
+     */
+    public InterlayerData rest () {
+        return source.slice(position, source.length - position);
+    }
+
+    private void check (int len) {
+        if (position + len > source.length)
+            throw new ArrayIndexOutOfBoundsException("leitura depois do fim dos dados");
+    }
+
+}
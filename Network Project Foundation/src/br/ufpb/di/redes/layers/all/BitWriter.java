@@ -0,0 +1,131 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Cursor para escrever campos em sequencia num InterlayerData, como quem
+ * monta um cabecalho: cada write() escreve o proximo campo e avanca a
+ * posicao.
+ * <p/>
+ * Cada campo e' escrito direto no array <code>data</code>, alterando no
+ * maximo duas palavras, e o cursor nao cria objetos. Para escrever em outro
+ * InterlayerData com o mesmo cursor, use reset().
+ *
+ * @author Thiago
+ */
+public class BitWriter {
+
+    private InterlayerData target;
+    private int position;
+
+    /**
+     * Cria um cursor no inicio de <code>target</code>.
+     *
+     * @throws UnsupportedOperationException se <code>target</code> for
+     * somente-leitura.
+     */
+    public BitWriter(InterlayerData target) {
+        reset(target);
+    }
+
+    /**
+     * Passa a escrever em <code>target</code>, a partir do bit 0.
+     *
+     * @return este cursor
+     *
+     * @throws UnsupportedOperationException se <code>target</code> for
+     * somente-leitura.
+     */
+    public BitWriter reset (InterlayerData target) {
+        if (target.isReadOnly())
+            throw new UnsupportedOperationException("visao somente leitura");
+
+        this.target = target;
+        this.position = 0;
+        return this;
+    }
+
+    /**
+     * Escreve os <code>len</code> bits menos significativos de
+     * <code>value</code> e avanca o cursor. O bit mais significativo do campo
+     * e' escrito primeiro, como em putInfo().
+     *
+     * @param len tamanho do campo, entre 0 e 32
+     * @param value valor do campo
+     * @return este cursor
+     *
+     * @throws ArrayIndexOutOfBoundsException se o campo passar do fim dos
+     * dados.
+     */
+    public BitWriter write (int len, int value) {
+        if (len > 32 || len < 0)
+            throw new InvalidParameterException();
+        check(len);
+
+        InterlayerData.writeBits(target.data, target.offset + position,
+                len, value);
+        position += len;
+        return this;
+    }
+
+    /**
+     * Escreve um bit e avanca o cursor.
+     *
+     * @return este cursor
+     */
+    public BitWriter writeBit (boolean value) {
+        return write(1, value ? 1 : 0);
+    }
+
+    /**
+     * Pula <code>len</code> bits, deixando-os como estao.
+     *
+     * @return este cursor
+     */
+    public BitWriter skip (int len) {
+        if (len < 0)
+            throw new InvalidParameterException();
+        check(len);
+
+        position += len;
+        return this;
+    }
+
+    /**
+     * @return posicao do proximo bit a ser escrito
+     */
+    public int position () {
+        return position;
+    }
+
+    /**
+     * Move o cursor para o bit <code>position</code>.
+     *
+     * @return este cursor
+     */
+    public BitWriter position (int position) {
+        if (position < 0 || position > target.length)
+            throw new ArrayIndexOutOfBoundsException("posicao fora dos dados");
+
+        this.position = position;
+        return this;
+    }
+
+    /**
+     * @return quantos bits ainda podem ser escritos
+     */
+    public int remaining () {
+        return target.length - position;
+    }
+
+    private void check (int len) {
+        if (position + len > target.length)
+            throw new ArrayIndexOutOfBoundsException("escrita depois do fim dos dados");
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tamanho de um buffer entre camadas e o que fazer quando ele enche. Cada
+ * entidade pode ter a sua (vide, por exemplo, DataLink.setSendBufferPolicy()).
+ * <p/>
+ * Objetos desta classe sao imutaveis; crie-os com os metodos estaticos.
+ * Para separar mensagens de controle das de dados, use withControlLane().
+ *
+ * @author Thiago
+ */
+public final class BufferPolicy {
+
+    /**O que fazer com uma mensagem que chega com o buffer cheio.*/
+    public static enum Overflow {
+
+        /**Espera ate haver espaco, como ArrayBlockingQueue.put().*/
+        BLOCK,
+        /**Espera ate haver espaco, mas descarta a mensagem apos um tempo.*/
+        BLOCK_TIMEOUT,
+        /**Descarta a mensagem que chegou.*/
+        DROP_NEWEST,
+        /**Descarta a mensagem mais antiga do buffer, para abrir espaco.*/
+        DROP_OLDEST,
+        /**Lanca IllegalStateException para quem entregou a mensagem.*/
+        REJECT,
+    }
+
+    private final int capacity;
+    private final Overflow overflow;
+    private final long timeoutNanos;
+    private final int controlCapacity;
+    private final int maxControlBurst;
+
+    private BufferPolicy(int capacity, Overflow overflow, long timeoutNanos) {
+        this(capacity, overflow, timeoutNanos, 0, 0);
+    }
+
+    private BufferPolicy(int capacity, Overflow overflow, long timeoutNanos,
+            int controlCapacity, int maxControlBurst) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity deve ser maior que 0! " +
+                    "capacity = " + capacity);
+        }
+        if (timeoutNanos < 0) {
+            throw new IllegalArgumentException("timeout negativo");
+        }
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.timeoutNanos = timeoutNanos;
+        this.controlCapacity = controlCapacity;
+        this.maxControlBurst = maxControlBurst;
+    }
+
+    /**
+     * @return Buffer de <code>capacity</code> mensagens que espera quando
+     * cheio. E' o comportamento padrao.
+     */
+    public static BufferPolicy block(int capacity) {
+        return new BufferPolicy(capacity, Overflow.BLOCK, 0);
+    }
+
+    /**
+     * @return Buffer de <code>capacity</code> mensagens que espera no maximo
+     * <code>timeout</code> quando cheio, e depois descarta a mensagem.
+     */
+    public static BufferPolicy blockWithTimeout(int capacity, long timeout,
+            TimeUnit unit) {
+        return new BufferPolicy(capacity, Overflow.BLOCK_TIMEOUT,
+                unit.toNanos(timeout));
+    }
+
+    /**
+     * @return Buffer de <code>capacity</code> mensagens que descarta a
+     * mensagem que chega quando cheio.
+     */
+    public static BufferPolicy dropNewest(int capacity) {
+        return new BufferPolicy(capacity, Overflow.DROP_NEWEST, 0);
+    }
+
+    /**
+     * @return Buffer de <code>capacity</code> mensagens que descarta a
+     * mensagem mais antiga quando cheio.
+     */
+    public static BufferPolicy dropOldest(int capacity) {
+        return new BufferPolicy(capacity, Overflow.DROP_OLDEST, 0);
+    }
+
+    /**
+     * @return Buffer de <code>capacity</code> mensagens que lanca
+     * IllegalStateException quando cheio.
+     */
+    public static BufferPolicy reject(int capacity) {
+        return new BufferPolicy(capacity, Overflow.REJECT, 0);
+    }
+
+    /**
+     * @return Uma copia desta politica com uma faixa de controle de
+     * <code>controlCapacity</code> mensagens, que passam na frente dos dados
+     * (vide LaneQueue). A capacidade e a politica desta valem para a faixa de
+     * dados.
+     *
+     * @param maxControlBurst quantas mensagens de controle podem sair seguidas
+     * enquanto houver dados esperando.
+     */
+    public BufferPolicy withControlLane(int controlCapacity, int maxControlBurst) {
+        if (controlCapacity < 1 || maxControlBurst < 1) {
+            throw new IllegalArgumentException("faixa de controle invalida: " +
+                    controlCapacity + "," + maxControlBurst);
+        }
+        return new BufferPolicy(capacity, overflow, timeoutNanos,
+                controlCapacity, maxControlBurst);
+    }
+
+    /**
+     * Interpreta uma politica escrita como em toString(), por exemplo
+     * "50,BLOCK", "20,DROP_OLDEST" ou "10,BLOCK_TIMEOUT,200" (timeout em
+     * milissegundos). So o tamanho tambem vale, e significa BLOCK. Um sufixo
+     * ";8,4" acrescenta uma faixa de controle de 8 mensagens com rajada de 4.
+     *
+     * @throws IllegalArgumentException se o texto for invalido.
+     */
+    public static BufferPolicy parse(String text) {
+        String lanes[] = text.trim().split("\\s*;\\s*");
+        String parts[] = lanes[0].split("\\s*,\\s*");
+        try {
+            int capacity = Integer.parseInt(parts[0]);
+            Overflow overflow = parts.length > 1
+                    ? Overflow.valueOf(parts[1].toUpperCase())
+                    : Overflow.BLOCK;
+            long timeout = 0;
+            if (overflow == Overflow.BLOCK_TIMEOUT) {
+                if (parts.length < 3)
+                    throw new IllegalArgumentException("falta o timeout: " + text);
+                timeout = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(parts[2]));
+            }
+            BufferPolicy policy = new BufferPolicy(capacity, overflow, timeout);
+            if (lanes.length > 1) {
+                String control[] = lanes[1].split("\\s*,\\s*");
+                if (control.length != 2)
+                    throw new IllegalArgumentException("faixa de controle invalida: " + text);
+                policy = policy.withControlLane(Integer.parseInt(control[0]),
+                        Integer.parseInt(control[1]));
+            }
+            return policy;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("politica invalida: " + text, e);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * @return Tempo maximo de espera em BLOCK_TIMEOUT, em nanossegundos.
+     */
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * @return Se ha faixa de controle separada.
+     */
+    public boolean hasControlLane() {
+        return controlCapacity > 0;
+    }
+
+    /**
+     * @return Tamanho da faixa de controle, ou 0 se nao houver.
+     */
+    public int getControlCapacity() {
+        return controlCapacity;
+    }
+
+    public int getMaxControlBurst() {
+        return maxControlBurst;
+    }
+
+    @Override
+    public String toString() {
+        String text = capacity + "," + overflow;
+        if (overflow == Overflow.BLOCK_TIMEOUT)
+            text += "," + TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+        if (hasControlLane())
+            text += ";" + controlCapacity + "," + maxControlBurst;
+        return text;
+    }
+
+}
@@ -16,5 +16,9 @@ public class DefaultValues {
 
     public static final int DOWN_BUFFER_SIZE = 50;
     public static final int UP_BUFFER_SIZE = 50;
+    /**Prazo padrao de Layer.stop(), em milissegundos.*/
+    public static final long STOP_TIMEOUT = 5000;
+    /**Quantos rastros Tracing.recent() guarda.*/
+    public static final int TRACES_KEPT = 1000;
 
 }
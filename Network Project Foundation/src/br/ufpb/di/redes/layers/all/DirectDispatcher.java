@@ -0,0 +1,71 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Processa mensagens na propria thread de quem as entrega, no lugar de um
+ * buffer com thread de trabalho. Usado pelas camadas em modo sincrono (vide
+ * Layer.setSynchronous()).
+ * <p/>
+ * Uma chamada reentrante (processar uma mensagem leva a outra mensagem para
+ * a mesma camada, como o token de um anel que volta ao enlace de origem) nao
+ * processa na hora: a mensagem e' guardada e processada quando a chamada
+ * externa terminar a atual. O mesmo vale para outra thread que entregue uma
+ * mensagem enquanto esta ja processa: quem estiver processando esvazia a
+ * fila. Assim process() nunca roda duas vezes ao mesmo tempo, e a pilha de
+ * chamadas nao cresce a cada volta do anel.
+ *
+ * @author Thiago
+ */
+public abstract class DirectDispatcher<E> {
+
+    /**Mensagens entregues enquanto outra era processada. Nao tem limite.*/
+    private final Queue<E> pending = new ConcurrentLinkedQueue<E>();
+
+    /**Indica que alguma thread esta esvaziando pending.*/
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * Processa <code>message</code> e as que chegarem enquanto isso, a nao
+     * ser que esta camada ja esteja processando; nesse caso, so guarda a
+     * mensagem e retorna.
+     * <p/>
+     * Se process() lancar excecao, ela chega a quem chamou dispatch(), e as
+     * mensagens ainda guardadas ficam para a proxima chamada.
+     *
+     * @param message mensagem a processar
+     */
+    public void dispatch(E message) {
+        pending.add(message);
+        while (!pending.isEmpty() && running.compareAndSet(false, true)) {
+            try {
+                E next;
+                while ((next = pending.poll()) != null) {
+                    process(next);
+                }
+            } finally {
+                running.set(false);
+            }
+        }
+    }
+
+    /**
+     * @return quantas mensagens esperam para ser processadas
+     */
+    public int pending() {
+        return pending.size();
+    }
+
+    /**
+     * Processa uma mensagem, como a thread de trabalho da camada faria.
+     */
+    protected abstract void process(E message);
+
+}
@@ -0,0 +1,27 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+/**
+ * Recebe as mensagens que um LayerBuffer descarta por falta de espaco, para
+ * que a camada possa devolve-las a InterlayerDataPool (vide
+ * InterlayerDataPool.getLeaks()).
+ *
+ * @author Thiago
+ */
+public interface DropHandler<E> {
+
+    /**
+     * Chamado na thread que chamou put(), sem o buffer travado, com a
+     * mensagem mais antiga da fila (DROP_OLDEST) ou com a que nao coube
+     * (DROP_NEWEST e BLOCK_TIMEOUT). Com REJECT a mensagem nao passa por
+     * aqui: put() lanca a excecao e ela continua sendo de quem o chamou.
+     *
+     * @param e a mensagem descartada, que ninguem mais vai usar
+     */
+    void dropped(E e);
+
+}
@@ -0,0 +1,72 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.util.Arrays;
+
+/**
+ * Copia imutavel de um InterlayerData, criada por InterlayerData.freeze().
+ * <p/>
+ * Os bits sao copiados uma vez para um array proprio, comecando no bit 0 e
+ * com os bits de preenchimento da ultima palavra zerados. O hash e'
+ * calculado na criacao. Por isso a copia pode ser compartilhada entre as
+ * threads das camadas e usada como chave de mapas sem sincronizacao.
+ * <p/>
+ * Os metodos que alteram bits lancam UnsupportedOperationException. O array
+ * <code>data</code> continua publico e nao deve ser alterado diretamente.
+ *
+ * @author Thiago
+ */
+public final class FrozenInterlayerData extends InterlayerDataSlice {
+
+    private final int hash;
+
+    FrozenInterlayerData(InterlayerData source) {
+        super(new int[(source.length + 31) >> 5], 0, source.length);
+        copyBits(this.data, source);
+        this.hash = super.hashCode();
+    }
+
+    /**
+     * A copia e' feita aqui, e nao com copyBits(), porque este objeto ja
+     * nasce somente-leitura.
+     */
+    private static void copyBits (int dest[], InterlayerData source) {
+        for (int i = 0; i < dest.length; ++i) {
+            int bits = Math.min(32, source.length - i * 32);
+            dest[i] = source.takeInfo(i * 32, bits) << (32 - bits);
+        }
+    }
+
+    @Override
+    public boolean isFrozen () {
+        return true;
+    }
+
+    @Override
+    public FrozenInterlayerData freeze () {
+        return this;
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (obj instanceof FrozenInterlayerData) {
+            FrozenInterlayerData other = (FrozenInterlayerData) obj;
+            return hash == other.hash && length == other.length
+                    && Arrays.equals(data, other.data);
+        }
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode () {
+        return hash;
+    }
+
+}
@@ -0,0 +1,248 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Descricao de um cabecalho como uma lista ordenada de campos com nome e
+ * tamanho em bits. Cada campo comeca onde o anterior termina.
+ * <p/>
+ * Ao declarar um campo com add(), a posicao, a palavra, o deslocamento e a
+ * mascara dele sao calculados uma vez; o Field devolvido le e escreve o campo
+ * num InterlayerData sem percorrer bits e sem criar objetos. Para mudar o
+ * formato basta mudar a declaracao.
+ * <p/>
+ * Exemplo, o token da DataLink1 (CCOOODDDXXbpcccc):
+ * <pre>
+ * HeaderLayout TOKEN = new HeaderLayout();
+ * Field CONTROLE = TOKEN.add("controle", 2);
+ * Field ORIGEM = TOKEN.add("origem", 3);
+ * ...
+ * int origem = ORIGEM.get(quadro);
+ * </pre>
+ * Os campos devem ser todos declarados antes do uso, normalmente em
+ * constantes estaticas; depois disso o layout pode ser usado por varias
+ * threads.
+ *
+ * @author Thiago
+ */
+public class HeaderLayout {
+
+    private final List<Field> fields = new ArrayList<Field>();
+    private int length;
+
+    /**
+     * Declara o proximo campo do cabecalho.
+     *
+     * @param name nome do campo, usado em toString() e field()
+     * @param width tamanho do campo, entre 1 e 32
+     * @return o campo, para ler e escrever seu valor
+     */
+    public Field add (String name, int width) {
+        if (width < 1 || width > 32)
+            throw new InvalidParameterException("campo com tamanho " + width);
+
+        Field field = new Field(name, fields.size(), length, width);
+        fields.add(field);
+        length += width;
+        return field;
+    }
+
+    /**
+     * @return tamanho do cabecalho, em bits
+     */
+    public int length () {
+        return length;
+    }
+
+    /**
+     * @return quantidade de campos
+     */
+    public int size () {
+        return fields.size();
+    }
+
+    /**
+     * @return o campo de indice <code>index</code>, na ordem de declaracao
+     */
+    public Field field (int index) {
+        return fields.get(index);
+    }
+
+    /**
+     * @return o campo chamado <code>name</code>, ou null se nao houver
+     */
+    public Field field (String name) {
+        for (Field field : fields) {
+            if (field.name.equals(name))
+                return field;
+        }
+        return null;
+    }
+
+    /**
+     * Le todos os campos do cabecalho no inicio de <code>data</code>.
+     *
+     * @param data dados que comecam com este cabecalho
+     * @param values recebe o valor de cada campo, na ordem de declaracao.
+     * Deve ter pelo menos size() posicoes.
+     * @return <code>values</code>
+     */
+    public int[] decode (InterlayerData data, int values[]) {
+        checkLength(data);
+        for (int i = 0; i < fields.size(); ++i) {
+            values[i] = fields.get(i).get(data);
+        }
+        return values;
+    }
+
+    /**
+     * Escreve todos os campos do cabecalho no inicio de <code>data</code>.
+     *
+     * @param data dados que comecam com este cabecalho
+     * @param values valor de cada campo, na ordem de declaracao. Bits acima
+     * do tamanho de cada campo sao ignorados.
+     */
+    public void encode (InterlayerData data, int values[]) {
+        checkLength(data);
+        for (int i = 0; i < fields.size(); ++i) {
+            fields.get(i).set(data, values[i]);
+        }
+    }
+
+    private void checkLength (InterlayerData data) {
+        if (data.length < length)
+            throw new ArrayIndexOutOfBoundsException("dados menores que o cabecalho");
+    }
+
+    @Override
+    public String toString () {
+        StringBuilder sb = new StringBuilder();
+        for (Field field : fields) {
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append(field.name).append(':').append(field.width);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Um campo de um HeaderLayout. Guarda a posicao do campo ja decomposta em
+     * palavra, deslocamento e mascara.
+     * <p/>
+     * Quando o InterlayerData comeca no inicio de uma palavra (offset
+     * multiplo de 32, o caso comum) e o campo nao atravessa duas palavras, a
+     * leitura e a escrita sao um acesso ao array com deslocamento e mascara
+     * fixos. Nos outros casos, o campo e' lido como em takeInfo().
+     */
+    public static class Field {
+
+        private final String name;
+        private final int index;
+        private final int start;
+        private final int width;
+
+        private final int word;
+        private final int shift;
+        private final int mask;
+        private final boolean spansWords;
+
+        Field(String name, int index, int start, int width) {
+            this.name = name;
+            this.index = index;
+            this.start = start;
+            this.width = width;
+
+            this.word = start >> 5;
+            int bit = start & 31;
+            this.spansWords = bit + width > 32;
+            this.shift = spansWords ? 0 : 32 - bit - width;
+            this.mask = -1 >>> (32 - width);
+        }
+
+        /**
+         * Le o campo em <code>data</code>.
+         *
+         * @return o valor, alinhado a direita
+         */
+        public int get (InterlayerData data) {
+            if (start + width > data.length)
+                throw new ArrayIndexOutOfBoundsException("campo " + name + " fora dos dados");
+
+            if ((data.offset & 31) == 0 && !spansWords) {
+                return (data.data[(data.offset >> 5) + word] >>> shift) & mask;
+            }
+            return InterlayerData.readBits(data.data, data.offset + start, width);
+        }
+
+        /**
+         * @return <code>true</code> se o campo, de um bit, estiver ligado
+         */
+        public boolean isSet (InterlayerData data) {
+            return get(data) != 0;
+        }
+
+        /**
+         * Escreve os bits menos significativos de <code>value</code> no campo.
+         *
+         * @throws UnsupportedOperationException se <code>data</code> for
+         * somente-leitura.
+         */
+        public void set (InterlayerData data, int value) {
+            if (data.isReadOnly())
+                throw new UnsupportedOperationException("visao somente leitura");
+            if (start + width > data.length)
+                throw new ArrayIndexOutOfBoundsException("campo " + name + " fora dos dados");
+
+            if ((data.offset & 31) == 0 && !spansWords) {
+                int pos = (data.offset >> 5) + word;
+                data.data[pos] = (data.data[pos] & ~(mask << shift))
+                        | ((value & mask) << shift);
+                return;
+            }
+            InterlayerData.writeBits(data.data, data.offset + start, width, value);
+        }
+
+        public String getName () {
+            return name;
+        }
+
+        /**
+         * @return posicao do campo na ordem de declaracao
+         */
+        public int getIndex () {
+            return index;
+        }
+
+        /**
+         * @return posicao do primeiro bit do campo
+         */
+        public int getStart () {
+            return start;
+        }
+
+        /**
+         * @return posicao do primeiro bit depois do campo
+         */
+        public int getEnd () {
+            return start + width;
+        }
+
+        public int getWidth () {
+            return width;
+        }
+
+        @Override
+        public String toString () {
+            return name + ":" + width;
+        }
+
+    }
+
+}
@@ -5,8 +5,14 @@
 
 package br.ufpb.di.redes.layers.all;
 
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Esta classe esta aqui para abstrair um array de bits.
@@ -118,46 +124,340 @@ public class InterlayerData {
     public InterlayerData(int datalength) {
         data = new int[datalength % 32 == 0 ? datalength/32 : datalength/32 + 1];
         length = datalength;
+        offset = 0;
+    }
+
+    /**
+     * Cria um InterlayerData de <code>datalength</code> bits, reservando no
+     * mesmo array <code>headroom</code> bits antes dos dados e
+     * <code>tailroom</code> bits depois deles.
+     * <p/>
+     * As camadas de baixo usam o espaco reservado para escrever seus
+     * cabecalhos (vide pushHeader()) sem copiar os dados. Quem cria o pacote
+     * normalmente pede <code>downLayer.headroom()</code> bits.
+     *
+     * @param headroom bits livres antes dos dados
+     * @param datalength tamanho dos dados
+     * @param tailroom bits livres depois dos dados
+     */
+    public InterlayerData(int headroom, int datalength, int tailroom) {
+        this(new int[(headroom + datalength + tailroom + 31) >> 5], headroom, datalength);
+    }
+
+    /**
+     * Cria um InterlayerData que usa um array ja existente, a partir do bit
+     * <code>offset</code>. Usado pelas visoes (vide slice()).
+     */
+    protected InterlayerData(int data[], int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length * 32) {
+            throw new ArrayIndexOutOfBoundsException("offset e length fora do array");
+        }
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
     }
 
     public final int data[];
     public final int length;
 
+    /**
+     * Reserva que criou este objeto, ou null. Usado por InterlayerDataPool.
+     */
+    InterlayerDataPool pool;
+
+    /**
+     * Indica se este objeto esta guardado na sua reserva. Protegido pelo
+     * lock da classe de tamanho em InterlayerDataPool.
+     */
+    boolean inPool;
+
+    /**Rastro do segmento de onde vieram estes bits, ou null.*/
+    private PacketTrace trace;
+
+    /**
+     * Posicao, em <code>data</code>, do bit de indice 0 deste InterlayerData.
+     * E' zero, exceto nas visoes criadas com slice(), que compartilham o
+     * array de outro InterlayerData.
+     */
+    public final int offset;
+
+    /**
+     * Cria uma visao somente-leitura de <code>len</code> bits deste
+     * InterlayerData, a partir do bit <code>from</code>. Nenhum bit e'
+     * copiado: a visao usa o mesmo array <code>data</code>, entao qualquer
+     * mudanca neste objeto aparece na visao.
+     * <p/>
+     * Serve para retirar cabecalhos antes de repassar dados para cima.
+     *
+     * @param from primeiro bit da visao
+     * @param len quantidade de bits da visao
+     * @return a visao
+     *
+     * @throws ArrayIndexOutOfBoundsException se a visao nao couber neste
+     * InterlayerData.
+     */
+    public InterlayerData slice (int from, int len) {
+        if (from < 0 || len < 0 || from + len > length) {
+            throw new ArrayIndexOutOfBoundsException("from + len maior que length");
+        }
+        InterlayerData result = new InterlayerDataSlice(data, offset + from, len);
+        result.trace = trace;
+        return result;
+    }
+
+    /**
+     * @return O rastro do segmento de onde vieram estes bits, ou
+     * <code>null</code> se ele nao estiver sendo rastreado (vide Tracing).
+     * Visoes criadas com slice() herdam o rastro.
+     */
+    public PacketTrace getTrace() {
+        return trace;
+    }
+
+    public void setTrace(PacketTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Divide este InterlayerData em pedacos de <code>chunk</code> bits, na
+     * ordem. O ultimo pedaco fica menor se <code>length</code> nao for
+     * multiplo de <code>chunk</code>. Os pedacos sao visoes
+     * somente-leitura (vide slice()), entao nada e' copiado.
+     * <p/>
+     * Serve para fragmentar dados em quadros.
+     *
+     * @param chunk tamanho de cada pedaco, maior que zero
+     * @return os pedacos
+     */
+    public List<InterlayerData> scatter (int chunk) {
+        if (chunk <= 0)
+            throw new InvalidParameterException("chunk deve ser positivo");
+
+        List<InterlayerData> result = new ArrayList<InterlayerData>((length + chunk - 1) / chunk);
+        for (int i = 0; i < length; i += chunk) {
+            result.add(slice(i, Math.min(chunk, length - i)));
+        }
+        return result;
+    }
+
+    /**
+     * Junta os fragmentos, na ordem, num unico InterlayerData. O resultado e'
+     * criado uma vez so, ja com o tamanho total, e cada fragmento e' copiado
+     * com copyBits().
+     *
+     * @param fragments os fragmentos
+     * @return os bits de todos os fragmentos, em sequencia
+     */
+    public static InterlayerData gather (List<? extends InterlayerData> fragments) {
+        int total = 0;
+        for (InterlayerData fragment : fragments) {
+            total += fragment.length;
+        }
+
+        InterlayerData result = new InterlayerData(total);
+        int pos = 0;
+        for (InterlayerData fragment : fragments) {
+            copyBits(result, fragment, 0, fragment.length, pos);
+            pos += fragment.length;
+        }
+        return result;
+    }
+
+    /**
+     * Como gather(fragments), mas junta apenas <code>len</code> bits de cada
+     * fragmento, a partir do bit <code>from</code>. Serve para remontar uma
+     * mensagem a partir dos campos de dados dos seus quadros, sem
+     * desenquadrar cada um antes.
+     *
+     * @throws ArrayIndexOutOfBoundsException se algum fragmento nao tiver
+     * o trecho pedido.
+     */
+    public static InterlayerData gather (List<? extends InterlayerData> fragments,
+            int from, int len) {
+        InterlayerData result = new InterlayerData(fragments.size() * len);
+        int pos = 0;
+        for (InterlayerData fragment : fragments) {
+            copyBits(result, fragment, from, len, pos);
+            pos += len;
+        }
+        return result;
+    }
+
+    /**
+     * @return quantos bits livres ha antes dos dados, no mesmo array. Visoes
+     * somente-leitura nao tem espaco livre.
+     */
+    public int headroom () {
+        return isReadOnly() ? 0 : offset;
+    }
+
+    /**
+     * @return quantos bits livres ha depois dos dados, no mesmo array. Visoes
+     * somente-leitura nao tem espaco livre.
+     */
+    public int tailroom () {
+        return isReadOnly() ? 0 : data.length * 32 - offset - length;
+    }
+
+    /**
+     * Retorna um InterlayerData com <code>len</code> bits a mais na frente,
+     * tirados do headroom deste. Os dados nao sao copiados: o resultado usa
+     * o mesmo array, e seus <code>len</code> primeiros bits estao livres para
+     * o cabecalho da camada que chamou este metodo.
+     *
+     * @param len tamanho do cabecalho
+     * @return os dados precedidos pelo espaco do cabecalho
+     *
+     * @throws ArrayIndexOutOfBoundsException se <code>len</code> for maior
+     * que headroom().
+     */
+    public InterlayerData pushHeader (int len) {
+        if (len < 0 || len > headroom()) {
+            throw new ArrayIndexOutOfBoundsException("len maior que headroom");
+        }
+        return new InterlayerData(data, offset - len, length + len);
+    }
+
+    /**
+     * Retorna um InterlayerData com <code>len</code> bits a mais no fim,
+     * tirados do tailroom deste, sem copiar os dados.
+     *
+     * @param len tamanho do trecho final
+     * @return os dados seguidos pelo espaco do trecho final
+     *
+     * @throws ArrayIndexOutOfBoundsException se <code>len</code> for maior
+     * que tailroom().
+     */
+    public InterlayerData putTrailer (int len) {
+        if (len < 0 || len > tailroom()) {
+            throw new ArrayIndexOutOfBoundsException("len maior que tailroom");
+        }
+        return new InterlayerData(data, offset, length + len);
+    }
+
+    /**
+     * @return <code>true</code> se este objeto nao pode ser alterado pelos
+     * seus metodos (caso das visoes criadas por slice()).
+     */
+    public boolean isReadOnly () {
+        return false;
+    }
+
+    /**
+     * Retorna uma copia imutavel destes bits, com o hash ja calculado, que
+     * pode ser compartilhada entre threads e usada como chave de mapas. Se
+     * este objeto ja for uma copia imutavel, retorna ele mesmo.
+     *
+     * @return a copia imutavel
+     */
+    public FrozenInterlayerData freeze () {
+        return new FrozenInterlayerData(this);
+    }
+
+    /**
+     * @return <code>true</code> se este objeto for uma copia imutavel criada
+     * por freeze().
+     */
+    public boolean isFrozen () {
+        return false;
+    }
+
+    /**
+     * Escreve os <code>len</code> bits menos significativos de
+     * <code>infoToPut</code> a partir da posicao <code>start</code>. O bit
+     * mais significativo do campo fica na posicao <code>start</code>.
+     * <p/>
+     * Um campo de ate 32 bits ocupa no maximo duas palavras de
+     * <code>data</code>, entao a escrita e' feita com mascaras e deslocamentos,
+     * sem percorrer os bits um a um.
+     *
+     * @param start posicao do primeiro bit do campo
+     * @param len tamanho do campo, entre 0 e 32
+     * @param infoToPut valor a ser escrito
+     */
     public void putInfo (int start, int len, int infoToPut) {
         if (len > 32 || len < 0)
             throw new InvalidParameterException();
 
-        for (int i = start+len-1; i >= start; --i) {
-            if ((infoToPut & 0x01) != 0)
-                setBit(i);
-            else
-                clearBit(i);
-
-            infoToPut = infoToPut >>> 1;
-        }
+        writeBits(data, start + offset, len, infoToPut);
 
     }
 
+    /**
+     * Le um campo de <code>len</code> bits a partir da posicao
+     * <code>start</code>. O bit na posicao <code>start</code> vira o bit mais
+     * significativo do resultado.
+     * <p/>
+     * Le no maximo duas palavras de <code>data</code>.
+     *
+     * @param start posicao do primeiro bit do campo
+     * @param len tamanho do campo, entre 0 e 32
+     * @return o campo, alinhado a direita
+     */
     public int takeInfo (int start, int len) {
         if (len > 32 || len < 0)
             throw new InvalidParameterException();
 
-        int result = 0;
+        return readBits(data, start + offset, len);
 
-        for (int i = 0; i < len; ++i) {
-            result <<= 1;
-            if (getBit(start+i) == true)
-                result |= 0x01;
+    }
+
+    /**
+     * Escreve um campo de ate 32 bits na posicao absoluta <code>pos</code> de
+     * <code>data</code>, com no maximo duas palavras alteradas.
+     */
+    static void writeBits (int data[], int pos, int len, int value) {
+        if (len == 0)
+            return;
+
+        int word = pos >> 5;
+        int bit = pos & 31;
+        int end = bit + len;
+
+        if (end <= 32) {
+            int shift = 32 - end;
+            int mask = (-1 >>> (32 - len)) << shift;
+            data[word] = (data[word] & ~mask) | ((value << shift) & mask);
+        } else {
+            int lowLen = end - 32;
+            //a segunda palavra e' escrita antes, como na versao bit a bit,
+            //que comecava pelo ultimo bit do campo
+            data[word+1] = (data[word+1] & (-1 >>> lowLen))
+                    | (value << (32 - lowLen));
+            int mask = -1 >>> bit;
+            data[word] = (data[word] & ~mask) | ((value >>> lowLen) & mask);
         }
+    }
 
-        return result;
+    /**
+     * Le um campo de ate 32 bits da posicao absoluta <code>pos</code> de
+     * <code>data</code>, com no maximo duas palavras lidas.
+     */
+    static int readBits (int data[], int pos, int len) {
+        if (len == 0)
+            return 0;
 
+        int word = pos >> 5;
+        int bit = pos & 31;
+
+        int result = data[word] << bit;
+        if (bit + len > 32) {
+            result |= data[word+1] >>> (32 - bit);
+        }
+
+        return result >>> (32 - len);
     }
 
     /**
      * Copia <code>len</code> bits de <code>src</code> a <code>dest</code>,
      * lendo a partir de <code>offset</code>, em <code>src</code>, e comecando
      * a escrita na posicao <code>start</code>, em <code>dest</code>
+     * <p/>
+     * A copia e' feita de 32 em 32 bits. Se origem e destino tem o mesmo
+     * alinhamento dentro da palavra, as palavras inteiras sao copiadas com
+     * System.arraycopy; caso contrario, cada palavra do destino e' montada a
+     * partir de duas palavras da origem. <code>src</code> e <code>dest</code>
+     * podem ser o mesmo objeto, mesmo com regioes sobrepostas.
      *
      * @param dest destino dos bits
      * @param src origem dos bits
@@ -187,18 +487,479 @@ public class InterlayerData {
         if (start + len > dest.length) {
             throw new ArrayIndexOutOfBoundsException("start + len maior que dest.length");
         }
+        if (dest.isReadOnly()) {
+            throw new UnsupportedOperationException("dest e' somente leitura");
+        }
 
+        if (len == 0) {
+            return;
+        }
 
-        for (int i = 0; i < len; ++i) {
-            if (src.getBit(i+offset) == true) {
-                dest.setBit(i+start);
-            } else {
-                dest.clearBit(i+start);
-            }
+        int from = offset + src.offset;
+        int to = start + dest.offset;
+
+        //se for o mesmo array e o destino estiver adiante da origem, a copia
+        //e' feita de tras para frente, para nao sobrescrever o que falta ler
+        boolean backwards = dest.data == src.data && to > from;
+
+        if (((from ^ to) & 31) == 0) {
+            copyAlignedBits(dest.data, src.data, from, len, to, backwards);
+        } else {
+            copyUnalignedBits(dest.data, src.data, from, len, to, backwards);
         }
 
     };
 
+    /**
+     * Copia bits quando <code>offset</code> e <code>start</code> tem o mesmo
+     * alinhamento: um pedaco inicial ate o fim da palavra, as palavras
+     * inteiras com System.arraycopy e um pedaco final.
+     */
+    private static void copyAlignedBits (
+            int dest[],
+            int src[],
+            int from,
+            int len,
+            int to,
+            boolean backwards) {
+
+        int head = (32 - (from & 31)) & 31;
+        if (head > len) {
+            head = len;
+        }
+        int words = (len - head) >> 5;
+        int done = head + (words << 5);
+        int tail = len - done;
+
+        if (!backwards && head > 0) {
+            writeBits(dest, to, head, readBits(src, from, head));
+        }
+        if (backwards && tail > 0) {
+            writeBits(dest, to+done, tail, readBits(src, from+done, tail));
+        }
+
+        System.arraycopy(src, (from + head) >> 5, dest, (to + head) >> 5, words);
+
+        if (!backwards && tail > 0) {
+            writeBits(dest, to+done, tail, readBits(src, from+done, tail));
+        }
+        if (backwards && head > 0) {
+            writeBits(dest, to, head, readBits(src, from, head));
+        }
+    }
+
+    /**
+     * Copia bits de 32 em 32, cada palavra lida de duas palavras da origem e
+     * escrita em duas palavras do destino.
+     */
+    private static void copyUnalignedBits (
+            int dest[],
+            int src[],
+            int from,
+            int len,
+            int to,
+            boolean backwards) {
+
+        int full = len & ~31;
+        int rest = len - full;
+
+        if (backwards) {
+            if (rest > 0) {
+                writeBits(dest, to+full, rest, readBits(src, from+full, rest));
+            }
+            for (int i = full - 32; i >= 0; i -= 32) {
+                writeBits(dest, to+i, 32, readBits(src, from+i, 32));
+            }
+        } else {
+            for (int i = 0; i < full; i += 32) {
+                writeBits(dest, to+i, 32, readBits(src, from+i, 32));
+            }
+            if (rest > 0) {
+                writeBits(dest, to+full, rest, readBits(src, from+full, rest));
+            }
+        }
+    }
+
+
+    /**
+     * Cria um InterlayerData com os bits de <code>len</code> bytes de
+     * <code>src</code>, a partir de <code>off</code>. O bit mais
+     * significativo de cada byte vem primeiro.
+     */
+    public static InterlayerData fromBytes (byte src[], int off, int len) {
+        InterlayerData result = new InterlayerData(len * 8);
+        result.putBytes(0, src, off, len);
+        return result;
+    }
+
+    /**
+     * Cria um InterlayerData com os bits de todos os bytes de
+     * <code>src</code>.
+     */
+    public static InterlayerData fromBytes (byte src[]) {
+        return fromBytes(src, 0, src.length);
+    }
+
+    /**
+     * Cria um InterlayerData a partir de <code>len</code> bytes de
+     * <code>src</code> que guardam um bit cada (o formato usado pela camada
+     * fisica): o byte 1 vira o bit 1 e qualquer outro valor vira 0.
+     */
+    public static InterlayerData fromBitBytes (byte src[], int off, int len) {
+        InterlayerData result = new InterlayerData(len);
+        result.putBitBytes(0, src, off, len);
+        return result;
+    }
+
+    /**
+     * @return todos os bits deste objeto empacotados em bytes, o primeiro bit
+     * no bit mais significativo do primeiro byte. Se <code>length</code> nao
+     * for multiplo de 8, o ultimo byte e' completado com zeros.
+     */
+    public byte[] toBytes () {
+        byte result[] = new byte[(length + 7) >> 3];
+        int full = length >> 3;
+        takeBytes(0, result, 0, full);
+        if (full < result.length) {
+            int rest = length & 7;
+            result[full] = (byte) (readBits(data, offset + full * 8, rest) << (8 - rest));
+        }
+        return result;
+    }
+
+    /**
+     * @return todos os bits deste objeto, um por byte (0 ou 1).
+     */
+    public byte[] toBitBytes () {
+        byte result[] = new byte[length];
+        takeBitBytes(0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Escreve <code>len</code> bytes de <code>src</code>, a partir de
+     * <code>off</code>, nos bits que comecam em <code>start</code>.
+     * <p/>
+     * Os bytes sao juntados de 4 em 4 numa palavra, que e' escrita de uma vez
+     * (alterando no maximo duas palavras de <code>data</code>).
+     *
+     * @throws ArrayIndexOutOfBoundsException se os bytes nao couberem.
+     * @throws UnsupportedOperationException se este objeto for
+     * somente-leitura.
+     */
+    public void putBytes (int start, byte src[], int off, int len) {
+        checkRange(start, len * 8);
+        checkWritable();
+
+        int pos = offset + start;
+        int i = off;
+        int end = off + len;
+        for (; end - i >= 4; i += 4, pos += 32) {
+            writeBits(data, pos, 32,
+                    (src[i] << 24) | ((src[i+1] & 0xff) << 16)
+                    | ((src[i+2] & 0xff) << 8) | (src[i+3] & 0xff));
+        }
+        for (; i < end; ++i, pos += 8) {
+            writeBits(data, pos, 8, src[i]);
+        }
+    }
+
+    /**
+     * Le <code>len</code> bytes a partir do bit <code>start</code> e os
+     * coloca em <code>dest</code>, a partir de <code>off</code>. Cada
+     * palavra lida rende 4 bytes.
+     *
+     * @throws ArrayIndexOutOfBoundsException se nao houver
+     * <code>len</code> bytes a partir de <code>start</code>.
+     */
+    public void takeBytes (int start, byte dest[], int off, int len) {
+        checkRange(start, len * 8);
+
+        int pos = offset + start;
+        int i = off;
+        int end = off + len;
+        for (; end - i >= 4; i += 4, pos += 32) {
+            int word = readBits(data, pos, 32);
+            dest[i] = (byte) (word >>> 24);
+            dest[i+1] = (byte) (word >>> 16);
+            dest[i+2] = (byte) (word >>> 8);
+            dest[i+3] = (byte) word;
+        }
+        for (; i < end; ++i, pos += 8) {
+            dest[i] = (byte) readBits(data, pos, 8);
+        }
+    }
+
+    /**
+     * Como putBytes(), mas cada byte de <code>src</code> guarda um bit: o
+     * byte 1 vira o bit 1 e qualquer outro valor vira 0. Os bits sao
+     * juntados de 32 em 32 numa palavra antes de serem escritos.
+     */
+    public void putBitBytes (int start, byte src[], int off, int len) {
+        checkRange(start, len);
+        checkWritable();
+
+        int pos = offset + start;
+        int i = off;
+        int end = off + len;
+        while (i < end) {
+            int bits = Math.min(32, end - i);
+            int word = 0;
+            for (int j = 0; j < bits; ++j) {
+                word = (word << 1) | (src[i+j] == 1 ? 1 : 0);
+            }
+            writeBits(data, pos, bits, word);
+            i += bits;
+            pos += bits;
+        }
+    }
+
+    /**
+     * Como takeBytes(), mas escreve um bit por byte (0 ou 1) em
+     * <code>dest</code>. Os bits sao lidos de 32 em 32.
+     */
+    public void takeBitBytes (int start, byte dest[], int off, int len) {
+        checkRange(start, len);
+
+        int pos = offset + start;
+        int i = off;
+        int end = off + len;
+        while (i < end) {
+            int bits = Math.min(32, end - i);
+            int word = readBits(data, pos, bits);
+            for (int j = bits - 1; j >= 0; --j) {
+                dest[i+j] = (byte) (word & 1);
+                word >>>= 1;
+            }
+            i += bits;
+            pos += bits;
+        }
+    }
+
+    /**
+     * Preenche todos os bits deste objeto com os proximos
+     * <code>(length + 7) / 8</code> bytes de <code>buf</code>, na ordem em
+     * que aparecem no buffer (a ordem de bytes do buffer nao importa). Se
+     * <code>length</code> nao for multiplo de 8, os bits menos
+     * significativos do ultimo byte sao ignorados.
+     *
+     * @throws java.nio.BufferUnderflowException se o buffer nao tiver bytes
+     * suficientes; nesse caso nada e' lido.
+     */
+    public void readFrom (ByteBuffer buf) {
+        checkWritable();
+        int bytes = (length + 7) >> 3;
+        if (buf.remaining() < bytes)
+            throw new BufferUnderflowException();
+
+        boolean bigEndian = buf.order() == ByteOrder.BIG_ENDIAN;
+        int pos = offset;
+        int end = offset + length;
+        for (; end - pos >= 32; pos += 32) {
+            int word = buf.getInt();
+            writeBits(data, pos, 32, bigEndian ? word : Integer.reverseBytes(word));
+        }
+        for (; end - pos >= 8; pos += 8) {
+            writeBits(data, pos, 8, buf.get());
+        }
+        if (pos < end) {
+            int rest = end - pos;
+            writeBits(data, pos, rest, (buf.get() & 0xff) >>> (8 - rest));
+        }
+    }
+
+    /**
+     * Escreve todos os bits deste objeto em <code>buf</code>, como
+     * toBytes(), sem criar um array intermediario.
+     *
+     * @throws java.nio.BufferOverflowException se nao houver espaco; nesse
+     * caso nada e' escrito.
+     */
+    public void writeTo (ByteBuffer buf) {
+        int bytes = (length + 7) >> 3;
+        if (buf.remaining() < bytes)
+            throw new BufferOverflowException();
+
+        boolean bigEndian = buf.order() == ByteOrder.BIG_ENDIAN;
+        int pos = offset;
+        int end = offset + length;
+        for (; end - pos >= 32; pos += 32) {
+            int word = readBits(data, pos, 32);
+            buf.putInt(bigEndian ? word : Integer.reverseBytes(word));
+        }
+        for (; end - pos >= 8; pos += 8) {
+            buf.put((byte) readBits(data, pos, 8));
+        }
+        if (pos < end) {
+            int rest = end - pos;
+            buf.put((byte) (readBits(data, pos, rest) << (8 - rest)));
+        }
+    }
+
+    private static final int OP_AND = 0;
+    private static final int OP_OR = 1;
+    private static final int OP_XOR = 2;
+
+    /**
+     * Faz o E logico, bit a bit, de <code>len</code> bits deste objeto, a
+     * partir de <code>start</code>, com os bits de <code>src</code> a partir
+     * de <code>srcStart</code>. O resultado fica neste objeto.
+     * <p/>
+     * Como as outras operacoes em bloco desta classe, trabalha de 32 em 32
+     * bits. <code>src</code> pode ser este proprio objeto, mesmo com
+     * regioes sobrepostas.
+     *
+     * @throws ArrayIndexOutOfBoundsException se alguma das regioes nao
+     * couber no seu objeto.
+     * @throws UnsupportedOperationException se este objeto for
+     * somente-leitura.
+     */
+    public void and (int start, InterlayerData src, int srcStart, int len) {
+        combine(OP_AND, start, src, srcStart, len);
+    }
+
+    /**
+     * Faz o OU logico, bit a bit, como and().
+     */
+    public void or (int start, InterlayerData src, int srcStart, int len) {
+        combine(OP_OR, start, src, srcStart, len);
+    }
+
+    /**
+     * Faz o OU exclusivo, bit a bit, como and().
+     */
+    public void xor (int start, InterlayerData src, int srcStart, int len) {
+        combine(OP_XOR, start, src, srcStart, len);
+    }
+
+    /**
+     * Inverte <code>len</code> bits a partir de <code>start</code>.
+     */
+    public void not (int start, int len) {
+        checkRange(start, len);
+        checkWritable();
+
+        int pos = offset + start;
+        int end = pos + len;
+        while (pos < end) {
+            int bits = Math.min(32, end - pos);
+            writeBits(data, pos, bits, ~readBits(data, pos, bits));
+            pos += bits;
+        }
+    }
+
+    private void combine (int op, int start, InterlayerData src, int srcStart, int len) {
+        checkRange(start, len);
+        src.checkRange(srcStart, len);
+        checkWritable();
+
+        int to = offset + start;
+        int from = src.offset + srcStart;
+        int full = len & ~31;
+        int rest = len - full;
+
+        //mesma regra de copyBits(): se o destino esta adiante da origem no
+        //mesmo array, anda de tras para frente
+        if (src.data == data && to > from) {
+            if (rest > 0)
+                combineWord(op, data, to + full, data, from + full, rest);
+            for (int i = full - 32; i >= 0; i -= 32)
+                combineWord(op, data, to + i, data, from + i, 32);
+        } else {
+            for (int i = 0; i < full; i += 32)
+                combineWord(op, data, to + i, src.data, from + i, 32);
+            if (rest > 0)
+                combineWord(op, data, to + full, src.data, from + full, rest);
+        }
+    }
+
+    private static void combineWord (int op, int dest[], int to, int src[], int from, int bits) {
+        int a = readBits(dest, to, bits);
+        int b = readBits(src, from, bits);
+        switch (op) {
+            case OP_AND: a &= b; break;
+            case OP_OR:  a |= b; break;
+            default:     a ^= b; break;
+        }
+        writeBits(dest, to, bits, a);
+    }
+
+    /**
+     * @return quantos bits valem 1 entre <code>start</code> (inclusive) e
+     * <code>start + len</code> (exclusive). Conta 32 bits por vez.
+     */
+    public int bitCount (int start, int len) {
+        checkRange(start, len);
+
+        int count = 0;
+        int pos = offset + start;
+        int end = pos + len;
+        while (pos < end) {
+            int bits = Math.min(32, end - pos);
+            count += Integer.bitCount(readBits(data, pos, bits));
+            pos += bits;
+        }
+        return count;
+    }
+
+    /**
+     * @return quantos bits deste objeto valem 1
+     */
+    public int bitCount () {
+        return bitCount(0, length);
+    }
+
+    /**
+     * @return o indice do primeiro bit que vale 1 a partir de
+     * <code>from</code> (inclusive), ou -1 se nao houver nenhum. Examina 32
+     * bits por vez.
+     */
+    public int nextSetBit (int from) {
+        if (from < 0)
+            throw new ArrayIndexOutOfBoundsException("from nao pode ser negativo");
+
+        for (int i = from; i < length; i += 32) {
+            int bits = Math.min(32, length - i);
+            int word = readBits(data, offset + i, bits);
+            if (word != 0)
+                return i + Integer.numberOfLeadingZeros(word) - (32 - bits);
+        }
+        return -1;
+    }
+
+    /**
+     * Compara <code>len</code> bits deste objeto, a partir de
+     * <code>start</code>, com os de <code>other</code>, a partir de
+     * <code>otherStart</code>, 32 bits por vez.
+     *
+     * @return <code>true</code> se todos forem iguais
+     */
+    public boolean rangeEquals (int start, InterlayerData other, int otherStart, int len) {
+        checkRange(start, len);
+        other.checkRange(otherStart, len);
+
+        int pos = offset + start;
+        int otherPos = other.offset + otherStart;
+        int end = pos + len;
+        while (pos < end) {
+            int bits = Math.min(32, end - pos);
+            if (readBits(data, pos, bits) != readBits(other.data, otherPos, bits))
+                return false;
+            pos += bits;
+            otherPos += bits;
+        }
+        return true;
+    }
+
+    private void checkRange (int start, int bits) {
+        if (start < 0 || bits < 0 || start + bits > length)
+            throw new ArrayIndexOutOfBoundsException("start + len maior que length");
+    }
+
+    private void checkWritable () {
+        if (isReadOnly())
+            throw new UnsupportedOperationException("visao somente leitura");
+    }
 
     /**
      * Faz com que um bit de um array passe a ter valor logico 1.
@@ -218,6 +979,7 @@ public class InterlayerData {
      *
      */
     public void setBit (int index) {
+        index += offset;
         data[index/32] |= BIT_ARRAY[31 - index%32];
     }
 
@@ -238,6 +1000,7 @@ public class InterlayerData {
      *
      */
     public void clearBit (int index) {
+        index += offset;
         data[index/32] &= N_BIT_ARRAY[31 - index%32];
     }
 
@@ -247,6 +1010,7 @@ public class InterlayerData {
      * @param index
      */
     public void flipBit (int index) {
+        index += offset;
         data[index/32] ^= BIT_ARRAY[31 - index%32];
     }
 
@@ -270,16 +1034,32 @@ public class InterlayerData {
      *
      */
     public boolean getBit (int index) {
+        index += offset;
         return (data[index/32] & BIT_ARRAY[31 - index%32]) != 0;
     }
 
+    /**
+     * Retorna a palavra de indice <code>word</code> como se este objeto
+     * comecasse no inicio de uma palavra, com os bits alem de
+     * <code>length</code> zerados. Nao altera <code>data</code>.
+     */
+    private int normalizedWord (int word) {
+        int bits = Math.min(32, length - word * 32);
+        return readBits(data, offset + word * 32, bits) << (32 - bits);
+    }
+
+    /**
+     * Compara apenas os <code>length</code> bits de cada objeto; os bits de
+     * preenchimento da ultima palavra e o deslocamento das visoes nao contam.
+     * Nenhum dos dois arrays e' alterado.
+     */
     @Override
     public boolean equals(Object obj) {
 
         if (obj == null) {
             return false;
         }
-        if (getClass() != obj.getClass()) {
+        if (!(obj instanceof InterlayerData)) {
             return false;
         }
         final InterlayerData other = (InterlayerData) obj;
@@ -287,18 +1067,11 @@ public class InterlayerData {
             return false;
         }
 
-        int rest = length % 32;
-        int last = data.length-1;
-
-        int mask = ~((1 << rest) - 1);
-
-        if (length > 0) {
-            data[last] &= mask;
-            other.data[last] &= mask;
-        }
-
-        if (!Arrays.equals(this.data, other.data)) {
-            return false;
+        int words = (length + 31) >> 5;
+        for (int i = 0; i < words; ++i) {
+            if (normalizedWord(i) != other.normalizedWord(i)) {
+                return false;
+            }
         }
         return true;
     }
@@ -306,17 +1079,15 @@ public class InterlayerData {
     @Override
     public int hashCode() {
 
-        int rest = length % 32;
-        int last = data.length-1;
-
-        int mask = ~((1 << rest) - 1);
+        int words = (length + 31) >> 5;
 
-        if (length > 0) {
-            data[last] &= mask;
+        int dataHash = 1;
+        for (int i = 0; i < words; ++i) {
+            dataHash = 31 * dataHash + normalizedWord(i);
         }
 
         int hash = 3;
-        hash = 59 * hash + Arrays.hashCode(this.data);
+        hash = 59 * hash + dataHash;
         hash = 59 * hash + this.length;
         return hash;
     }
@@ -337,11 +1108,12 @@ public class InterlayerData {
     public String toString () {
         StringBuilder buf = new StringBuilder(length + length/8);
 
-        for (int i = 0; i < data.length - 1; ++i) {
-            buf.append(decToBin(data[i], 32));
+        int words = (length + 31) >> 5;
+        for (int i = 0; i < words - 1; ++i) {
+            buf.append(decToBin(normalizedWord(i), 32));
         }
-        if (data.length > 0)
-            buf.append(decToBin(data[data.length-1] >>> (32 - length%32), length%32));
+        if (words > 0)
+            buf.append(decToBin(normalizedWord(words-1) >>> (32 - length%32), length%32));
 
         for (int i = (length/8)*8; i > 0; i -= 8) {
             buf.insert(i, " ");
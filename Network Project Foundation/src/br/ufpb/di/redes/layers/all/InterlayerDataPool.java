@@ -0,0 +1,222 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reserva de InterlayerData de tamanho fixo, para reaproveitar quadros em vez
+ * de criar um novo a cada uso.
+ * <p/>
+ * Cada tamanho passado ao construtor e' uma classe, com sua propria pilha de
+ * quadros livres. acquire() pega um quadro livre do tamanho pedido (ou cria
+ * um, se nao houver) e o devolve zerado, como se tivesse acabado de ser
+ * criado. Quem consome o quadro - quem o descarta em vez de repassa-lo -
+ * deve chamar recycle(), para que ele volte a reserva de origem.
+ * <p/>
+ * O uso e' opcional: recycle() ignora InterlayerData que nao vieram de uma
+ * reserva, entao as camadas podem chamar recycle() sempre, e so quem
+ * configurou uma reserva passa a reaproveitar quadros.
+ * <p/>
+ * Todos os metodos podem ser chamados de varias threads.
+ *
+ * @author Thiago
+ */
+public class InterlayerDataPool {
+
+    /**Quadros livres de um tamanho.*/
+    private static class SizeClass {
+        public final int length;
+        public final InterlayerData free[];
+        public int count;
+        public SizeClass(int length, int capacity) {
+            this.length = length;
+            this.free = new InterlayerData[capacity];
+            this.count = 0;
+        }
+    }
+
+    private final SizeClass classes[];
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong releases = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong invalidReleases = new AtomicLong();
+    private final AtomicLong outstanding = new AtomicLong();
+
+    /**
+     * @param capacity quantidade maxima de quadros livres guardados por
+     * tamanho. Quadros devolvidos alem disso ficam para o coletor de lixo.
+     * @param lengths tamanhos, em bits, que esta reserva deve guardar.
+     */
+    public InterlayerDataPool(int capacity, int... lengths) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity deve ser maior que 0! " +
+                    "capacity = " + capacity);
+        }
+        classes = new SizeClass[lengths.length];
+        for (int i = 0; i < lengths.length; ++i) {
+            classes[i] = new SizeClass(lengths[i], capacity);
+        }
+    }
+
+    private SizeClass sizeClass(int length) {
+        for (SizeClass curClass : classes) {
+            if (curClass.length == length) {
+                return curClass;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retorna um InterlayerData zerado de <code>length</code> bits. Se
+     * <code>length</code> nao e' um dos tamanhos desta reserva, apenas cria um
+     * InterlayerData comum.
+     *
+     * @param length tamanho, em bits
+     * @return o quadro
+     */
+    public InterlayerData acquire(int length) {
+        SizeClass sizeClass = sizeClass(length);
+        if (sizeClass == null) {
+            misses.incrementAndGet();
+            return new InterlayerData(length);
+        }
+
+        InterlayerData result = null;
+        synchronized (sizeClass) {
+            if (sizeClass.count > 0) {
+                --sizeClass.count;
+                result = sizeClass.free[sizeClass.count];
+                sizeClass.free[sizeClass.count] = null;
+                result.inPool = false;
+            }
+        }
+
+        if (result == null) {
+            misses.incrementAndGet();
+            result = new InterlayerData(length);
+            result.pool = this;
+        } else {
+            hits.incrementAndGet();
+            Arrays.fill(result.data, 0);
+            result.setTrace(null);
+        }
+        outstanding.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Devolve um quadro criado por esta reserva. Devolver duas vezes o mesmo
+     * quadro, ou um quadro de outra reserva, e' contado como devolucao
+     * invalida e ignorado.
+     *
+     * @param data o quadro, que nao deve mais ser usado por quem o devolveu.
+     */
+    public void release(InterlayerData data) {
+        if (data.pool != this) {
+            invalidReleases.incrementAndGet();
+            return;
+        }
+
+        SizeClass sizeClass = sizeClass(data.length);
+        synchronized (sizeClass) {
+            if (data.inPool) {
+                invalidReleases.incrementAndGet();
+                return;
+            }
+            releases.incrementAndGet();
+            outstanding.decrementAndGet();
+            if (sizeClass.count == sizeClass.free.length) {
+                discarded.incrementAndGet();
+                data.pool = null;
+                return;
+            }
+            data.inPool = true;
+            sizeClass.free[sizeClass.count] = data;
+            ++sizeClass.count;
+        }
+    }
+
+    /**
+     * Devolve <code>data</code> a reserva que o criou. Nao faz nada se
+     * <code>data</code> for null ou nao tiver vindo de uma reserva.
+     *
+     * @param data quadro que acabou de ser consumido.
+     */
+    public static void recycle(InterlayerData data) {
+        if (data != null && data.pool != null) {
+            data.pool.release(data);
+        }
+    }
+
+    private static final DropHandler<InterlayerData> RECYCLER =
+            new DropHandler<InterlayerData>() {
+        public void dropped(InterlayerData data) {
+            recycle(data);
+        }
+    };
+
+    /**
+     * @return Um DropHandler que chama recycle() com cada quadro descartado,
+     * para os LayerBuffer que guardam quadros.
+     */
+    public static DropHandler<InterlayerData> recycler() {
+        return RECYCLER;
+    }
+
+    /**
+     * @return quantas vezes acquire() reaproveitou um quadro.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return quantas vezes acquire() teve que criar um quadro.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return quantos quadros foram devolvidos corretamente.
+     */
+    public long getReleases() {
+        return releases.get();
+    }
+
+    /**
+     * @return quantos quadros devolvidos foram descartados por falta de
+     * espaco na reserva.
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    /**
+     * @return quantas devolucoes foram ignoradas por serem repetidas ou de
+     * quadros de outra reserva.
+     */
+    public long getInvalidReleases() {
+        return invalidReleases.get();
+    }
+
+    /**
+     * Quadros entregues por acquire(), dos tamanhos desta reserva, que ainda
+     * nao foram devolvidos. Com a pilha parada, deveria ser zero; se cresce
+     * sem parar, alguma camada esta descartando quadros sem chamar recycle().
+     *
+     * @return quantidade de quadros fora da reserva.
+     */
+    public long getLeaks() {
+        return outstanding.get();
+    }
+
+}
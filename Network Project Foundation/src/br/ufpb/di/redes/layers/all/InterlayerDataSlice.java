@@ -0,0 +1,52 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+/**
+ * Visao somente-leitura de um trecho de outro InterlayerData. Compartilha o
+ * array <code>data</code> do original, entao criar uma visao nao copia bits.
+ * <p/>
+ * Como e' um InterlayerData, pode ser passada para qualquer camada. Os
+ * metodos que alteram bits lancam UnsupportedOperationException; quem
+ * precisar alterar os dados deve copia-los antes, com copyBits().
+ * <p/>
+ * O array <code>data</code> continua publico, e <code>offset</code> diz onde
+ * a visao comeca nele. Escrever diretamente no array altera o original.
+ *
+ * @author Thiago
+ */
+public class InterlayerDataSlice extends InterlayerData {
+
+    InterlayerDataSlice(int data[], int offset, int length) {
+        super(data, offset, length);
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public void putInfo(int start, int len, int infoToPut) {
+        throw new UnsupportedOperationException("visao somente leitura");
+    }
+
+    @Override
+    public void setBit(int index) {
+        throw new UnsupportedOperationException("visao somente leitura");
+    }
+
+    @Override
+    public void clearBit(int index) {
+        throw new UnsupportedOperationException("visao somente leitura");
+    }
+
+    @Override
+    public void flipBit(int index) {
+        throw new UnsupportedOperationException("visao somente leitura");
+    }
+
+}
@@ -0,0 +1,352 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fila com duas faixas, uma de controle e uma de dados, cada uma com seu
+ * tamanho. Quem consome recebe primeiro as mensagens de controle; para que os
+ * dados nao esperem para sempre, depois de <code>maxControlBurst</code>
+ * mensagens de controle seguidas, com dados esperando, sai uma de dados.
+ * Dentro de cada faixa, a ordem e' a de chegada.
+ * <p/>
+ * Os metodos de BlockingQueue colocam na faixa de dados; use os que recebem
+ * uma Priority para escolher a faixa. Uma faixa cheia nao bloqueia a outra.
+ *
+ * @author Thiago
+ */
+public class LaneQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /**Uma faixa: fila circular de tamanho fixo.*/
+    private static class Lane {
+        final Object items[];
+        int head;
+        int count;
+        Lane(int capacity) {
+            items = new Object[capacity];
+        }
+        boolean isFull() {
+            return count == items.length;
+        }
+        void add(Object e) {
+            items[(head + count) % items.length] = e;
+            ++count;
+        }
+        Object remove() {
+            Object e = items[head];
+            items[head] = null;
+            head = (head + 1) % items.length;
+            --count;
+            return e;
+        }
+        Object peek() {
+            return items[head];
+        }
+    }
+
+    private final Lane control;
+    private final Lane data;
+    private final int maxControlBurst;
+
+    /**Mensagens de controle retiradas seguidas, com dados esperando.*/
+    private int burst;
+
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition controlNotFull;
+    private final Condition dataNotFull;
+
+    /**
+     * @param controlCapacity tamanho da faixa de controle
+     * @param dataCapacity tamanho da faixa de dados
+     * @param maxControlBurst quantas mensagens de controle podem sair seguidas
+     * enquanto houver dados esperando
+     * @param fair se as threads que esperam devem ser atendidas em ordem de
+     * chegada
+     */
+    public LaneQueue(int controlCapacity, int dataCapacity, int maxControlBurst,
+            boolean fair) {
+        if (controlCapacity < 1 || dataCapacity < 1 || maxControlBurst < 1) {
+            throw new IllegalArgumentException("tamanhos devem ser maiores que 0");
+        }
+        control = new Lane(controlCapacity);
+        data = new Lane(dataCapacity);
+        this.maxControlBurst = maxControlBurst;
+        lock = new ReentrantLock(fair);
+        notEmpty = lock.newCondition();
+        controlNotFull = lock.newCondition();
+        dataNotFull = lock.newCondition();
+    }
+
+    private Lane lane(Priority priority) {
+        return priority == Priority.CONTROL ? control : data;
+    }
+
+    private Condition notFull(Priority priority) {
+        return priority == Priority.CONTROL ? controlNotFull : dataNotFull;
+    }
+
+    /**Tira a proxima mensagem. Chamado com a trava, com a fila nao vazia.*/
+    @SuppressWarnings("unchecked")
+    private E dequeue() {
+        Lane from;
+        if (control.count == 0) {
+            from = data;
+        } else if (data.count == 0) {
+            from = control;
+            burst = 0;
+        } else if (burst >= maxControlBurst) {
+            from = data;
+            burst = 0;
+        } else {
+            from = control;
+            ++burst;
+        }
+        E e = (E) from.remove();
+        (from == control ? controlNotFull : dataNotFull).signal();
+        return e;
+    }
+
+    /**
+     * Coloca <code>e</code> na faixa de <code>priority</code>, se houver
+     * espaco.
+     *
+     * @return <code>false</code> se a faixa estiver cheia.
+     */
+    public boolean offer(E e, Priority priority) {
+        if (e == null)
+            throw new NullPointerException();
+        lock.lock();
+        try {
+            Lane to = lane(priority);
+            if (to.isFull())
+                return false;
+            to.add(e);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Coloca <code>e</code> na faixa de <code>priority</code>, esperando no
+     * maximo <code>timeout</code> por espaco.
+     *
+     * @return <code>false</code> se o tempo acabar.
+     */
+    public boolean offer(E e, Priority priority, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if (e == null)
+            throw new NullPointerException();
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Lane to = lane(priority);
+            while (to.isFull()) {
+                if (nanos <= 0)
+                    return false;
+                nanos = notFull(priority).awaitNanos(nanos);
+            }
+            to.add(e);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Coloca <code>e</code> na faixa de <code>priority</code>, esperando o
+     * quanto for preciso por espaco.
+     */
+    public void put(E e, Priority priority) throws InterruptedException {
+        if (e == null)
+            throw new NullPointerException();
+        lock.lockInterruptibly();
+        try {
+            Lane to = lane(priority);
+            while (to.isFull()) {
+                notFull(priority).await();
+            }
+            to.add(e);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tira a mensagem mais antiga da faixa de <code>priority</code>, sem
+     * esperar.
+     *
+     * @return a mensagem, ou null se a faixa estiver vazia.
+     */
+    @SuppressWarnings("unchecked")
+    public E poll(Priority priority) {
+        lock.lock();
+        try {
+            Lane from = lane(priority);
+            if (from.count == 0)
+                return null;
+            E e = (E) from.remove();
+            notFull(priority).signal();
+            return e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean offer(E e) {
+        return offer(e, Priority.DATA);
+    }
+
+    public boolean offer(E e, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return offer(e, Priority.DATA, timeout, unit);
+    }
+
+    public void put(E e) throws InterruptedException {
+        put(e, Priority.DATA);
+    }
+
+    public E poll() {
+        lock.lock();
+        try {
+            return size() == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size() == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size() == 0) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        lock.lock();
+        try {
+            if (control.count > 0 && (data.count == 0 || burst < maxControlBurst))
+                return (E) control.peek();
+            return data.count > 0 ? (E) data.peek() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+        lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && size() > 0) {
+                c.add(dequeue());
+                ++n;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Quantas mensagens ainda cabem na faixa de dados.
+     */
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return data.items.length - data.count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Quantas mensagens estao na faixa de <code>priority</code>.
+     */
+    public int size(Priority priority) {
+        lock.lock();
+        try {
+            return lane(priority).count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return control.count + data.count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Um iterador sobre uma copia: primeiro a faixa de controle,
+     * depois a de dados. O iterador nao tem remove(), entao
+     * remove(Object), removeAll() e retainAll() lancam
+     * UnsupportedOperationException.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        lock.lock();
+        try {
+            List<E> copy = new ArrayList<E>(control.count + data.count);
+            for (Lane lane : new Lane[] {control, data}) {
+                for (int i = 0; i < lane.count; ++i) {
+                    copy.add((E) lane.items[(lane.head + i) % lane.items.length]);
+                }
+            }
+            return Collections.unmodifiableList(copy).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de duracoes, em nanossegundos, que pode ser alimentado por
+ * varias threads sem travas e lido a qualquer momento.
+ * <p/>
+ * Cada potencia de 2 e' dividida em 4 faixas, entao os percentis tem erro de
+ * no maximo 25%, o que basta para saber qual camada esta demorando. Valores
+ * ate 3ns tem faixa propria.
+ *
+ * @author Thiago
+ */
+public class LatencyHistogram {
+
+    /**Faixas por potencia de 2*/
+    private static final int SUB_BUCKETS = 4;
+    /**Suficiente para qualquer long positivo*/
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Registra uma duracao. Valores negativos (relogio andando para tras)
+     * contam como zero.
+     */
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    /**
+     * Registra <code>times</code> duracoes iguais de uma vez, como as de um
+     * lote em que so se conhece o tempo medio por mensagem.
+     */
+    public void record(long nanos, int times) {
+        if (times <= 0)
+            return;
+        if (nanos < 0)
+            nanos = 0;
+        buckets.addAndGet(bucketOf(nanos), times);
+        count.addAndGet(times);
+        total.addAndGet(nanos * times);
+        long curMax;
+        while (nanos > (curMax = max.get()) && !max.compareAndSet(curMax, nanos)) {
+        }
+    }
+
+    /**@return Quantas duracoes foram registradas, sem copiar as faixas.*/
+    public long getCount() {
+        return count.get();
+    }
+
+    /**Zera o histograma. Registros concorrentes podem ser perdidos.*/
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return Uma copia do estado atual. Com registros concorrentes, as
+     * faixas e o total podem diferir de uma ou outra medida.
+     */
+    public Snapshot snapshot() {
+        long copy[] = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            copy[i] = buckets.get(i);
+        }
+        return new Snapshot(copy, count.get(), total.get(), max.get());
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (msb - 2)) & (SUB_BUCKETS - 1);
+        return (msb - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**@return O maior valor que cai na faixa <code>bucket</code>.*/
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int msb = bucket / SUB_BUCKETS + 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (msb - 2);
+        return lower + (1L << (msb - 2)) - 1;
+    }
+
+    /**
+     * Estado de um LatencyHistogram num instante. Os getters fazem dele um
+     * tipo aberto de JMX (vide LayerMetricsMXBean).
+     */
+    public static class Snapshot {
+        private final long buckets[];
+        private final long count;
+        private final long total;
+        private final long max;
+
+        Snapshot(long buckets[], long count, long total, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        /**@return Quantas duracoes foram registradas.*/
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return total;
+        }
+
+        public long getMaxNanos() {
+            return max;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0 : total / count;
+        }
+
+        /**
+         * @param percentile entre 0 e 100
+         * @return Limite superior da faixa onde cai o percentil pedido, ou
+         * zero se nada foi registrado.
+         */
+        public long getPercentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100)
+                throw new IllegalArgumentException("percentile = " + percentile);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; ++i) {
+                seen += buckets[i];
+            }
+            if (seen == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(seen * percentile / 100));
+            seen = 0;
+            for (int i = 0; i < buckets.length; ++i) {
+                seen += buckets[i];
+                if (seen >= rank)
+                    return Math.min(upperBound(i), max);
+            }
+            return max;
+        }
+
+        public long getP50Nanos() {
+            return getPercentileNanos(50);
+        }
+
+        public long getP90Nanos() {
+            return getPercentileNanos(90);
+        }
+
+        public long getP99Nanos() {
+            return getPercentileNanos(99);
+        }
+
+        @Override
+        public String toString() {
+            return count + " medidas, media " + getMeanNanos() + "ns, p50 " +
+                    getP50Nanos() + "ns, p99 " + getP99Nanos() + "ns, max " +
+                    max + "ns";
+        }
+    }
+
+}
@@ -5,6 +5,19 @@
 
 package br.ufpb.di.redes.layers.all;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,12 +50,24 @@ public abstract class Layer <U extends Layer, D extends Layer> implements Joint<
          */
         SETUP,
         /**
-         * A entidade esta desligada.
+         * A entidade esta desligada: stop() foi chamado e ela nao pode ser
+         * reiniciada.
          */
-        @Deprecated
         HALTED,
     }
 
+    /**O que stop() faz com as mensagens que estao nos buffers.*/
+    public static enum StopPolicy {
+
+        /**
+         * Espera as mensagens dos buffers de envio serem processadas antes de
+         * parar as threads, dentro do prazo de stop().
+         */
+        DRAIN,
+        /**Descarta as mensagens que estiverem nos buffers.*/
+        DISCARD,
+    }
+
     /**Mantem o estado atual da camada*/
     private volatile EntityState state;
 
@@ -52,6 +77,64 @@ public abstract class Layer <U extends Layer, D extends Layer> implements Joint<
      */
     private Logger logger = LoggerFactory.getLogger(Layer.class);
 
+    /**Estrategia usada por novas camadas que nao escolherem outra*/
+    private static volatile LayerExecutor defaultExecutor = LayerExecutors.dedicated();
+
+    /**
+     * Estrategia de espera dos buffers das camadas criadas daqui em diante.
+     * Se for null, os buffers sao ArrayBlockingQueue.
+     */
+    private static volatile RingBuffer.WaitStrategy bufferWaitStrategy = null;
+
+    /**De onde vem as threads de trabalho desta camada*/
+    private volatile LayerExecutor executor;
+
+    /**Modo das camadas criadas daqui em diante*/
+    private static volatile boolean defaultSynchronous = false;
+
+    /**
+     * Prioridade da mensagem que a thread atual esta enviando (vide
+     * currentPriority()).
+     */
+    private static final ThreadLocal<Priority> currentPriority =
+            new ThreadLocal<Priority>();
+
+    /**
+     * Prazo da mensagem que a thread atual esta enviando (vide
+     * currentDeadline()).
+     */
+    private static final ThreadLocal<Long> currentDeadline =
+            new ThreadLocal<Long>();
+
+    /**
+     * Rastro da mensagem que a thread atual esta processando (vide
+     * currentTrace()).
+     */
+    private static final ThreadLocal<PacketTrace> currentTrace =
+            new ThreadLocal<PacketTrace>();
+
+    /**Valor de prazo que indica que a mensagem nao expira.*/
+    public static final long NO_DEADLINE = Long.MIN_VALUE;
+
+    /**Lacos de trabalho iniciados e ainda nao terminados*/
+    private final Set<Worker> workers =
+            Collections.newSetFromMap(new ConcurrentHashMap<Worker, Boolean>());
+
+    /**Se stop() ja foi chamado*/
+    private final AtomicBoolean stopRequested = new AtomicBoolean();
+
+    /**Contadores e histogramas desta entidade*/
+    private final LayerMetrics metrics = new LayerMetrics(this);
+
+    /**Quantas mensagens os lacos de trabalho processam de uma vez*/
+    private volatile int maxBatchSize = 1;
+
+    /**
+     * Se verdadeiro, mensagens entregues a esta camada sao processadas na
+     * thread de quem as entregou, sem buffer nem thread de trabalho.
+     */
+    private volatile boolean synchronous;
+
     /**
      * Uma referencia para a camada de cima.
      *
@@ -72,6 +155,533 @@ public abstract class Layer <U extends Layer, D extends Layer> implements Joint<
         state = EntityState.HANGING;
         upLayer = null;
         this.downLayer = downLayer;
+        executor = defaultExecutor;
+        synchronous = defaultSynchronous;
+    }
+
+    /**
+     * Define a estrategia usada pelas camadas criadas daqui em diante.
+     * <p/>
+     * So deve ser usado durante a fase de configuracao do sistema.
+     *
+     * @param executor nova estrategia padrao
+     */
+    public static void setDefaultExecutor(LayerExecutor executor) {
+        if (executor == null)
+            throw new NullPointerException("executor");
+        defaultExecutor = executor;
+    }
+
+    /**
+     * @return Estrategia usada pelas camadas criadas daqui em diante.
+     */
+    public static LayerExecutor getDefaultExecutor() {
+        return defaultExecutor;
+    }
+
+    /**
+     * Define o tipo dos buffers entre camadas criadas daqui em diante: com
+     * uma estrategia, os buffers sao RingBuffer; com null (o padrao), sao
+     * ArrayBlockingQueue.
+     * <p/>
+     * So deve ser usado durante a fase de configuracao do sistema.
+     *
+     * @param strategy estrategia de espera, ou null
+     */
+    public static void setBufferWaitStrategy(RingBuffer.WaitStrategy strategy) {
+        bufferWaitStrategy = strategy;
+    }
+
+    /**
+     * @return Estrategia de espera dos buffers, ou null se os buffers forem
+     * ArrayBlockingQueue.
+     */
+    public static RingBuffer.WaitStrategy getBufferWaitStrategy() {
+        return bufferWaitStrategy;
+    }
+
+    /**
+     * Cria um buffer de mensagens, do tipo definido por
+     * setBufferWaitStrategy().
+     *
+     * @param capacity quantidade de mensagens
+     * @param fair se uma ArrayBlockingQueue deve atender as threads em ordem
+     * de chegada. Ignorado por RingBuffer.
+     */
+    protected static <E> BlockingQueue<E> newBuffer(int capacity, boolean fair) {
+        RingBuffer.WaitStrategy strategy = bufferWaitStrategy;
+        if (strategy == null)
+            return new ArrayBlockingQueue<E>(capacity, fair);
+        return new RingBuffer<E>(capacity, strategy);
+    }
+
+    /**
+     * Define de onde vem as threads de trabalho desta camada. Deve ser
+     * chamado antes de start(); threads ja iniciadas nao mudam.
+     *
+     * @param executor a estrategia (vide LayerExecutors)
+     */
+    public void setExecutor(LayerExecutor executor) {
+        if (executor == null)
+            throw new NullPointerException("executor");
+        this.executor = executor;
+    }
+
+    /**
+     * @return Estrategia usada pelas threads de trabalho desta camada.
+     */
+    public LayerExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Define o modo das camadas criadas daqui em diante (vide
+     * setSynchronous()).
+     * <p/>
+     * So deve ser usado durante a fase de configuracao do sistema.
+     *
+     * @param synchronous true para o modo sincrono
+     */
+    public static void setDefaultSynchronous(boolean synchronous) {
+        defaultSynchronous = synchronous;
+    }
+
+    /**
+     * @return Se as camadas criadas daqui em diante estarao em modo sincrono.
+     */
+    public static boolean isDefaultSynchronous() {
+        return defaultSynchronous;
+    }
+
+    /**
+     * Liga ou desliga o modo sincrono desta camada. Deve ser chamado antes de
+     * start().
+     * <p/>
+     * No modo sincrono, send() e received() processam a mensagem na thread
+     * de quem chamou, em vez de coloca-la no buffer para a thread de
+     * trabalho, e start() nao inicia threads. Com todas as camadas assim, uma
+     * pilha inteira roda numa thread so, o que e' util em simulacoes e
+     * testes. Chamadas reentrantes nao processam na hora, vide
+     * DirectDispatcher. O modo com threads continua sendo o padrao, e e' o
+     * que deve ser usado com enlaces reais.
+     *
+     * @param synchronous true para o modo sincrono
+     */
+    public void setSynchronous(boolean synchronous) {
+        this.synchronous = synchronous;
+    }
+
+    /**
+     * Camadas cujo envio espera o recebimento (como um enlace que espera o
+     * token) precisam de threads, e podem sobrescrever este metodo para
+     * retornar sempre false.
+     *
+     * @return Se esta camada esta em modo sincrono.
+     */
+    public boolean isSynchronous() {
+        return synchronous;
+    }
+
+    /**
+     * Define quantas mensagens, no maximo, os lacos de trabalho desta camada
+     * tiram do buffer de uma vez. Com mais de uma, o laco espera a primeira
+     * mensagem e pega as que ja estiverem no buffer (vide
+     * BlockingQueue.drainTo()), repassando todas aos metodos
+     * process*Batch() da camada.
+     *
+     * @param maxBatchSize tamanho maximo do lote. O padrao e' 1, uma
+     * mensagem por vez.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize deve ser maior que 0! " +
+                    "maxBatchSize = " + maxBatchSize );
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @return Quantas mensagens, no maximo, os lacos de trabalho desta camada
+     * processam de uma vez.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Espera uma mensagem em <code>buffer</code> e a coloca em
+     * <code>batch</code>, junto com as que ja estiverem no buffer, ate
+     * getMaxBatchSize() mensagens.
+     *
+     * @param buffer buffer de onde tirar as mensagens
+     * @param batch lista que recebe as mensagens. Deve estar vazia.
+     * @throws InterruptedException se a thread for interrompida esperando.
+     */
+    protected <E> void takeBatch(BlockingQueue<E> buffer, List<E> batch)
+            throws InterruptedException {
+        batch.add(buffer.take());
+        int max = maxBatchSize;
+        if (max > 1) {
+            buffer.drainTo(batch, max - 1);
+        }
+    }
+
+    /**
+     * Prioridade da mensagem que a thread atual esta enviando. Os send() sem
+     * Priority usam esta, e as camadas a definem enquanto processam cada
+     * mensagem, de modo que um ACK marcado como CONTROL no transporte desce
+     * como CONTROL ate o buffer da camada fisica.
+     *
+     * @return A prioridade atual, ou Priority.DATA se nenhuma foi definida.
+     */
+    public static Priority currentPriority() {
+        Priority priority = currentPriority.get();
+        return priority != null ? priority : Priority.DATA;
+    }
+
+    /**
+     * Define a prioridade atual da thread. Use sempre com
+     * exitPriority(), num finally.
+     *
+     * @return A prioridade anterior, para exitPriority().
+     */
+    protected static Priority enterPriority(Priority priority) {
+        Priority previous = currentPriority.get();
+        currentPriority.set(priority);
+        return previous;
+    }
+
+    /**
+     * Restaura a prioridade retornada por enterPriority().
+     */
+    protected static void exitPriority(Priority previous) {
+        if (previous == null)
+            currentPriority.remove();
+        else
+            currentPriority.set(previous);
+    }
+
+    /**
+     * Prazo da mensagem que a thread atual esta enviando, em
+     * System.nanoTime(). Os send() sem prazo usam este, de modo que o prazo
+     * dado a camada de rede vale tambem no buffer do enlace.
+     *
+     * @return O prazo atual, ou NO_DEADLINE se nenhum foi definido.
+     */
+    public static long currentDeadline() {
+        Long deadline = currentDeadline.get();
+        return deadline != null ? deadline : NO_DEADLINE;
+    }
+
+    /**
+     * Define o prazo atual da thread. Use sempre com exitDeadline(), num
+     * finally.
+     *
+     * @return O prazo anterior, para exitDeadline().
+     */
+    protected static long enterDeadline(long deadline) {
+        long previous = currentDeadline();
+        if (deadline == NO_DEADLINE)
+            currentDeadline.remove();
+        else
+            currentDeadline.set(deadline);
+        return previous;
+    }
+
+    /**
+     * Restaura o prazo retornado por enterDeadline().
+     */
+    protected static void exitDeadline(long previous) {
+        enterDeadline(previous);
+    }
+
+    /**
+     * Rastro da mensagem que a thread atual esta processando. Dados novos
+     * criados a partir dela (cabecalhos, quadros, remontagens) recebem este
+     * rastro ao entrar na proxima camada (vide traceOf()).
+     *
+     * @return O rastro atual, ou <code>null</code>.
+     */
+    public static PacketTrace currentTrace() {
+        return currentTrace.get();
+    }
+
+    /**
+     * Define o rastro atual da thread. Use sempre com exitTrace(), num
+     * finally.
+     *
+     * @return O rastro anterior, para exitTrace().
+     */
+    protected static PacketTrace enterTrace(PacketTrace trace) {
+        PacketTrace previous = currentTrace.get();
+        if (trace == null)
+            currentTrace.remove();
+        else
+            currentTrace.set(trace);
+        return previous;
+    }
+
+    /**
+     * Restaura o rastro retornado por enterTrace().
+     */
+    protected static void exitTrace(PacketTrace previous) {
+        enterTrace(previous);
+    }
+
+    /**
+     * @return O rastro de <code>data</code>. Se <code>data</code> nao tiver
+     * um, passa a ter o da thread atual. Com o rastreamento desligado,
+     * retorna <code>null</code> sem consultar a thread.
+     */
+    protected static PacketTrace traceOf(InterlayerData data) {
+        PacketTrace trace = data.getTrace();
+        if (trace == null && Tracing.isEnabled()) {
+            trace = currentTrace.get();
+            if (trace != null)
+                data.setTrace(trace);
+        }
+        return trace;
+    }
+
+    /**
+     * Anota em <code>trace</code>, se nao for null, que a mensagem chegou a
+     * <code>stage</code> nesta entidade.
+     */
+    protected void traceEvent(PacketTrace trace, PacketTrace.Direction direction,
+            PacketTrace.Stage stage) {
+        if (trace != null)
+            trace.record(getClass().getSimpleName(), getName(), direction, stage);
+    }
+
+    /**
+     * Anota <code>stage</code> em cada rastro de um lote.
+     *
+     * @param traces rastros das mensagens do lote, lidos antes de
+     * processa-lo (quem processa pode devolver o quadro a reserva), ou
+     * <code>null</code> se o rastreamento estiver desligado.
+     */
+    protected void traceEvents(PacketTrace traces[],
+            PacketTrace.Direction direction, PacketTrace.Stage stage) {
+        if (traces == null)
+            return;
+        for (int i = 0; i < traces.length; ++i) {
+            traceEvent(traces[i], direction, stage);
+        }
+    }
+
+    /**
+     * @return O rastro de todas as mensagens do lote, para currentTrace()
+     * enquanto ele e' processado, ou <code>null</code> se forem de rastros
+     * diferentes.
+     */
+    protected static PacketTrace commonTrace(PacketTrace traces[]) {
+        if (traces == null || traces.length == 0)
+            return null;
+        PacketTrace common = traces[0];
+        for (int i = 1; i < traces.length; ++i) {
+            if (traces[i] != common)
+                return null;
+        }
+        return common;
+    }
+
+    /**
+     * @return O prazo que vence daqui a <code>maxAge</code>, para os send()
+     * com idade maxima.
+     */
+    public static long deadlineAfter(long maxAge, TimeUnit unit) {
+        return System.nanoTime() + unit.toNanos(maxAge);
+    }
+
+    /**
+     * @return Se <code>deadline</code> ja passou. NO_DEADLINE nunca passa.
+     */
+    public static boolean isExpired(long deadline) {
+        return deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * Inicia um laco de trabalho desta camada, usando getExecutor().
+     *
+     * @param name nome da thread, para debug
+     * @param task laco, que deve terminar quando a thread for interrompida
+     * @return Um Future cujo cancel(true) interrompe o laco.
+     */
+    protected Future<?> startWorker(String name, Runnable task) {
+        Worker worker = new Worker(task);
+        workers.add(worker);
+        try {
+            worker.future = executor.execute(name, worker);
+        } catch (RuntimeException e) {
+            worker.cancel(false);
+            throw e;
+        }
+        return worker;
+    }
+
+    /**
+     * Um laco iniciado por startWorker(). Sabe quando termina, para que
+     * stop() possa esperar por ele mesmo em executores compartilhados, e se
+     * retira de workers ao terminar.
+     */
+    private final class Worker implements Runnable, Future<Object> {
+        private static final int PENDING = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+
+        private final Runnable task;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Future<?> future;
+
+        Worker(Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            if (!state.compareAndSet(PENDING, RUNNING))
+                return;
+            try {
+                task.run();
+            } finally {
+                finish();
+            }
+        }
+
+        private void finish() {
+            state.set(DONE);
+            workers.remove(this);
+            done.countDown();
+        }
+
+        /**Espera o laco terminar, ate deadline (em System.nanoTime()).*/
+        boolean await(long deadline) throws InterruptedException {
+            return done.await(Math.max(0, deadline - System.nanoTime()),
+                    TimeUnit.NANOSECONDS);
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            //se ainda nao comecou, nao comecara mais
+            if (state.compareAndSet(PENDING, DONE)) {
+                workers.remove(this);
+                done.countDown();
+            }
+            Future<?> curFuture = future;
+            return curFuture == null || curFuture.cancel(mayInterruptIfRunning);
+        }
+
+        public boolean isCancelled() {
+            Future<?> curFuture = future;
+            return curFuture != null && curFuture.isCancelled();
+        }
+
+        public boolean isDone() {
+            return state.get() == DONE;
+        }
+
+        public Object get() throws InterruptedException, ExecutionException {
+            done.await();
+            return future.get();
+        }
+
+        public Object get(long timeout, TimeUnit unit) throws
+                InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit))
+                throw new TimeoutException();
+            return future.get();
+        }
+    }
+
+    /**
+     * Para esta entidade e as de baixo: recusa novos envios, conforme
+     * <code>policy</code> espera os buffers de envio esvaziarem, interrompe
+     * e espera as threads de trabalho, libera os recursos (vide release()) e
+     * entao chama stop() nas camadas de baixo. Deve ser chamado na entidade
+     * do topo da pilha; mensagens vindas de baixo para uma entidade parada
+     * sao descartadas.
+     * <p/>
+     * Depois de parada, a entidade nao pode ser reiniciada. Chamadas
+     * repetidas retornam imediatamente.
+     *
+     * @param timeout prazo para a pilha toda, incluindo as camadas de baixo
+     * @return <code>true</code> se tudo terminou no prazo;
+     * <code>false</code> se algum buffer nao esvaziou ou alguma thread
+     * continuou rodando.
+     */
+    public boolean stop(StopPolicy policy, long timeout, TimeUnit unit) {
+        if (!stopRequested.compareAndSet(false, true))
+            return true;
+        long deadline = deadlineAfter(timeout, unit);
+        logger.info("Parando {} ({})", getName(), policy);
+        boolean ok = true;
+        try {
+            if (policy == StopPolicy.DRAIN && !awaitDrained(deadline)) {
+                logger.warn("Prazo esgotado esperando os buffers de {}", getName());
+                ok = false;
+            }
+            state = EntityState.HALTED;
+            for (Worker worker : workers) {
+                worker.cancel(true);
+            }
+            for (Worker worker : workers) {
+                if (!worker.await(deadline)) {
+                    logger.warn("Thread de {} nao terminou no prazo", getName());
+                    ok = false;
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ok = false;
+        } finally {
+            state = EntityState.HALTED;
+            release();
+            metrics.unregister();
+        }
+        return stopDownLayers(policy, deadline) && ok;
+    }
+
+    /**
+     * Para a pilha abaixo desta entidade, esvaziando os buffers e esperando
+     * no maximo DefaultValues.STOP_TIMEOUT.
+     *
+     * @see #stop(StopPolicy, long, TimeUnit)
+     */
+    public boolean stop() {
+        return stop(StopPolicy.DRAIN, DefaultValues.STOP_TIMEOUT,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Chamado por stop(), com a politica DRAIN, antes de interromper as
+     * threads. Subclasses com buffers de envio devem esperar que eles
+     * esvaziem (vide LayerBuffer.awaitIdle()).
+     *
+     * @param deadline prazo, em System.nanoTime()
+     * @return <code>false</code> se o prazo acabou antes.
+     */
+    protected boolean awaitDrained(long deadline) throws InterruptedException {
+        return true;
+    }
+
+    /**
+     * Chamado por stop() depois que as threads de trabalho terminaram (ou o
+     * prazo acabou). Subclasses devem esvaziar os buffers e liberar o que
+     * tiverem aberto, como linhas de som, chamando super.release().
+     */
+    protected void release() {
+    }
+
+    /**
+     * Chamado ao fim de stop(), para parar as camadas de baixo com o que
+     * restar do prazo. Camadas com mais de uma entidade abaixo devem
+     * sobrescrever este metodo.
+     */
+    protected boolean stopDownLayers(StopPolicy policy, long deadline) {
+        if (downLayer == null || downLayer instanceof NullLayer)
+            return true;
+        return downLayer.stop(policy,
+                Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
     }
 
 //    /**
@@ -108,6 +718,8 @@ public abstract class Layer <U extends Layer, D extends Layer> implements Joint<
             logger.info("Executando attach ({})", getClass());
             state = EntityState.RUNNING;
             this.upLayer = upLayer;
+            if (LayerMetrics.isJmxEnabled())
+                metrics.register();
         } else {
             logger.warn("Attach falhou: Estado invalido: {}", curState);
             throw new IllegalStateException("Tentando executar attach em " +
@@ -145,6 +757,95 @@ public abstract class Layer <U extends Layer, D extends Layer> implements Joint<
      */
     public abstract int maxPacketSize();
 
+    /**
+     * @return Quantos bits de cabecalho esta camada escreve na frente dos
+     * dados recebidos da camada de cima. O padrao e' zero.
+     */
+    public int headerSize() {
+        return 0;
+    }
+
+    /**
+     * Quantos bits devem ser reservados antes dos dados, para que esta camada
+     * e as de baixo escrevam seus cabecalhos sem copiar os dados (vide
+     * InterlayerData.pushHeader()).
+     *
+     * @return headerSize() desta camada somado ao headroom() da de baixo.
+     */
+    public int headroom() {
+        return headerSize() + (downLayer == null ? 0 : downLayer.headroom());
+    }
+
+    /**
+     * @return Contadores dos buffers e tempos de processamento desta
+     * entidade, que podem ser lidos enquanto ela roda.
+     */
+    public LayerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return O buffer das mensagens vindas de cima, para getMetrics(), ou
+     * <code>null</code> se a camada nao tiver um.
+     */
+    protected LayerBuffer<?> sendSideBuffer() {
+        return null;
+    }
+
+    /**
+     * @return O buffer das mensagens vindas de baixo, para getMetrics(), ou
+     * <code>null</code> se a camada nao tiver um.
+     */
+    protected LayerBuffer<?> receivedSideBuffer() {
+        return null;
+    }
+
+    /**
+     * Diz se esta entidade aceita mais mensagens de cima sem fazer quem
+     * chama send() esperar. Camadas de cima e aplicacoes podem consultar
+     * antes de produzir mais dados; como as threads de trabalho bloqueiam
+     * quando a camada de baixo enche, a saturacao de baixo aparece aqui em
+     * pouco tempo.
+     *
+     * @return LayerBuffer.isWritable() do buffer de envio, ou
+     * <code>true</code> se a camada nao tiver um (ou estiver em modo
+     * sincrono).
+     */
+    public boolean isWritable() {
+        LayerBuffer<?> buffer = sendSideBuffer();
+        return isSynchronous() || buffer == null || buffer.isWritable();
+    }
+
+    /**
+     * Espera isWritable() ficar verdadeiro.
+     *
+     * @return <code>false</code> se o prazo acabou antes.
+     */
+    public boolean awaitWritable(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        LayerBuffer<?> buffer = sendSideBuffer();
+        if (isSynchronous() || buffer == null)
+            return true;
+        return buffer.awaitWritable(deadlineAfter(timeout, unit));
+    }
+
+    /**
+     * Registra quem quer ser avisado quando isWritable() mudar. Deve ser
+     * chamado depois de configurar a politica do buffer de envio, que cria
+     * um buffer novo. Camadas sem buffer de envio nunca avisam.
+     */
+    public void addWritabilityListener(WritabilityListener listener) {
+        LayerBuffer<?> buffer = sendSideBuffer();
+        if (buffer != null)
+            buffer.addWritabilityListener(listener);
+    }
+
+    public void removeWritabilityListener(WritabilityListener listener) {
+        LayerBuffer<?> buffer = sendSideBuffer();
+        if (buffer != null)
+            buffer.removeWritabilityListener(listener);
+    }
+
     /**
      * Retorna o identificador da camada, para debug.
      * @return
@@ -0,0 +1,441 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Um buffer entre camadas: a fila, a BufferPolicy que diz o que fazer quando
+ * ela enche e contadores de mensagens descartadas e de tempo de espera.
+ * <p/>
+ * Quem entrega mensagens usa put(); a thread de trabalho consome de queue()
+ * diretamente. Se a politica tiver faixa de controle, a fila e' uma LaneQueue
+ * e put(e, Priority.CONTROL) coloca a mensagem na frente dos dados.
+ * <p/>
+ * A thread de trabalho deve chamar finished() depois de processar as
+ * mensagens que tirou da fila, para que awaitIdle() saiba quando tudo o que
+ * entrou ja foi processado.
+ * <p/>
+ * Quem entrega mensagens pode consultar isWritable() antes, ou ser avisado
+ * por um WritabilityListener, para segurar a producao quando o buffer
+ * estiver perto de encher em vez de esperar dentro de put().
+ *
+ * @author Thiago
+ */
+public class LayerBuffer<E> {
+
+    private final BlockingQueue<E> queue;
+    /**A mesma fila que queue, se houver faixa de controle; senao, null.*/
+    private final LaneQueue<E> lanes;
+    private final BufferPolicy policy;
+    /**Recebe o que a politica descartar; pode ser null.*/
+    private final DropHandler<? super E> dropHandler;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dequeued = new AtomicLong();
+    private final AtomicInteger highWater = new AtomicInteger();
+
+    /**Mensagens aceitas e ainda nao processadas (vide finished()).*/
+    private final AtomicInteger unfinished = new AtomicInteger();
+
+    /**Com unfinished a partir daqui, isWritable() passa a false*/
+    private volatile int highWatermark;
+    /**Com unfinished ate aqui, isWritable() volta a true*/
+    private volatile int lowWatermark;
+    /**Protegido por this; volatil para a leitura sem trava*/
+    private volatile boolean writable = true;
+    private final List<WritabilityListener> listeners =
+            new CopyOnWriteArrayList<WritabilityListener>();
+    /**Mudancas de writable ainda nao avisadas, na ordem em que ocorreram*/
+    private final Queue<Boolean> writabilityChanges =
+            new ConcurrentLinkedQueue<Boolean>();
+    /**Se alguma thread ja esta avisando os listeners*/
+    private final AtomicBoolean notifying = new AtomicBoolean();
+
+    /**
+     * @param policy tamanho e comportamento quando cheio
+     * @param fair se uma ArrayBlockingQueue deve atender as threads em ordem
+     * de chegada (vide Layer.newBuffer()).
+     */
+    public LayerBuffer(BufferPolicy policy, boolean fair) {
+        this(policy, fair, null);
+    }
+
+    /**
+     * @param dropHandler recebe cada mensagem que a politica descartar, ou
+     * <code>null</code> para apenas conta-las em getDropped().
+     * @see #LayerBuffer(BufferPolicy, boolean)
+     */
+    public LayerBuffer(BufferPolicy policy, boolean fair,
+            DropHandler<? super E> dropHandler) {
+        this.policy = policy;
+        this.dropHandler = dropHandler;
+        if (policy.hasControlLane()) {
+            this.lanes = new LaneQueue<E>(policy.getControlCapacity(),
+                    policy.getCapacity(), policy.getMaxControlBurst(), fair);
+            this.queue = lanes;
+        } else {
+            this.lanes = null;
+            this.queue = Layer.newBuffer(policy.getCapacity(), fair);
+        }
+        highWatermark = policy.getCapacity();
+        lowWatermark = policy.getCapacity() / 2;
+    }
+
+    /**
+     * Coloca <code>e</code> no buffer, conforme a politica.
+     *
+     * @return <code>true</code> se a mensagem entrou no buffer,
+     * <code>false</code> se foi descartada (e entregue ao DropHandler).
+     *
+     * @throws InterruptedException se a thread for interrompida esperando.
+     * @throws IllegalStateException se o buffer estiver cheio e a politica
+     * for REJECT.
+     */
+    public boolean put(E e) throws InterruptedException {
+        return put(e, Priority.DATA);
+    }
+
+    /**
+     * Coloca <code>e</code> na faixa de <code>priority</code>, conforme a
+     * politica. Sem faixa de controle, a prioridade e' ignorada.
+     *
+     * @see #put(Object)
+     */
+    public boolean put(E e, Priority priority) throws InterruptedException {
+        unfinished.incrementAndGet();
+        boolean accepted = false;
+        try {
+            accepted = enqueue(e, priority);
+            return accepted;
+        } finally {
+            if (accepted) {
+                enqueued.incrementAndGet();
+                int pending = unfinished.get();
+                int curHighWater;
+                while (pending > (curHighWater = highWater.get()) &&
+                        !highWater.compareAndSet(curHighWater, pending)) {
+                }
+                if (writable && pending >= highWatermark)
+                    updateWritability();
+            } else {
+                settle(1);
+            }
+        }
+    }
+
+    private boolean enqueue(E e, Priority priority) throws InterruptedException {
+        if (offer(e, priority))
+            return true;
+
+        long begin;
+        switch (policy.getOverflow()) {
+            case BLOCK:
+                begin = System.nanoTime();
+                try {
+                    if (lanes != null)
+                        lanes.put(e, priority);
+                    else
+                        queue.put(e);
+                } finally {
+                    blockedNanos.addAndGet(System.nanoTime() - begin);
+                }
+                return true;
+
+            case BLOCK_TIMEOUT:
+                begin = System.nanoTime();
+                boolean accepted;
+                try {
+                    accepted = lanes != null
+                            ? lanes.offer(e, priority, policy.getTimeoutNanos(),
+                                    TimeUnit.NANOSECONDS)
+                            : queue.offer(e, policy.getTimeoutNanos(),
+                                    TimeUnit.NANOSECONDS);
+                } finally {
+                    blockedNanos.addAndGet(System.nanoTime() - begin);
+                }
+                if (!accepted)
+                    drop(e);
+                return accepted;
+
+            case DROP_OLDEST:
+                while (!offer(e, priority)) {
+                    E oldest = lanes != null ? lanes.poll(priority) : queue.poll();
+                    if (oldest != null) {
+                        finished(1);
+                        drop(oldest);
+                    }
+                }
+                return true;
+
+            case REJECT:
+                rejected.incrementAndGet();
+                throw new IllegalStateException("Buffer cheio: " +
+                        policy.getCapacity() + " mensagens");
+
+            default:
+                drop(e);
+                return false;
+        }
+    }
+
+    private void drop(E e) {
+        dropped.incrementAndGet();
+        if (dropHandler != null)
+            dropHandler.dropped(e);
+    }
+
+    private boolean offer(E e, Priority priority) {
+        return lanes != null ? lanes.offer(e, priority) : queue.offer(e);
+    }
+
+    /**
+     * Informa que <code>count</code> mensagens tiradas de queue() foram
+     * processadas.
+     */
+    public void finished(int count) {
+        dequeued.addAndGet(count);
+        settle(count);
+    }
+
+    private void settle(int count) {
+        int pending = unfinished.addAndGet(-count);
+        if (!writable && pending <= lowWatermark)
+            updateWritability();
+        if (pending <= 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Reavalia isWritable() e avisa os interessados, se mudou. Repete porque
+     * um settle() concorrente pode ter visto o estado antigo e nao chamado
+     * este metodo.
+     * <p/>
+     * A decisao e' tomada com a trava; os avisos, depois de solta-la, para
+     * que um listener possa chamar put() ou esperar outra thread que use o
+     * buffer.
+     */
+    private void updateWritability() {
+        synchronized (this) {
+            while (true) {
+                int pending = unfinished.get();
+                if (writable && pending >= highWatermark) {
+                    writable = false;
+                } else if (!writable && pending <= lowWatermark) {
+                    writable = true;
+                    notifyAll();
+                } else {
+                    break;
+                }
+                writabilityChanges.add(writable);
+            }
+        }
+        fireWritabilityChanges();
+    }
+
+    /**
+     * Entrega as mudancas pendentes, uma thread de cada vez, para que os
+     * listeners as recebam em ordem. Quem encontra outra thread avisando
+     * deixa as suas mudancas para ela; o laco de fora pega as que chegarem
+     * enquanto a trava de aviso e' solta.
+     */
+    private void fireWritabilityChanges() {
+        while (!writabilityChanges.isEmpty() && notifying.compareAndSet(false, true)) {
+            try {
+                Boolean change;
+                while ((change = writabilityChanges.poll()) != null) {
+                    for (WritabilityListener listener : listeners) {
+                        listener.writabilityChanged(change);
+                    }
+                }
+            } finally {
+                notifying.set(false);
+            }
+        }
+    }
+
+    /**
+     * Define quando isWritable() muda: passa a false quando ha
+     * <code>high</code> mensagens pendentes (na fila ou sendo processadas) e
+     * volta a true quando elas caem para <code>low</code>. O padrao e' a
+     * capacidade da politica e a metade dela.
+     *
+     * @throws IllegalArgumentException se nao valer 0 &lt;= low &lt; high
+     */
+    public void setWatermarks(int low, int high) {
+        if (low < 0 || low >= high)
+            throw new IllegalArgumentException("low = " + low + ", high = " + high);
+        lowWatermark = low;
+        highWatermark = high;
+        updateWritability();
+    }
+
+    /**
+     * @return <code>false</code> se o buffer passou da marca alta e ainda
+     * nao voltou a marca baixa. put() continua funcionando, conforme a
+     * politica; isto e' so um aviso para quem pode esperar.
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * Espera isWritable() voltar a ser <code>true</code>.
+     *
+     * @param deadline prazo, em System.nanoTime()
+     * @return <code>false</code> se o prazo acabou antes.
+     */
+    public synchronized boolean awaitWritable(long deadline)
+            throws InterruptedException {
+        while (!writable) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    public void addWritabilityListener(WritabilityListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeWritabilityListener(WritabilityListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Espera ate que todas as mensagens aceitas tenham sido processadas.
+     *
+     * @param deadline prazo, em System.nanoTime()
+     * @return <code>false</code> se o prazo acabou antes.
+     */
+    public synchronized boolean awaitIdle(long deadline)
+            throws InterruptedException {
+        while (unfinished.get() > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Descarta as mensagens que estao na fila.
+     *
+     * @return As mensagens descartadas, para quem precisar devolve-las a
+     * uma reserva.
+     */
+    public List<E> clear() {
+        List<E> discarded = new ArrayList<E>();
+        queue.drainTo(discarded);
+        finished(discarded.size());
+        return discarded;
+    }
+
+    /**
+     * @return A fila, de onde a thread de trabalho tira as mensagens.
+     */
+    public BlockingQueue<E> queue() {
+        return queue;
+    }
+
+    public BufferPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return Quantas mensagens foram descartadas por falta de espaco.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return Quantas mensagens foram recusadas com excecao (politica REJECT).
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Conta uma mensagem descartada porque seu prazo venceu antes do envio.
+     * Chamado pela camada, que e' quem conhece os prazos.
+     */
+    public void markExpired() {
+        expired.incrementAndGet();
+    }
+
+    /**
+     * @return Quantas mensagens foram descartadas por prazo vencido (vide
+     * DataLink.send() e Network.send() com idade maxima).
+     */
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * @return Tempo total que quem entregou mensagens passou esperando
+     * espaco, em nanossegundos.
+     */
+    public long getBlockedNanos() {
+        return blockedNanos.get();
+    }
+
+    /**
+     * @return Quantas mensagens entraram no buffer.
+     */
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    /**
+     * @return Quantas mensagens sairam do buffer: processadas (vide
+     * finished()), descartadas por DROP_OLDEST ou por clear().
+     */
+    public long getDequeued() {
+        return dequeued.get();
+    }
+
+    /**
+     * @return O maior numero de mensagens pendentes ja visto, contando as
+     * que estavam sendo processadas pela thread de trabalho.
+     */
+    public int getHighWater() {
+        return highWater.get();
+    }
+
+    /**
+     * @return Quantas mensagens estao no buffer agora.
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public String toString() {
+        return "LayerBuffer(" + policy + ", " + queue.size() + " mensagens, " +
+                dropped.get() + " descartadas, " + expired.get() + " expiradas)";
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.util.concurrent.Future;
+
+/**
+ * Estrategia usada pelas camadas para executar suas threads de trabalho (as
+ * que esvaziam os buffers de envio e recebimento).
+ * <p/>
+ * Cada camada pede uma thread por laco de trabalho; quem monta a pilha escolhe
+ * de onde ela vem: uma thread nova por laco (o padrao), um pool compartilhado
+ * por varias pilhas ou um ThreadFactory qualquer. Vide LayerExecutors.
+ *
+ * @author Thiago
+ */
+public interface LayerExecutor {
+
+    /**
+     * Comeca a executar <code>task</code>, que normalmente so termina quando
+     * for interrompida.
+     *
+     * @param name nome da thread, para debug
+     * @param task laco de trabalho
+     * @return Um Future que representa o laco. cancel(true) interrompe a
+     * thread que o executa.
+     */
+    Future<?> execute(String name, Runnable task);
+
+}
@@ -0,0 +1,97 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Implementacoes de LayerExecutor.
+ * <p/>
+ * Os lacos de trabalho das camadas bloqueiam esperando mensagens, entao cada
+ * um ocupa uma thread enquanto a camada estiver rodando. Um pool
+ * compartilhado deve, portanto, poder crescer (como
+ * Executors.newCachedThreadPool()); o ganho e' reaproveitar as threads entre
+ * pilhas e poder desliga-las todas de uma vez com shutdownNow().
+ * <p/>
+ * Em JVMs com threads virtuais, basta passar o ThreadFactory delas para
+ * fromThreadFactory().
+ *
+ * @author Thiago
+ */
+public class LayerExecutors {
+
+    private LayerExecutors() {
+    }
+
+    private static final LayerExecutor DEDICATED = new LayerExecutor() {
+        public Future<?> execute(String name, Runnable task) {
+            FutureTask<Object> future = new FutureTask<Object>(task, null);
+            new Thread(future, name).start();
+            return future;
+        }
+    };
+
+    /**
+     * @return Estrategia que cria uma thread nova para cada laco. E' o
+     * padrao, e o comportamento original das camadas.
+     */
+    public static LayerExecutor dedicated() {
+        return DEDICATED;
+    }
+
+    /**
+     * @param factory fabrica das threads
+     * @return Estrategia que cria cada thread com <code>factory</code>. O
+     * nome da thread e' trocado pelo nome pedido pela camada.
+     */
+    public static LayerExecutor fromThreadFactory(final ThreadFactory factory) {
+        if (factory == null)
+            throw new NullPointerException("factory");
+
+        return new LayerExecutor() {
+            public Future<?> execute(String name, Runnable task) {
+                FutureTask<Object> future = new FutureTask<Object>(task, null);
+                Thread thread = factory.newThread(future);
+                thread.setName(name);
+                thread.start();
+                return future;
+            }
+        };
+    }
+
+    /**
+     * @param pool pool onde os lacos serao submetidos. Deve poder executar
+     * todos os lacos ao mesmo tempo.
+     * @return Estrategia que executa cada laco numa thread de
+     * <code>pool</code>. Enquanto o laco roda, a thread recebe o nome pedido
+     * pela camada.
+     */
+    public static LayerExecutor shared(final ExecutorService pool) {
+        if (pool == null)
+            throw new NullPointerException("pool");
+
+        return new LayerExecutor() {
+            public Future<?> execute(final String name, final Runnable task) {
+                return pool.submit(new Runnable() {
+                    public void run() {
+                        Thread current = Thread.currentThread();
+                        String oldName = current.getName();
+                        current.setName(name);
+                        try {
+                            task.run();
+                        } finally {
+                            current.setName(oldName);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+}
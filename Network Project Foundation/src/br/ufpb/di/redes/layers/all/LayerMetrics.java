@@ -0,0 +1,286 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metricas de uma entidade (vide Layer.getMetrics()): contadores dos seus
+ * buffers e histogramas do tempo gasto por mensagem em processSentBatch() e
+ * processReceivedBatch() (num lote, cada mensagem conta com o tempo medio do
+ * lote). Tudo pode ser lido com a pilha rodando, sem parar as threads de
+ * trabalho.
+ * <p/>
+ * Se setJmxEnabled(true) for chamado antes de attach(), a entidade tambem
+ * aparece no MBeanServer da plataforma, em
+ * <code>br.ufpb.di.redes.layers:type=Layer,...</code>, ate ser parada.
+ *
+ * @author Thiago
+ */
+public class LayerMetrics implements LayerMetricsMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(LayerMetrics.class);
+
+    /**Dominio dos nomes JMX das entidades*/
+    public static final String JMX_DOMAIN = "br.ufpb.di.redes.layers";
+
+    /**Janela minima para calcular as taxas*/
+    private static final long RATE_WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+    /**Se entidades amarradas daqui em diante devem ser registradas*/
+    private static volatile boolean jmxEnabled = false;
+
+    private final Layer<?, ?> layer;
+    private final LatencyHistogram sent = new LatencyHistogram();
+    private final LatencyHistogram received = new LatencyHistogram();
+    private final Rate sentRate = new Rate();
+    private final Rate receivedRate = new Rate();
+
+    /**Nome no MBeanServer, se registrado*/
+    private ObjectName registeredAs;
+
+    LayerMetrics(Layer<?, ?> layer) {
+        this.layer = layer;
+    }
+
+    /**
+     * Liga ou desliga o registro automatico por JMX das entidades amarradas
+     * daqui em diante. O padrao e' desligado.
+     */
+    public static void setJmxEnabled(boolean enabled) {
+        jmxEnabled = enabled;
+    }
+
+    public static boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * Registra quanto durou o envio de uma mensagem.
+     *
+     * @param begin System.nanoTime() de antes da chamada
+     */
+    public void sentSince(long begin) {
+        sentSince(begin, 1);
+    }
+
+    /**
+     * Registra quanto durou o envio de um lote de <code>count</code>
+     * mensagens, dividindo o tempo igualmente entre elas.
+     *
+     * @param begin System.nanoTime() de antes da chamada
+     */
+    public void sentSince(long begin, int count) {
+        if (count > 0)
+            sent.record((System.nanoTime() - begin) / count, count);
+    }
+
+    /**
+     * Registra quanto durou o recebimento de uma mensagem.
+     *
+     * @param begin System.nanoTime() de antes da chamada
+     */
+    public void receivedSince(long begin) {
+        receivedSince(begin, 1);
+    }
+
+    /**
+     * Registra quanto durou o recebimento de um lote de <code>count</code>
+     * mensagens, dividindo o tempo igualmente entre elas.
+     *
+     * @param begin System.nanoTime() de antes da chamada
+     */
+    public void receivedSince(long begin, int count) {
+        if (count > 0)
+            received.record((System.nanoTime() - begin) / count, count);
+    }
+
+    public String getLayerName() {
+        return layer.getName();
+    }
+
+    public String getState() {
+        return String.valueOf(layer.getState());
+    }
+
+    public BufferSnapshot getSendBuffer() {
+        return BufferSnapshot.of(layer.sendSideBuffer());
+    }
+
+    public BufferSnapshot getReceivedBuffer() {
+        return BufferSnapshot.of(layer.receivedSideBuffer());
+    }
+
+    public LatencyHistogram.Snapshot getSentLatency() {
+        return sent.snapshot();
+    }
+
+    public LatencyHistogram.Snapshot getReceivedLatency() {
+        return received.snapshot();
+    }
+
+    public double getSentPerSecond() {
+        return sentRate.update(sent.getCount());
+    }
+
+    public double getReceivedPerSecond() {
+        return receivedRate.update(received.getCount());
+    }
+
+    public void resetLatencies() {
+        sent.reset();
+        received.reset();
+    }
+
+    /**
+     * Registra estas metricas no MBeanServer da plataforma, se ainda nao
+     * estiverem. Falhas sao apenas logadas: metricas nao devem derrubar a
+     * pilha.
+     */
+    public synchronized void register() {
+        if (registeredAs != null)
+            return;
+        try {
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=Layer,class=" +
+                    layer.getClass().getName() + ",id=" +
+                    Integer.toHexString(System.identityHashCode(layer)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            registeredAs = name;
+        } catch (JMException e) {
+            logger.warn("Nao foi possivel registrar as metricas por JMX", e);
+        }
+    }
+
+    /**Desfaz register(). Chamado por Layer.stop().*/
+    public synchronized void unregister() {
+        if (registeredAs == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredAs);
+        } catch (JMException e) {
+            logger.warn("Nao foi possivel remover as metricas do JMX", e);
+        }
+        registeredAs = null;
+    }
+
+    /**@return O nome no MBeanServer, ou <code>null</code>.*/
+    public synchronized ObjectName getObjectName() {
+        return registeredAs;
+    }
+
+    @Override
+    public String toString() {
+        return getLayerName() + ": envio " + getSendBuffer() + " [" +
+                sent.snapshot() + "], recebimento " + getReceivedBuffer() +
+                " [" + received.snapshot() + "]";
+    }
+
+    /**
+     * Mensagens por segundo entre duas leituras separadas por ao menos
+     * RATE_WINDOW. Leituras mais proximas repetem o ultimo valor.
+     */
+    private static class Rate {
+        private long lastCount;
+        private long lastTime;
+        private double rate;
+
+        synchronized double update(long count) {
+            long now = System.nanoTime();
+            if (lastTime == 0) {
+                lastTime = now;
+                lastCount = count;
+            } else if (now - lastTime >= RATE_WINDOW) {
+                rate = (count - lastCount) * 1e9 / (now - lastTime);
+                lastTime = now;
+                lastCount = count;
+            }
+            return rate;
+        }
+    }
+
+    /**
+     * Contadores de um LayerBuffer num instante.
+     */
+    public static class BufferSnapshot {
+        private final String policy;
+        private final int depth;
+        private final int highWater;
+        private final long enqueued;
+        private final long dequeued;
+        private final long dropped;
+        private final long rejected;
+        private final long expired;
+        private final long blockedNanos;
+
+        private BufferSnapshot(LayerBuffer<?> buffer) {
+            policy = String.valueOf(buffer.getPolicy());
+            depth = buffer.size();
+            highWater = buffer.getHighWater();
+            enqueued = buffer.getEnqueued();
+            dequeued = buffer.getDequeued();
+            dropped = buffer.getDropped();
+            rejected = buffer.getRejected();
+            expired = buffer.getExpired();
+            blockedNanos = buffer.getBlockedNanos();
+        }
+
+        static BufferSnapshot of(LayerBuffer<?> buffer) {
+            return buffer == null ? null : new BufferSnapshot(buffer);
+        }
+
+        /**@return BufferPolicy.toString() do buffer.*/
+        public String getPolicy() {
+            return policy;
+        }
+
+        /**@return Mensagens na fila.*/
+        public int getDepth() {
+            return depth;
+        }
+
+        /**@return LayerBuffer.getHighWater().*/
+        public int getHighWater() {
+            return highWater;
+        }
+
+        public long getEnqueued() {
+            return enqueued;
+        }
+
+        public long getDequeued() {
+            return dequeued;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getExpired() {
+            return expired;
+        }
+
+        /**@return Tempo total esperando espaco em put().*/
+        public long getBlockedNanos() {
+            return blockedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + policy + ", " + depth + " na fila, pico " + highWater +
+                    ", " + enqueued + " entraram, " + dropped + " descartadas)";
+        }
+    }
+
+}
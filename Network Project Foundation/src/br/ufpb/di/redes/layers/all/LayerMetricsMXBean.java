@@ -0,0 +1,49 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+/**
+ * O que cada entidade publica por JMX (vide LayerMetrics.setJmxEnabled()).
+ * Os atributos compostos aparecem no jconsole como tabelas.
+ *
+ * @author Thiago
+ */
+public interface LayerMetricsMXBean {
+
+    /**@return Layer.getName() da entidade.*/
+    String getLayerName();
+
+    /**@return Layer.getState() da entidade.*/
+    String getState();
+
+    /**
+     * @return Contadores do buffer de mensagens vindas de cima, ou
+     * <code>null</code> se a camada nao tiver um.
+     */
+    LayerMetrics.BufferSnapshot getSendBuffer();
+
+    /**
+     * @return Contadores do buffer de mensagens vindas de baixo, ou
+     * <code>null</code> se a camada nao tiver um.
+     */
+    LayerMetrics.BufferSnapshot getReceivedBuffer();
+
+    /**@return Duracao de processSentData().*/
+    LatencyHistogram.Snapshot getSentLatency();
+
+    /**@return Duracao de processReceivedData().*/
+    LatencyHistogram.Snapshot getReceivedLatency();
+
+    /**@return Mensagens enviadas por segundo, na ultima janela medida.*/
+    double getSentPerSecond();
+
+    /**@return Mensagens recebidas por segundo, na ultima janela medida.*/
+    double getReceivedPerSecond();
+
+    /**Zera os histogramas, por exemplo entre duas rodadas de carga.*/
+    void resetLatencies();
+
+}
@@ -0,0 +1,166 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * O caminho de um segmento pela pilha: cada entidade por onde ele passa
+ * anota quando ele entrou no seu buffer, quando saiu e quando terminou de
+ * ser processado, na descida e, do outro lado, na subida. Os pedacos em que
+ * o segmento e' dividido (datagramas, quadros) levam o mesmo rastro.
+ * <p/>
+ * Rastros sao criados por Tracing.start(), so para os segmentos
+ * amostrados. Viajam em InterlayerData.getTrace() e, dentro de cada
+ * camada, em Layer.currentTrace().
+ *
+ * @author Thiago
+ */
+public class PacketTrace {
+
+    /**Em que sentido o segmento ia quando o evento foi anotado.*/
+    public static enum Direction {
+        /**Do transporte para a fisica*/
+        DOWN,
+        /**Da fisica para o transporte*/
+        UP,
+    }
+
+    /**O que aconteceu com o segmento na entidade.*/
+    public static enum Stage {
+        /**Entrou no buffer (ou, em modo sincrono, chegou a entidade)*/
+        ENQUEUED,
+        /**Saiu do buffer e comecou a ser processado*/
+        DEQUEUED,
+        /**Foi repassado adiante*/
+        DONE,
+        /**Foi descartado porque o prazo venceu no buffer (vide Layer.isExpired())*/
+        EXPIRED,
+    }
+
+    /**Um evento anotado no rastro.*/
+    public static class Event {
+        /**Nome simples da classe da entidade*/
+        public final String layer;
+        /**Layer.getName() da entidade*/
+        public final String entity;
+        public final Direction direction;
+        public final Stage stage;
+        /**System.nanoTime() do evento*/
+        public final long nanos;
+
+        Event(String layer, String entity, Direction direction, Stage stage,
+                long nanos) {
+            this.layer = layer;
+            this.entity = entity;
+            this.direction = direction;
+            this.stage = stage;
+            this.nanos = nanos;
+        }
+    }
+
+    private final long id;
+    private final String origin;
+    private final long startNanos;
+    private final long startMillis;
+    private final List<Event> events = new ArrayList<Event>();
+
+    PacketTrace(long id, String origin) {
+        this.id = id;
+        this.origin = origin;
+        this.startNanos = System.nanoTime();
+        this.startMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Anota um evento agora. Pode ser chamado de qualquer thread.
+     *
+     * @param layer tipo de entidade, como "DataLink1" ou "ConnectionState"
+     * @param entity nome da entidade
+     */
+    public void record(String layer, String entity, Direction direction,
+            Stage stage) {
+        Event event = new Event(layer, entity, direction, stage, System.nanoTime());
+        synchronized (events) {
+            events.add(event);
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**@return Quem iniciou o rastro (vide Tracing.start()).*/
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**@return System.currentTimeMillis() de quando o rastro foi criado.*/
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**@return Copia dos eventos anotados ate agora, em ordem de anotacao.*/
+    public List<Event> getEvents() {
+        synchronized (events) {
+            return new ArrayList<Event>(events);
+        }
+    }
+
+    /**
+     * @return Microssegundos entre a criacao do rastro e o ultimo evento.
+     */
+    public long getElapsedMicros() {
+        synchronized (events) {
+            if (events.isEmpty())
+                return 0;
+            return (events.get(events.size() - 1).nanos - startNanos) / 1000;
+        }
+    }
+
+    /**
+     * Escreve uma linha por evento, separada por ';': id do rastro, origem,
+     * camada, entidade, sentido, etapa, microssegundos desde o inicio do
+     * rastro e microssegundos desde o evento anterior. A diferenca entre
+     * ENQUEUED e DEQUEUED de uma entidade e' o tempo no buffer; entre
+     * DEQUEUED e DONE, o tempo de processamento.
+     *
+     * @see Tracing#export(Appendable)
+     */
+    public void export(Appendable out) throws IOException {
+        long previous = startNanos;
+        for (Event event : getEvents()) {
+            out.append(Long.toString(id)).append(';')
+                    .append(origin).append(';')
+                    .append(event.layer).append(';')
+                    .append(event.entity).append(';')
+                    .append(event.direction.name()).append(';')
+                    .append(event.stage.name()).append(';')
+                    .append(Long.toString((event.nanos - startNanos) / 1000)).append(';')
+                    .append(Long.toString((event.nanos - previous) / 1000)).append('\n');
+            previous = event.nanos;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append("Rastro ").append(id).append(" (").append(origin)
+                .append("), ").append(getElapsedMicros()).append("us\n");
+        long previous = startNanos;
+        for (Event event : getEvents()) {
+            result.append("  +").append((event.nanos - previous) / 1000)
+                    .append("us ").append(event.layer).append(" [")
+                    .append(event.entity).append("] ").append(event.direction)
+                    .append(' ').append(event.stage).append('\n');
+            previous = event.nanos;
+        }
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,25 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+/**
+ * Classe de prioridade de uma mensagem nos buffers de envio das camadas.
+ * <p/>
+ * Mensagens de controle (tokens, ACKs, SYN, FIN) passam na frente dos dados
+ * nos buffers que tem faixa de controle (vide
+ * BufferPolicy.withControlLane()). Nos outros buffers, a prioridade e'
+ * ignorada e a ordem e' a de chegada.
+ *
+ * @author Thiago
+ */
+public enum Priority {
+
+    /**Mensagens de controle, que nao devem esperar atras de dados.*/
+    CONTROL,
+    /**Dados comuns. E' a prioridade padrao.*/
+    DATA,
+
+}
@@ -0,0 +1,360 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fila circular de tamanho fixo, pre-alocada, em que offer() e poll() nao
+ * usam trava: cada posicao tem um numero de sequencia, e produtores e
+ * consumidores reservam posicoes com compareAndSet. Varias threads podem
+ * produzir e consumir ao mesmo tempo (o caso das camadas e' varios
+ * produtores e um consumidor).
+ * <p/>
+ * O que fazer quando a fila esta vazia (take()) ou cheia (put()) e' decidido
+ * pela WaitStrategy. A trava interna so e' usada para dormir e acordar
+ * threads, e so e' tocada por quem produz ou consome se houver alguem
+ * dormindo.
+ * <p/>
+ * Pode substituir ArrayBlockingQueue nos buffers das camadas (vide
+ * Layer.setBufferWaitStrategy()). Ao contrario da ArrayBlockingQueue justa,
+ * nao ha ordem entre threads que esperam espaco; a ordem dos elementos
+ * aceitos continua FIFO. O iterator() so serve para debug: ele percorre uma
+ * copia feita sem trava.
+ *
+ * @author Thiago
+ */
+public class RingBuffer<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /**O que uma thread faz enquanto espera elementos ou espaco.*/
+    public static enum WaitStrategy {
+
+        /**Dorme imediatamente, como ArrayBlockingQueue. Nao gasta CPU.*/
+        BLOCK,
+        /**
+         * Tenta por alguns ciclos de CPU e depois cede a CPU algumas vezes,
+         * antes de dormir. Reduz a latencia quando o outro lado responde
+         * rapido.
+         */
+        SPIN_THEN_PARK,
+        /**
+         * Nunca dorme: cede a CPU com Thread.yield() e tenta de novo. Menor
+         * latencia, mas ocupa um processador por thread esperando.
+         */
+        YIELD,
+    }
+
+    /**
+     * Tentativas antes de dormir, em SPIN_THEN_PARK. Com um processador so,
+     * girar so atrasa quem vai liberar a fila.
+     */
+    private static final int SPINS =
+            Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+
+    /**Tentativas com Thread.yield(), depois de SPINS, em SPIN_THEN_PARK.*/
+    private static final int YIELDS = 50;
+
+    private final int capacity;
+    private final WaitStrategy strategy;
+
+    private final AtomicReferenceArray<E> items;
+
+    /**
+     * Sequencia de cada posicao. Se igual a 2*pos, a posicao esta livre para
+     * o produtor do ticket pos; se igual a 2*pos + 1, contem o elemento do
+     * ticket pos. (Com pos + 1, uma fila de capacidade 1 nao distinguiria
+     * posicao cheia de posicao livre.)
+     */
+    private final AtomicLongArray sequences;
+
+    /**Proximo ticket de produtor.*/
+    private final AtomicLong tail = new AtomicLong();
+
+    /**Proximo ticket de consumidor.*/
+    private final AtomicLong head = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger waitingTakers = new AtomicInteger();
+    private final AtomicInteger waitingPutters = new AtomicInteger();
+
+    /**
+     * @param capacity quantidade maxima de elementos. Deve ser maior que zero.
+     * @param strategy o que fazer ao esperar
+     */
+    public RingBuffer(int capacity, WaitStrategy strategy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity deve ser maior que 0! " +
+                    "capacity = " + capacity);
+        }
+        if (strategy == null)
+            throw new NullPointerException("strategy");
+
+        this.capacity = capacity;
+        this.strategy = strategy;
+        items = new AtomicReferenceArray<E>(capacity);
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; ++i) {
+            sequences.set(i, 2L * i);
+        }
+    }
+
+    /**
+     * Cria uma fila que dorme ao esperar (WaitStrategy.BLOCK).
+     */
+    public RingBuffer(int capacity) {
+        this(capacity, WaitStrategy.BLOCK);
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return strategy;
+    }
+
+    private boolean tryOffer(E e) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) (pos % capacity);
+            long diff = sequences.get(index) - 2 * pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items.lazySet(index, e);
+                    sequences.set(index, 2 * pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+    }
+
+    private E tryPoll() {
+        while (true) {
+            long pos = head.get();
+            int index = (int) (pos % capacity);
+            long diff = sequences.get(index) - (2 * pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = items.get(index);
+                    items.lazySet(index, null);
+                    sequences.set(index, 2 * (pos + capacity));
+                    return e;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+        }
+    }
+
+    private void signal(AtomicInteger waiting, Condition condition) {
+        if (waiting.get() > 0) {
+            lock.lock();
+            try {
+                condition.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+
+        if (tryOffer(e)) {
+            signal(waitingTakers, notEmpty);
+            return true;
+        }
+        return false;
+    }
+
+    public E poll() {
+        E e = tryPoll();
+        if (e != null)
+            signal(waitingPutters, notFull);
+        return e;
+    }
+
+    public E peek() {
+        long pos = head.get();
+        int index = (int) (pos % capacity);
+        if (sequences.get(index) == 2 * pos + 1)
+            return items.get(index);
+        return null;
+    }
+
+    public void put(E e) throws InterruptedException {
+        offer(e, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    public boolean offer(E e, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if (e == null)
+            throw new NullPointerException();
+
+        long nanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + nanos;
+        int tries = 0;
+        while (!offer(e)) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            nanos = deadline - System.nanoTime();
+            if (nanos <= 0)
+                return false;
+            if (shouldSleep(tries++)) {
+                lock.lockInterruptibly();
+                waitingPutters.incrementAndGet();
+                try {
+                    while (!offer(e)) {
+                        if (nanos <= 0)
+                            return false;
+                        nanos = notFull.awaitNanos(nanos);
+                    }
+                    return true;
+                } finally {
+                    waitingPutters.decrementAndGet();
+                    lock.unlock();
+                }
+            }
+        }
+        return true;
+    }
+
+    public E take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + nanos;
+        int tries = 0;
+        E e;
+        while ((e = poll()) == null) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            nanos = deadline - System.nanoTime();
+            if (nanos <= 0)
+                return null;
+            if (shouldSleep(tries++)) {
+                lock.lockInterruptibly();
+                waitingTakers.incrementAndGet();
+                try {
+                    while ((e = poll()) == null) {
+                        if (nanos <= 0)
+                            return null;
+                        nanos = notEmpty.awaitNanos(nanos);
+                    }
+                    return e;
+                } finally {
+                    waitingTakers.decrementAndGet();
+                    lock.unlock();
+                }
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Espera um pouco, conforme a estrategia, ou indica que e' hora de dormir.
+     *
+     * @param tries quantas vezes a thread ja esperou nesta chamada
+     * @return <code>true</code> se a thread deve dormir na trava
+     */
+    private boolean shouldSleep(int tries) {
+        switch (strategy) {
+            case YIELD:
+                Thread.yield();
+                return false;
+            case SPIN_THEN_PARK:
+                if (tries < SPINS)
+                    return false;
+                if (tries < SPINS + YIELDS) {
+                    Thread.yield();
+                    return false;
+                }
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null)
+            throw new NullPointerException();
+        if (c == this)
+            throw new IllegalArgumentException();
+
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = tryPoll()) != null) {
+            c.add(e);
+            ++n;
+        }
+        if (n > 0)
+            signal(waitingPutters, notFull);
+        return n;
+    }
+
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    public int size() {
+        while (true) {
+            long h = head.get();
+            long t = tail.get();
+            if (h == head.get()) {
+                long size = t - h;
+                if (size < 0)
+                    return 0;
+                return size > capacity ? capacity : (int) size;
+            }
+        }
+    }
+
+    /**
+     * @return Um iterador sobre uma copia, sem remove(): o anel so tira
+     * elementos pela cabeca. Por isso remove(Object), removeAll() e
+     * retainAll() lancam UnsupportedOperationException.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> copy = new ArrayList<E>();
+        long t = tail.get();
+        for (long pos = head.get(); pos < t; ++pos) {
+            int index = (int) (pos % capacity);
+            if (sequences.get(index) == 2 * pos + 1) {
+                E e = items.get(index);
+                if (e != null)
+                    copy.add(e);
+            }
+        }
+        return Collections.unmodifiableList(copy).iterator();
+    }
+
+    @Override
+    public String toString() {
+        return "RingBuffer(" + strategy + ", " + size() + "/" + capacity + ")";
+    }
+
+}
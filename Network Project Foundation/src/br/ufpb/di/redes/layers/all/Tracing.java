@@ -0,0 +1,108 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Liga o rastreamento de segmentos (vide PacketTrace) e guarda os ultimos
+ * rastros para exportacao. Desligado, o custo nas camadas e' a leitura de
+ * um campo volatil por mensagem.
+ *
+ * @author Thiago
+ */
+public final class Tracing {
+
+    /**Rastreia um a cada sampleEvery segmentos; 0 desliga*/
+    private static volatile int sampleEvery = 0;
+
+    /**Quantos rastros recent() guarda*/
+    private static volatile int keep = DefaultValues.TRACES_KEPT;
+
+    private static final AtomicLong candidates = new AtomicLong();
+    private static final AtomicLong ids = new AtomicLong();
+    private static final ConcurrentLinkedQueue<PacketTrace> recent =
+            new ConcurrentLinkedQueue<PacketTrace>();
+    private static final AtomicInteger recentSize = new AtomicInteger();
+
+    private Tracing() {
+    }
+
+    /**
+     * Define a amostragem: 1 rastreia todos os segmentos, <code>n</code>
+     * rastreia um a cada <code>n</code>, 0 desliga.
+     */
+    public static void setSampleEvery(int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("n = " + n);
+        sampleEvery = n;
+    }
+
+    public static int getSampleEvery() {
+        return sampleEvery;
+    }
+
+    /**
+     * @param traces quantos rastros recent() deve guardar. Os mais antigos
+     * sao esquecidos.
+     */
+    public static void setKeep(int traces) {
+        if (traces < 1)
+            throw new IllegalArgumentException("traces = " + traces);
+        keep = traces;
+    }
+
+    public static boolean isEnabled() {
+        return sampleEvery > 0;
+    }
+
+    /**
+     * Cria um rastro para um novo segmento, se ele for amostrado.
+     *
+     * @param origin quem esta criando o segmento, para identificar o rastro
+     * @return O rastro, ou <code>null</code> se o rastreamento estiver
+     * desligado ou o segmento nao for amostrado.
+     */
+    public static PacketTrace start(String origin) {
+        int n = sampleEvery;
+        if (n == 0 || candidates.getAndIncrement() % n != 0)
+            return null;
+        PacketTrace trace = new PacketTrace(ids.incrementAndGet(), origin);
+        recent.add(trace);
+        if (recentSize.incrementAndGet() > keep && recent.poll() != null)
+            recentSize.decrementAndGet();
+        return trace;
+    }
+
+    /**@return Os ultimos rastros criados, do mais antigo ao mais novo.*/
+    public static List<PacketTrace> recent() {
+        return new ArrayList<PacketTrace>(recent);
+    }
+
+    /**Esquece os rastros guardados.*/
+    public static void clear() {
+        while (recent.poll() != null) {
+            recentSize.decrementAndGet();
+        }
+    }
+
+    /**
+     * Escreve os rastros guardados, com um cabecalho, no formato de
+     * PacketTrace.export(), que pode ser aberto numa planilha.
+     */
+    public static void export(Appendable out) throws IOException {
+        out.append("trace;origem;camada;entidade;sentido;etapa;us;delta_us\n");
+        for (PacketTrace trace : recent()) {
+            trace.export(out);
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all;
+
+/**
+ * Avisado quando um LayerBuffer passa da marca alta (deixa de aceitar
+ * escrita sem esperar) ou volta a marca baixa (vide
+ * LayerBuffer.setWatermarks()). E' assim que quem produz dados sabe quando
+ * segurar a producao em vez de ficar bloqueado em send().
+ *
+ * @author Thiago
+ */
+public interface WritabilityListener {
+
+    /**
+     * Chamado sem o buffer travado, normalmente na thread que cruzou a
+     * marca: um produtor em put() ou a thread de trabalho em finished(). Os
+     * avisos chegam um de cada vez e na ordem das mudancas, entao, se outra
+     * thread ja estiver avisando, e' ela quem entrega este. Enquanto este
+     * metodo roda, a thread que o chamou nao faz outra coisa; se for a de
+     * trabalho, a fila para de andar.
+     *
+     * @param writable o novo estado de LayerBuffer.isWritable()
+     */
+    void writabilityChanged(boolean writable);
+
+}
@@ -5,12 +5,25 @@
 
 package br.ufpb.di.redes.layers.datalink.interfaces;
 
+import br.ufpb.di.redes.layers.all.BufferPolicy;
 import br.ufpb.di.redes.layers.all.DefaultValues;
+import br.ufpb.di.redes.layers.all.DirectDispatcher;
 import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.all.InterlayerDataPool;
 import br.ufpb.di.redes.layers.all.Layer;
+import br.ufpb.di.redes.layers.all.LayerBuffer;
+import br.ufpb.di.redes.layers.all.PacketTrace;
+import br.ufpb.di.redes.layers.all.PacketTrace.Direction;
+import br.ufpb.di.redes.layers.all.PacketTrace.Stage;
+import br.ufpb.di.redes.layers.all.Priority;
+import br.ufpb.di.redes.layers.all.Tracing;
 import br.ufpb.di.redes.layers.network.interfaces.Network;
 import br.ufpb.di.redes.layers.physical.interfaces.Physical;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,34 +43,62 @@ public abstract class DataLink extends Layer<Network, Physical> {
     private static final Logger logger = LoggerFactory.getLogger(DataLink.class);
 
     /**Usado para armazenar mensagens vindas da camada de rede, no buffer*/
-    private static class ToSendMessage {
+    protected static class ToSendMessage {
         public final InterlayerData data;
         public final int dest_mac;
+        public final Priority priority;
+        /**Prazo em System.nanoTime(), ou NO_DEADLINE.*/
+        public final long deadline;
         public ToSendMessage(InterlayerData data, int dest_mac) {
+            this(data, dest_mac, Priority.DATA, NO_DEADLINE);
+        }
+        public ToSendMessage(InterlayerData data, int dest_mac,
+                Priority priority, long deadline) {
             this.data = data;
             this.dest_mac = dest_mac;
+            this.priority = priority;
+            this.deadline = deadline;
         }
     }
 
     /**Buffer de mensagens recebidas da camada de cima.*/
-    private ArrayBlockingQueue<ToSendMessage> sendBuffer;
+    private volatile LayerBuffer<ToSendMessage> sendBuffer;
 
     /**Buffer de mensagens recebidas da camada de baixo.*/
-    private ArrayBlockingQueue<InterlayerData> receivedBuffer;
+    private volatile LayerBuffer<InterlayerData> receivedBuffer;
+
+    /**Processa mensagens da camada de cima em modo sincrono.*/
+    private final DirectDispatcher<ToSendMessage> sendDirect =
+            new DirectDispatcher<ToSendMessage>() {
+        @Override
+        protected void process(ToSendMessage message) {
+            dispatchSentBatch(Collections.singletonList(message));
+        }
+    };
+
+    /**Processa mensagens da camada de baixo em modo sincrono.*/
+    private final DirectDispatcher<InterlayerData> receivedDirect =
+            new DirectDispatcher<InterlayerData>() {
+        @Override
+        protected void process(InterlayerData message) {
+            dispatchReceivedBatch(Collections.singletonList(message));
+        }
+    };
 
     /**Thread que processa mensagens recebidas da camada de cima.*/
-    private Thread sendThread;
+    private Future<?> sendThread;
 
     /**Thread que processa mensagens recebidas da camada de baixo.*/
-    private Thread receivedThread;
+    private Future<?> receivedThread;
 
     private final int id;
 
     public DataLink(Physical downLayer, int id) {
         super(downLayer);
         this.id = id;
-        sendBuffer = new ArrayBlockingQueue<ToSendMessage>(sendBufferSize);
-        receivedBuffer = new ArrayBlockingQueue<InterlayerData>(receivedBufferSize);
+        sendBuffer = new LayerBuffer<ToSendMessage>(BufferPolicy.block(sendBufferSize), false);
+        receivedBuffer = new LayerBuffer<InterlayerData>(BufferPolicy.block(receivedBufferSize), false,
+                InterlayerDataPool.recycler());
     }
 
     /**
@@ -75,6 +116,30 @@ public abstract class DataLink extends Layer<Network, Physical> {
         DataLink.receivedBufferSize = newSize;
     }
 
+    /**
+     * Define o tamanho e a politica de receivedBuffer so para esta entidade.
+     * Deve ser chamado antes de start().
+     *
+     * @param policy nova politica. O padrao e' BufferPolicy.block(), com o
+     * tamanho definido por setReceivedBufferSize(). Quadros descartados pela
+     * politica voltam a reserva (vide InterlayerDataPool.recycle()).
+     *
+     * @throws IllegalStateException se a entidade ja foi iniciada.
+     */
+    public void setReceivedBufferPolicy(BufferPolicy policy) {
+        if (receivedThread != null)
+            throw new IllegalStateException("Entidade ja iniciada");
+        receivedBuffer = new LayerBuffer<InterlayerData>(policy, false,
+                InterlayerDataPool.recycler());
+    }
+
+    /**
+     * @return receivedBuffer desta entidade.
+     */
+    public LayerBuffer<?> getReceivedBuffer() {
+        return receivedBuffer;
+    }
+
     /**
      * Define a quantidade de mensagens em sendBuffer.
      * <p/>
@@ -90,6 +155,31 @@ public abstract class DataLink extends Layer<Network, Physical> {
         DataLink.sendBufferSize = newSize;
     }
 
+    /**
+     * Define o tamanho e a politica de sendBuffer so para esta entidade. Num
+     * gateway, por exemplo, cada enlace pode ter um buffer diferente, de
+     * acordo com o anel ao qual esta ligado. Deve ser chamado antes de
+     * start().
+     *
+     * @param policy nova politica. O padrao e' BufferPolicy.block(), com o
+     * tamanho definido por setSendBufferSize().
+     *
+     * @throws IllegalStateException se a entidade ja foi iniciada.
+     */
+    public void setSendBufferPolicy(BufferPolicy policy) {
+        if (sendThread != null)
+            throw new IllegalStateException("Entidade ja iniciada");
+        sendBuffer = new LayerBuffer<ToSendMessage>(policy, false);
+    }
+
+    /**
+     * @return sendBuffer desta entidade, com seus contadores de descarte e de
+     * espera.
+     */
+    public LayerBuffer<?> getSendBuffer() {
+        return sendBuffer;
+    }
+
     /**
      * Esvazia o buffers e inicia as thread de recebimento e envio de mensagens.
      */
@@ -97,42 +187,49 @@ public abstract class DataLink extends Layer<Network, Physical> {
     @Override
     public void start () {
         logger.info("Iniciando servico");
-        sendThread = new Thread(getName() + ":sender") {
-            @Override
+        if (isSynchronous()) {
+            logger.info("Modo sincrono: sem threads de trabalho");
+            return;
+        }
+        sendThread = startWorker(getName() + ":sender", new Runnable() {
             public void run() {
+                List<ToSendMessage> batch = new ArrayList<ToSendMessage>();
                 try {
-                    while (!interrupted()) {
-                        ToSendMessage tmp = sendBuffer.take();
-                        processSentData(tmp.data, tmp.dest_mac);
+                    while (!Thread.currentThread().isInterrupted()) {
+                        takeBatch(sendBuffer.queue(), batch);
+                        dispatchSentBatch(batch);
+                        sendBuffer.finished(batch.size());
+                        batch.clear();
                     }
                 } catch (InterruptedException e) {
                 }
                 logger.debug("Thread de recebimento interrompida.");
             }
 
-        };
+        });
 
-        receivedThread = new Thread(getName() + ":receiver") {
-            @Override
+        receivedThread = startWorker(getName() + ":receiver", new Runnable() {
             public void run() {
+                List<InterlayerData> batch = new ArrayList<InterlayerData>();
                 try {
-                    while (!interrupted()) {
-                        processReceivedData(receivedBuffer.take());
+                    while (!Thread.currentThread().isInterrupted()) {
+                        takeBatch(receivedBuffer.queue(), batch);
+                        dispatchReceivedBatch(batch);
+                        receivedBuffer.finished(batch.size());
+                        batch.clear();
                     }
                 } catch (InterruptedException e) {
                 }
                 logger.debug("Thread de envio interrompida.");
             }
 
-        };
-
-        sendThread.start();
-        receivedThread.start();
+        });
     }
 
     /**
      * Armazena data e dest_mac, se houver espaco imediatamente. Se nao
-     * houver espaco imediatamente, bloqueia ate que haja espaco disponivel.
+     * houver espaco imediatamente, segue a politica do buffer (por padrao,
+     * bloqueia ate que haja espaco disponivel).
      * <p/>
      * Esta e' a interface publica que deve ser chamada a partir de camadas
      * superiores. Em geral, nao deve ser chamado diretamente o metodo
@@ -145,12 +242,46 @@ public abstract class DataLink extends Layer<Network, Physical> {
      * amarrada ao topo desta entidade.
      */
     public void send(InterlayerData data, int dest_mac) {
+        send(new ToSendMessage(data, dest_mac, currentPriority(),
+                currentDeadline()));
+    }
+
+    /**
+     * Como send(data, dest_mac), mas com a prioridade dada. Mensagens
+     * Priority.CONTROL passam na frente dos dados se sendBuffer tiver faixa
+     * de controle (vide BufferPolicy.withControlLane()), e continuam com
+     * essa prioridade ao descer para a camada fisica.
+     */
+    public void send(InterlayerData data, int dest_mac, Priority priority) {
+        send(new ToSendMessage(data, dest_mac, priority, currentDeadline()));
+    }
+
+    /**
+     * Como send(data, dest_mac), mas descarta a mensagem se ela nao sair do
+     * buffer em <code>maxAge</code>. Quem retransmite apos um timeout deve
+     * usar este, para que copias velhas nao ocupem o anel. As descartadas
+     * sao contadas em getSendBuffer().getExpired().
+     */
+    public void send(InterlayerData data, int dest_mac, long maxAge,
+            TimeUnit unit) {
+        send(new ToSendMessage(data, dest_mac, currentPriority(),
+                deadlineAfter(maxAge, unit)));
+    }
+
+    private void send(ToSendMessage tmp) {
         EntityState state = getState();
         if (state == EntityState.RUNNING) {
+            traceEvent(traceOf(tmp.data), Direction.DOWN, Stage.ENQUEUED);
+            if (isSynchronous()) {
+                logger.debug("Dados recebidos da rede. Processando direto!");
+                sendDirect.dispatch(tmp);
+                return;
+            }
             logger.debug("Dados recebidos da rede. Para a fila!");
             try {
-                ToSendMessage tmp = new ToSendMessage(data, dest_mac);
-                sendBuffer.put(tmp);
+                if (!sendBuffer.put(tmp, tmp.priority)) {
+                    logger.warn("Buffer de envio cheio. Mensagem descartada.");
+                }
             } catch (InterruptedException e) {
                 logger.error("Interrompido.", e);
                 Thread.currentThread().interrupt();
@@ -164,7 +295,8 @@ public abstract class DataLink extends Layer<Network, Physical> {
 
     /**
      * Armazena data, se houver espaco imediatamente. Se nao
-     * houver espaco imediatamente, bloqueia ate que haja espaco disponivel.
+     * houver espaco imediatamente, segue a politica do buffer (por padrao,
+     * bloqueia ate que haja espaco disponivel).
      * <p/>
      * Esta e' a interface publica que deve ser chamada a partir de camadas
      * inferiores. Em geral, nao deve ser chamado diretamente o metodo
@@ -177,12 +309,25 @@ public abstract class DataLink extends Layer<Network, Physical> {
      */
     public void received(InterlayerData data) {
         EntityState state = getState();
+        if (state == EntityState.HALTED) {
+            logger.debug("Entidade parada. Mensagem descartada.");
+            return;
+        }
         if (state == EntityState.RUNNING) {
+            traceEvent(traceOf(data), Direction.UP, Stage.ENQUEUED);
+            if (isSynchronous()) {
+                logger.debug("Dados recebidos de fisica. Processando direto!");
+                receivedDirect.dispatch(data);
+                return;
+            }
             logger.debug("Dados recebidos de fisica. Para a fila!");
             try {
-                receivedBuffer.put(data);
+                if (!receivedBuffer.put(data)) {
+                    logger.warn("Buffer de recebimento cheio. Mensagem descartada.");
+                }
             } catch (InterruptedException e) {
                 logger.error("Interrompido.", e);
+                InterlayerDataPool.recycle(data);
                 Thread.currentThread().interrupt();
             }
         } else {
@@ -210,13 +355,46 @@ public abstract class DataLink extends Layer<Network, Physical> {
         downLayer.send(data);
     }
 
+    /**
+     * Repassa data, para a camada de baixo, com a prioridade dada. Usado para
+     * quadros de controle, como tokens, que nao devem esperar atras de
+     * dados.
+     */
+    protected void bubbleDown (InterlayerData data, Priority priority) {
+        Priority previous = enterPriority(priority);
+        try {
+            bubbleDown(data);
+        } finally {
+            exitPriority(previous);
+        }
+    }
+
+    @Override
+    protected LayerBuffer<?> sendSideBuffer() {
+        return sendBuffer;
+    }
+
     @Override
-    protected void finalize() throws Throwable {
+    protected LayerBuffer<?> receivedSideBuffer() {
+        return receivedBuffer;
+    }
 
-        sendThread.interrupt();
-        receivedThread.interrupt();
+    @Override
+    protected boolean awaitDrained(long deadline) throws InterruptedException {
+        return sendBuffer.awaitIdle(deadline);
+    }
 
-        super.finalize();
+    /**
+     * Descarta o que restou nos buffers, devolvendo a reserva os quadros
+     * recebidos da camada fisica.
+     */
+    @Override
+    protected void release() {
+        sendBuffer.clear();
+        for (InterlayerData data : receivedBuffer.clear()) {
+            InterlayerDataPool.recycle(data);
+        }
+        super.release();
     }
 
 
@@ -228,6 +406,42 @@ public abstract class DataLink extends Layer<Network, Physical> {
      * de baixo, antes que este metodo retorne.
      */
     protected abstract void processSentData(InterlayerData data, int dest_mac);
+
+    /**
+     * Chamado pela thread de envio com as mensagens tiradas do buffer de uma
+     * vez (vide setMaxBatchSize()), em ordem de saida do buffer. Por padrao,
+     * chama processSentMessage() para cada uma; subclasses podem processar o
+     * lote junto, por exemplo agrupando mensagens para o mesmo mac. O tempo
+     * gasto aqui e' medido, e os rastros das mensagens anotados, por quem
+     * chama, entao valem para qualquer implementacao.
+     *
+     * @param batch mensagens, que nao devem ser guardadas depois do retorno.
+     */
+    protected void processSentBatch(List<ToSendMessage> batch) {
+        for (int i = 0; i < batch.size(); ++i) {
+            processSentMessage(batch.get(i));
+        }
+    }
+
+    /**
+     * Chama processSentData() com a prioridade e o prazo de tmp em
+     * currentPriority() e currentDeadline(). Mensagens vencidas no buffer
+     * nao chegam aqui; quem espera dentro de processSentData() (pelo token,
+     * por exemplo) pode verificar o prazo de novo com
+     * isExpired(currentDeadline()).
+     */
+    protected void processSentMessage(ToSendMessage tmp) {
+        Priority previousPriority = enterPriority(tmp.priority);
+        long previousDeadline = enterDeadline(tmp.deadline);
+        PacketTrace previousTrace = enterTrace(tmp.data.getTrace());
+        try {
+            processSentData(tmp.data, tmp.dest_mac);
+        } finally {
+            exitTrace(previousTrace);
+            exitDeadline(previousDeadline);
+            exitPriority(previousPriority);
+        }
+    }
     
     /**
      * Este metodo e' chamado automaticamente, pela thread de recebimento.
@@ -237,6 +451,115 @@ public abstract class DataLink extends Layer<Network, Physical> {
      */
     protected abstract void processReceivedData(InterlayerData data);
 
+    /**
+     * Chamado pela thread de recebimento com as mensagens tiradas do buffer
+     * de uma vez (vide setMaxBatchSize()), em ordem de chegada. Por padrao,
+     * chama processReceivedMessage() para cada uma. Tempo e rastros
+     * sao anotados por quem chama.
+     *
+     * @param batch mensagens, que nao devem ser guardadas depois do retorno.
+     */
+    protected void processReceivedBatch(List<InterlayerData> batch) {
+        for (int i = 0; i < batch.size(); ++i) {
+            processReceivedMessage(batch.get(i));
+        }
+    }
+
+    /**
+     * Chama processReceivedData() com o rastro de data em currentTrace().
+     * Subclasses que sobrescrevem processReceivedBatch() podem usa-lo para
+     * as mensagens que nao tratarem de outra forma.
+     */
+    protected void processReceivedMessage(InterlayerData data) {
+        PacketTrace previousTrace = enterTrace(data.getTrace());
+        try {
+            processReceivedData(data);
+        } finally {
+            exitTrace(previousTrace);
+        }
+    }
+
+    /**
+     * Entrega um lote (ou, em modo sincrono, uma mensagem so) a
+     * processSentBatch(), medindo quanto tempo leva e anotando a saida do
+     * buffer e o fim do processamento no rastro de cada mensagem. As
+     * mensagens cujo prazo venceu no buffer nao chegam a processSentBatch().
+     */
+    private void dispatchSentBatch(List<ToSendMessage> batch) {
+        batch = withoutExpired(batch);
+        int count = batch.size();
+        if (count == 0)
+            return;
+        PacketTrace traces[] = null;
+        if (Tracing.isEnabled()) {
+            traces = new PacketTrace[count];
+            for (int i = 0; i < count; ++i) {
+                traces[i] = batch.get(i).data.getTrace();
+            }
+            traceEvents(traces, Direction.DOWN, Stage.DEQUEUED);
+        }
+        PacketTrace previousTrace = enterTrace(commonTrace(traces));
+        long begin = System.nanoTime();
+        try {
+            processSentBatch(batch);
+        } finally {
+            getMetrics().sentSince(begin, count);
+            traceEvents(traces, Direction.DOWN, Stage.DONE);
+            exitTrace(previousTrace);
+        }
+    }
+
+    /**
+     * Descarta as mensagens do lote cujo prazo ja venceu: conta em
+     * getSendBuffer().getExpired(), anota EXPIRED no rastro e devolve os
+     * dados a reserva.
+     *
+     * @return batch, se nenhuma venceu; senao, uma lista nova com as demais.
+     */
+    private List<ToSendMessage> withoutExpired(List<ToSendMessage> batch) {
+        List<ToSendMessage> live = batch;
+        for (int i = 0; i < batch.size(); ++i) {
+            ToSendMessage tmp = batch.get(i);
+            if (isExpired(tmp.deadline)) {
+                if (live == batch)
+                    live = new ArrayList<ToSendMessage>(batch.subList(0, i));
+                sendBuffer.markExpired();
+                traceEvent(tmp.data.getTrace(), Direction.DOWN, Stage.EXPIRED);
+                InterlayerDataPool.recycle(tmp.data);
+                logger.info("Mensagem para mac {} expirou no buffer. Descartada.",
+                        tmp.dest_mac);
+            } else if (live != batch) {
+                live.add(tmp);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Entrega um lote (ou, em modo sincrono, uma mensagem so) a
+     * processReceivedBatch(), como dispatchSentBatch().
+     */
+    private void dispatchReceivedBatch(List<InterlayerData> batch) {
+        int count = batch.size();
+        PacketTrace traces[] = null;
+        if (Tracing.isEnabled()) {
+            traces = new PacketTrace[count];
+            for (int i = 0; i < count; ++i) {
+                traces[i] = batch.get(i).getTrace();
+            }
+            traceEvents(traces, Direction.UP, Stage.DEQUEUED);
+        }
+        PacketTrace previousTrace = enterTrace(commonTrace(traces));
+        long begin = System.nanoTime();
+        try {
+            processReceivedBatch(batch);
+        } finally {
+            getMetrics().receivedSince(begin, count);
+            traceEvents(traces, Direction.UP, Stage.DONE);
+            exitTrace(previousTrace);
+        }
+    }
+
     /**
      * Deve retornar o endereco mac atual da camada.
      * @return endereco mac
@@ -5,13 +5,26 @@
 
 package br.ufpb.di.redes.layers.network.interfaces;
 
+import br.ufpb.di.redes.layers.all.BufferPolicy;
 import br.ufpb.di.redes.layers.all.DefaultValues;
+import br.ufpb.di.redes.layers.all.DirectDispatcher;
 import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.all.InterlayerDataPool;
 import br.ufpb.di.redes.layers.all.Layer;
+import br.ufpb.di.redes.layers.all.LayerBuffer;
+import br.ufpb.di.redes.layers.all.PacketTrace;
+import br.ufpb.di.redes.layers.all.PacketTrace.Direction;
+import br.ufpb.di.redes.layers.all.PacketTrace.Stage;
+import br.ufpb.di.redes.layers.all.Priority;
+import br.ufpb.di.redes.layers.all.Tracing;
 import br.ufpb.di.redes.layers.datalink.interfaces.DataLink;
 import br.ufpb.di.redes.layers.transport.interfaces.Transport;
 import java.util.Arrays;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,17 +44,26 @@ public abstract class Network extends Layer<Transport, DataLink> {
     private static final Logger logger = LoggerFactory.getLogger(Network.class);
 
     /**Usado para armazenar mensagens vindas da camada de transporte, no buffer*/
-    private static class ToSendMessage {
+    protected static class ToSendMessage {
         public final InterlayerData data;
         public final int dest_ip;
+        public final Priority priority;
+        /**Prazo em System.nanoTime(), ou NO_DEADLINE.*/
+        public final long deadline;
         public ToSendMessage(InterlayerData data, int dest_ip) {
+            this(data, dest_ip, Priority.DATA, NO_DEADLINE);
+        }
+        public ToSendMessage(InterlayerData data, int dest_ip,
+                Priority priority, long deadline) {
             this.data = data;
             this.dest_ip = dest_ip;
+            this.priority = priority;
+            this.deadline = deadline;
         }
     }
 
     /**Usado para armazenar mensagens vindas da camada de enlace, no buffer*/
-    private static class ToReceiveMessage {
+    protected static class ToReceiveMessage {
         public final InterlayerData data;
         public final int source_mac;
         public final int datalink_id;
@@ -53,24 +75,42 @@ public abstract class Network extends Layer<Transport, DataLink> {
     }
 
     /**Buffer de mensagens recebidas da camada de cima.*/
-    private ArrayBlockingQueue<ToSendMessage> sendBuffer;
+    private volatile LayerBuffer<ToSendMessage> sendBuffer;
 
     /**Buffer de mensagens recebidas da camada de baixo.*/
-    private ArrayBlockingQueue<ToReceiveMessage> receivedBuffer;
+    private volatile LayerBuffer<ToReceiveMessage> receivedBuffer;
+
+    /**Processa mensagens da camada de cima em modo sincrono.*/
+    private final DirectDispatcher<ToSendMessage> sendDirect =
+            new DirectDispatcher<ToSendMessage>() {
+        @Override
+        protected void process(ToSendMessage message) {
+            dispatchSentBatch(Collections.singletonList(message));
+        }
+    };
+
+    /**Processa mensagens da camada de baixo em modo sincrono.*/
+    private final DirectDispatcher<ToReceiveMessage> receivedDirect =
+            new DirectDispatcher<ToReceiveMessage>() {
+        @Override
+        protected void process(ToReceiveMessage message) {
+            dispatchReceivedBatch(Collections.singletonList(message));
+        }
+    };
 
     /**Thread que processa mensagens recebidas da camada de cima.*/
-    private Thread sendThread;
+    private Future<?> sendThread;
 
     /**Thread que processa mensagens recebidas da camada de baixo.*/
-    private Thread receivedThread;
+    private Future<?> receivedThread;
 
     protected DataLink downLayer[]; //propositalmente, oculta um campo da super classe
 
     public Network(DataLink downLayers[]) {
         super(null);
         this.downLayer = Arrays.copyOf(downLayers, downLayers.length);
-        sendBuffer = new ArrayBlockingQueue<ToSendMessage>(sendBufferSize);
-        receivedBuffer = new ArrayBlockingQueue<ToReceiveMessage>(receivedBufferSize);
+        sendBuffer = new LayerBuffer<ToSendMessage>(BufferPolicy.block(sendBufferSize), false);
+        receivedBuffer = new LayerBuffer<ToReceiveMessage>(BufferPolicy.block(receivedBufferSize), false);
     }
 
     /**
@@ -88,6 +128,29 @@ public abstract class Network extends Layer<Transport, DataLink> {
         Network.receivedBufferSize = newSize;
     }
 
+    /**
+     * Define o tamanho e a politica de receivedBuffer so para esta entidade.
+     * Num gateway, o buffer de recebimento e' compartilhado por todos os
+     * enlaces. Deve ser chamado antes de start().
+     *
+     * @param policy nova politica. O padrao e' BufferPolicy.block(), com o
+     * tamanho definido por setReceivedBufferSize().
+     *
+     * @throws IllegalStateException se a entidade ja foi iniciada.
+     */
+    public void setReceivedBufferPolicy(BufferPolicy policy) {
+        if (receivedThread != null)
+            throw new IllegalStateException("Entidade ja iniciada");
+        receivedBuffer = new LayerBuffer<ToReceiveMessage>(policy, false);
+    }
+
+    /**
+     * @return receivedBuffer desta entidade.
+     */
+    public LayerBuffer<?> getReceivedBuffer() {
+        return receivedBuffer;
+    }
+
     /**
      * Define a quantidade de mensagens em sendBuffer.
      * <p/>
@@ -103,6 +166,28 @@ public abstract class Network extends Layer<Transport, DataLink> {
         Network.sendBufferSize = newSize;
     }
 
+    /**
+     * Define o tamanho e a politica de sendBuffer so para esta entidade.
+     * Deve ser chamado antes de start().
+     *
+     * @param policy nova politica. O padrao e' BufferPolicy.block(), com o
+     * tamanho definido por setSendBufferSize().
+     *
+     * @throws IllegalStateException se a entidade ja foi iniciada.
+     */
+    public void setSendBufferPolicy(BufferPolicy policy) {
+        if (sendThread != null)
+            throw new IllegalStateException("Entidade ja iniciada");
+        sendBuffer = new LayerBuffer<ToSendMessage>(policy, false);
+    }
+
+    /**
+     * @return sendBuffer desta entidade.
+     */
+    public LayerBuffer<?> getSendBuffer() {
+        return sendBuffer;
+    }
+
     /**
      * Esvazia o buffers e inicia as thread de recebimento e envio de mensagens.
      */
@@ -110,43 +195,49 @@ public abstract class Network extends Layer<Transport, DataLink> {
     @Override
     public void start () {
         logger.info("Iniciando servico");
-        sendThread = new Thread(getName() + ":sender") {
-            @Override
+        if (isSynchronous()) {
+            logger.info("Modo sincrono: sem threads de trabalho");
+            return;
+        }
+        sendThread = startWorker(getName() + ":sender", new Runnable() {
             public void run() {
+                List<ToSendMessage> batch = new ArrayList<ToSendMessage>();
                 try {
-                    while (!interrupted()) {
-                        ToSendMessage tmp = sendBuffer.take();
-                        processSentData(tmp.data, tmp.dest_ip);
+                    while (!Thread.currentThread().isInterrupted()) {
+                        takeBatch(sendBuffer.queue(), batch);
+                        dispatchSentBatch(batch);
+                        sendBuffer.finished(batch.size());
+                        batch.clear();
                     }
                 } catch (InterruptedException e) {
                 }
                 logger.debug("Thread de recebimento interrompida.");
             }
 
-        };
+        });
 
-        receivedThread = new Thread(getName() + ":receiver") {
-            @Override
+        receivedThread = startWorker(getName() + ":receiver", new Runnable() {
             public void run() {
+                List<ToReceiveMessage> batch = new ArrayList<ToReceiveMessage>();
                 try {
-                    while (!interrupted()) {
-                        ToReceiveMessage tmp = receivedBuffer.take();
-                        processReceivedData(tmp.data, tmp.source_mac, tmp.datalink_id);
+                    while (!Thread.currentThread().isInterrupted()) {
+                        takeBatch(receivedBuffer.queue(), batch);
+                        dispatchReceivedBatch(batch);
+                        receivedBuffer.finished(batch.size());
+                        batch.clear();
                     }
                 } catch (InterruptedException e) {
                 }
                 logger.debug("Thread de envio interrompida.");
             }
 
-        };
-
-        sendThread.start();
-        receivedThread.start();
+        });
     }
 
     /**
      * Armazena data e source_mac, se houver espaco imediatamente. Se nao
-     * houver espaco imediatamente, bloqueia ate que haja espaco disponivel.
+     * houver espaco imediatamente, segue a politica do buffer (por padrao,
+     * bloqueia ate que haja espaco disponivel).
      * <p/>
      * Esta e' a interface publica que deve ser chamada a partir de camadas
      * superiores. Em geral, nao deve ser chamado diretamente o metodo
@@ -159,12 +250,45 @@ public abstract class Network extends Layer<Transport, DataLink> {
      * amarrada ao topo desta entidade.
      */
     public void send(InterlayerData data, int dest_ip) {
+        send(new ToSendMessage(data, dest_ip, currentPriority(),
+                currentDeadline()));
+    }
+
+    /**
+     * Como send(data, dest_ip), mas com a prioridade dada, que vale para
+     * sendBuffer e para os buffers das camadas de baixo por onde a mensagem
+     * passar.
+     */
+    public void send(InterlayerData data, int dest_ip, Priority priority) {
+        send(new ToSendMessage(data, dest_ip, priority, currentDeadline()));
+    }
+
+    /**
+     * Como send(data, dest_ip), mas com idade maxima: se a mensagem nao sair
+     * de sendBuffer em <code>maxAge</code>, e' descartada e contada em
+     * getSendBuffer().getExpired(). O prazo continua valendo nos buffers do
+     * enlace.
+     */
+    public void send(InterlayerData data, int dest_ip, long maxAge,
+            TimeUnit unit) {
+        send(new ToSendMessage(data, dest_ip, currentPriority(),
+                deadlineAfter(maxAge, unit)));
+    }
+
+    private void send(ToSendMessage tmp) {
         EntityState state = getState();
         if (state == EntityState.RUNNING) {
+            traceEvent(traceOf(tmp.data), Direction.DOWN, Stage.ENQUEUED);
+            if (isSynchronous()) {
+                logger.debug("Dados recebidos do transporte. Processando direto!");
+                sendDirect.dispatch(tmp);
+                return;
+            }
             logger.debug("Dados recebidos do transporte. Para a fila!");
             try {
-                ToSendMessage tmp = new ToSendMessage(data, dest_ip);
-                sendBuffer.put(tmp);
+                if (!sendBuffer.put(tmp, tmp.priority)) {
+                    logger.warn("Buffer de envio cheio. Mensagem descartada.");
+                }
             } catch (InterruptedException e) {
                 logger.error("Interrompido.", e);
                 Thread.currentThread().interrupt();
@@ -178,7 +302,8 @@ public abstract class Network extends Layer<Transport, DataLink> {
 
     /**
      * Armazena data, se houver espaco imediatamente. Se nao
-     * houver espaco imediatamente, bloqueia ate que haja espaco disponivel.
+     * houver espaco imediatamente, segue a politica do buffer (por padrao,
+     * bloqueia ate que haja espaco disponivel).
      * <p/>
      * Esta e' a interface publica que deve ser chamada a partir de camadas
      * inferiores. Em geral, nao deve ser chamado diretamente o metodo
@@ -194,11 +319,23 @@ public abstract class Network extends Layer<Transport, DataLink> {
      */
     public void received(InterlayerData data, int source_mac, int datalink_id) {
         EntityState state = getState();
+        if (state == EntityState.HALTED) {
+            logger.debug("Entidade parada. Mensagem descartada.");
+            return;
+        }
         if (state == EntityState.RUNNING) {
+            traceEvent(traceOf(data), Direction.UP, Stage.ENQUEUED);
+            ToReceiveMessage tmp = new ToReceiveMessage(data, source_mac, datalink_id);
+            if (isSynchronous()) {
+                logger.debug("Dados recebidos do enlace. Processando direto!");
+                receivedDirect.dispatch(tmp);
+                return;
+            }
             logger.debug("Dados recebidos do enlace. Para a fila!");
             try {
-                ToReceiveMessage tmp = new ToReceiveMessage(data, source_mac, datalink_id);
-                receivedBuffer.put(tmp);
+                if (!receivedBuffer.put(tmp)) {
+                    logger.warn("Buffer de recebimento cheio. Mensagem descartada.");
+                }
             } catch (InterruptedException e) {
                 logger.error("Interrompido.", e);
                 Thread.currentThread().interrupt();
@@ -230,13 +367,55 @@ public abstract class Network extends Layer<Transport, DataLink> {
         downLayer[datalink_id].send(data, dest_mac);
     }
 
+    /**
+     * Como ha varios enlaces, reserva o suficiente para o que precisar de
+     * mais espaco.
+     */
+    @Override
+    public int headroom() {
+        int max = 0;
+        for (DataLink curDataLink : downLayer) {
+            max = Math.max(max, curDataLink.headroom());
+        }
+        return headerSize() + max;
+    }
+
+    @Override
+    protected boolean awaitDrained(long deadline) throws InterruptedException {
+        return sendBuffer.awaitIdle(deadline);
+    }
+
+    @Override
+    protected LayerBuffer<?> sendSideBuffer() {
+        return sendBuffer;
+    }
+
     @Override
-    protected void finalize() throws Throwable {
+    protected LayerBuffer<?> receivedSideBuffer() {
+        return receivedBuffer;
+    }
 
-        sendThread.interrupt();
-        receivedThread.interrupt();
+    /**
+     * Descarta o que restou nos buffers.
+     */
+    @Override
+    protected void release() {
+        sendBuffer.clear();
+        receivedBuffer.clear();
+        super.release();
+    }
 
-        super.finalize();
+    /**
+     * Para todos os enlaces, um apos o outro, com o prazo que restar.
+     */
+    @Override
+    protected boolean stopDownLayers(StopPolicy policy, long deadline) {
+        boolean ok = true;
+        for (DataLink curDataLink : downLayer) {
+            ok &= curDataLink.stop(policy,
+                    Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        return ok;
     }
 
     /**
@@ -247,6 +426,39 @@ public abstract class Network extends Layer<Transport, DataLink> {
      */
     protected abstract void processSentData(InterlayerData data, int dest_ip);
 
+    /**
+     * Chamado pela thread de envio com as mensagens tiradas do buffer de uma
+     * vez (vide setMaxBatchSize()), em ordem de saida do buffer. Por padrao,
+     * chama processSentMessage() para cada uma. O tempo gasto aqui e' medido,
+     * e os rastros das mensagens anotados, por quem chama, entao valem para
+     * qualquer implementacao.
+     *
+     * @param batch mensagens, que nao devem ser guardadas depois do retorno.
+     */
+    protected void processSentBatch(List<ToSendMessage> batch) {
+        for (int i = 0; i < batch.size(); ++i) {
+            processSentMessage(batch.get(i));
+        }
+    }
+
+    /**
+     * Chama processSentData() com a prioridade e o prazo de tmp em
+     * currentPriority() e currentDeadline(), para que sigam com a mensagem
+     * ate o enlace. Mensagens vencidas no buffer nao chegam aqui.
+     */
+    protected void processSentMessage(ToSendMessage tmp) {
+        Priority previousPriority = enterPriority(tmp.priority);
+        long previousDeadline = enterDeadline(tmp.deadline);
+        PacketTrace previousTrace = enterTrace(tmp.data.getTrace());
+        try {
+            processSentData(tmp.data, tmp.dest_ip);
+        } finally {
+            exitTrace(previousTrace);
+            exitDeadline(previousDeadline);
+            exitPriority(previousPriority);
+        }
+    }
+
     /**
      * Este metodo e' chamado automaticamente, pela thread de recebimento.
      * <p/>
@@ -255,6 +467,115 @@ public abstract class Network extends Layer<Transport, DataLink> {
      */
     protected abstract void processReceivedData(InterlayerData data, int soruce_mac, int datalink_id);
 
+    /**
+     * Chamado pela thread de recebimento com as mensagens tiradas do buffer
+     * de uma vez (vide setMaxBatchSize()), em ordem de chegada. Por padrao,
+     * chama processReceivedMessage() para cada uma. Tempo e rastros
+     * sao anotados por quem chama.
+     *
+     * @param batch mensagens, que nao devem ser guardadas depois do retorno.
+     */
+    protected void processReceivedBatch(List<ToReceiveMessage> batch) {
+        for (int i = 0; i < batch.size(); ++i) {
+            processReceivedMessage(batch.get(i));
+        }
+    }
+
+    /**
+     * Chama processReceivedData() com o rastro de tmp em currentTrace().
+     * Subclasses que sobrescrevem processReceivedBatch() podem usa-lo para
+     * as mensagens que nao tratarem de outra forma.
+     */
+    protected void processReceivedMessage(ToReceiveMessage tmp) {
+        PacketTrace previousTrace = enterTrace(tmp.data.getTrace());
+        try {
+            processReceivedData(tmp.data, tmp.source_mac, tmp.datalink_id);
+        } finally {
+            exitTrace(previousTrace);
+        }
+    }
+
+    /**
+     * Entrega um lote (ou, em modo sincrono, uma mensagem so) a
+     * processSentBatch(), medindo quanto tempo leva e anotando a saida do
+     * buffer e o fim do processamento no rastro de cada mensagem. As
+     * mensagens cujo prazo venceu no buffer nao chegam a processSentBatch().
+     */
+    private void dispatchSentBatch(List<ToSendMessage> batch) {
+        batch = withoutExpired(batch);
+        int count = batch.size();
+        if (count == 0)
+            return;
+        PacketTrace traces[] = null;
+        if (Tracing.isEnabled()) {
+            traces = new PacketTrace[count];
+            for (int i = 0; i < count; ++i) {
+                traces[i] = batch.get(i).data.getTrace();
+            }
+            traceEvents(traces, Direction.DOWN, Stage.DEQUEUED);
+        }
+        PacketTrace previousTrace = enterTrace(commonTrace(traces));
+        long begin = System.nanoTime();
+        try {
+            processSentBatch(batch);
+        } finally {
+            getMetrics().sentSince(begin, count);
+            traceEvents(traces, Direction.DOWN, Stage.DONE);
+            exitTrace(previousTrace);
+        }
+    }
+
+    /**
+     * Descarta as mensagens do lote cujo prazo ja venceu: conta em
+     * getSendBuffer().getExpired(), anota EXPIRED no rastro e devolve os
+     * dados a reserva.
+     *
+     * @return batch, se nenhuma venceu; senao, uma lista nova com as demais.
+     */
+    private List<ToSendMessage> withoutExpired(List<ToSendMessage> batch) {
+        List<ToSendMessage> live = batch;
+        for (int i = 0; i < batch.size(); ++i) {
+            ToSendMessage tmp = batch.get(i);
+            if (isExpired(tmp.deadline)) {
+                if (live == batch)
+                    live = new ArrayList<ToSendMessage>(batch.subList(0, i));
+                sendBuffer.markExpired();
+                traceEvent(tmp.data.getTrace(), Direction.DOWN, Stage.EXPIRED);
+                InterlayerDataPool.recycle(tmp.data);
+                logger.info("Mensagem para ip {} expirou no buffer. Descartada.",
+                        tmp.dest_ip);
+            } else if (live != batch) {
+                live.add(tmp);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Entrega um lote (ou, em modo sincrono, uma mensagem so) a
+     * processReceivedBatch(), como dispatchSentBatch().
+     */
+    private void dispatchReceivedBatch(List<ToReceiveMessage> batch) {
+        int count = batch.size();
+        PacketTrace traces[] = null;
+        if (Tracing.isEnabled()) {
+            traces = new PacketTrace[count];
+            for (int i = 0; i < count; ++i) {
+                traces[i] = batch.get(i).data.getTrace();
+            }
+            traceEvents(traces, Direction.UP, Stage.DEQUEUED);
+        }
+        PacketTrace previousTrace = enterTrace(commonTrace(traces));
+        long begin = System.nanoTime();
+        try {
+            processReceivedBatch(batch);
+        } finally {
+            getMetrics().receivedSince(begin, count);
+            traceEvents(traces, Direction.UP, Stage.DONE);
+            exitTrace(previousTrace);
+        }
+    }
+
     /**
      * Deve retornar o ip da maquina atual. No caso de um gateway, que tem mais
      * de um ip, o mesmo ip deve sempre ser retornado.
@@ -6,11 +6,23 @@
 package br.ufpb.di.redes.layers.physical.interfaces;
 
 import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.all.InterlayerDataPool;
+import br.ufpb.di.redes.layers.all.BufferPolicy;
 import br.ufpb.di.redes.layers.all.DefaultValues;
+import br.ufpb.di.redes.layers.all.DirectDispatcher;
 import br.ufpb.di.redes.layers.all.Layer;
+import br.ufpb.di.redes.layers.all.LayerBuffer;
 import br.ufpb.di.redes.layers.all.NullLayer;
+import br.ufpb.di.redes.layers.all.PacketTrace;
+import br.ufpb.di.redes.layers.all.PacketTrace.Direction;
+import br.ufpb.di.redes.layers.all.PacketTrace.Stage;
+import br.ufpb.di.redes.layers.all.Priority;
+import br.ufpb.di.redes.layers.all.Tracing;
 import br.ufpb.di.redes.layers.datalink.interfaces.DataLink;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,18 +42,28 @@ public abstract class Physical extends Layer <DataLink, NullLayer> {
     private static final Logger logger = LoggerFactory.getLogger(Physical.class);
 
     /**Buffer de mensagens.*/
-    private ArrayBlockingQueue<InterlayerData> downBuffer;
+    private volatile LayerBuffer<InterlayerData> downBuffer;
 
     /**
      * Thread que executa o envio de mensagens, repetidamente esvaziando
      * downBuffer. Se o buffer esta vazio, a thread espera a chegada de
      * mensagens antes de continuar.
      */
-    private Thread downThread;
+    private Future<?> downThread;
+
+    /**Processa mensagens em modo sincrono.*/
+    private final DirectDispatcher<InterlayerData> downDirect =
+            new DirectDispatcher<InterlayerData>() {
+        @Override
+        protected void process(InterlayerData message) {
+            dispatchSentBatch(Collections.singletonList(message));
+        }
+    };
 
     public Physical() {
         super(new NullLayer());
-        downBuffer = new ArrayBlockingQueue<InterlayerData>(downBufferSize, true);
+        downBuffer = new LayerBuffer<InterlayerData>(BufferPolicy.block(downBufferSize), true,
+                InterlayerDataPool.recycler());
     }
 
     private static int downBufferSize = DefaultValues.DOWN_BUFFER_SIZE;
@@ -61,25 +83,71 @@ public abstract class Physical extends Layer <DataLink, NullLayer> {
         downBufferSize = newSize;
     }
 
+    /**
+     * Define o tamanho e a politica de downBuffer so para esta entidade.
+     * Deve ser chamado antes de start().
+     *
+     * @param policy nova politica. O padrao e' BufferPolicy.block(), com o
+     * tamanho definido por setDownBufferSize(). A ordem de chegada continua
+     * sendo respeitada. Quadros descartados pela politica voltam a reserva
+     * (vide InterlayerDataPool.recycle()).
+     *
+     * @throws IllegalStateException se a entidade ja foi iniciada.
+     */
+    public void setDownBufferPolicy(BufferPolicy policy) {
+        if (downThread != null)
+            throw new IllegalStateException("Entidade ja iniciada");
+        downBuffer = new LayerBuffer<InterlayerData>(policy, true,
+                InterlayerDataPool.recycler());
+    }
+
+    /**
+     * @return downBuffer desta entidade, com seus contadores.
+     */
+    public LayerBuffer<?> getDownBuffer() {
+        return downBuffer;
+    }
+
     /**
      * Armazena data em downBuffer, se houver espaco imediatamente. Se nao
-     * houver espaco imediatamente, bloqueia ate que haja espaco disponivel.
+     * houver espaco imediatamente, segue a politica do buffer (por padrao,
+     * bloqueia ate que haja espaco disponivel).
      *
      * @param data PDU a ser enviada.
      *
      * @throws IllegalStateException Sera lancada se nao houver entidade
      * amarrada ao topo desta entidade.
      */
-    public synchronized final void send(InterlayerData data)
+    public final void send(InterlayerData data)
+            throws IllegalStateException {
+        send(data, currentPriority());
+    }
+
+    /**
+     * Como send(data), mas com a prioridade dada. Se downBuffer tiver faixa
+     * de controle, quadros Priority.CONTROL sao transmitidos antes dos dados
+     * que estiverem esperando. Quem espera espaco numa faixa cheia nao
+     * impede a entrada na outra.
+     */
+    public final void send(InterlayerData data, Priority priority)
             throws IllegalStateException {
 
         EntityState state = getState();
         if (state == EntityState.RUNNING) {
+            traceEvent(traceOf(data), Direction.DOWN, Stage.ENQUEUED);
+            if (isSynchronous()) {
+                logger.debug("Dados recebidos do enlace. Processando direto!");
+                downDirect.dispatch(data);
+                return;
+            }
             logger.debug("Dados recebidos do enlace. Para a fila!");
             try {
-                downBuffer.put(data);
+                if (!downBuffer.put(data, priority)) {
+                    logger.warn("Buffer de envio cheio. Mensagem descartada.");
+                }
             } catch (InterruptedException e) {
                 logger.error("Interrompido.", e);
+                InterlayerDataPool.recycle(data);
                 Thread.currentThread().interrupt();
             }
         } else {
@@ -95,18 +163,33 @@ public abstract class Physical extends Layer <DataLink, NullLayer> {
      *
      * @param data dados a ser repassados.
      */
-    protected synchronized void bubbleUp (InterlayerData data) {
+    protected void bubbleUp (InterlayerData data) {
         logger.debug("Repassado dados para o enlace.");
+        traceEvent(traceOf(data), Direction.UP, Stage.DONE);
         //if (upLayer != null) //isso nao deve acontecer normalmente
         upLayer.received(data);
     }
 
     @Override
-    protected void finalize() throws Throwable {
+    protected LayerBuffer<?> sendSideBuffer() {
+        return downBuffer;
+    }
 
-        downThread.interrupt();
+    @Override
+    protected boolean awaitDrained(long deadline) throws InterruptedException {
+        return downBuffer.awaitIdle(deadline);
+    }
 
-        super.finalize();
+    /**
+     * Descarta os quadros que nao chegaram a ser transmitidos, devolvendo-os
+     * a reserva.
+     */
+    @Override
+    protected void release() {
+        for (InterlayerData data : downBuffer.clear()) {
+            InterlayerDataPool.recycle(data);
+        }
+        super.release();
     }
 
     /**
@@ -117,25 +200,87 @@ public abstract class Physical extends Layer <DataLink, NullLayer> {
      */
     protected abstract void processSentData (InterlayerData data);
 
+    /**
+     * Chamado pela thread de envio com as mensagens tiradas do buffer de uma
+     * vez (vide setMaxBatchSize()), em ordem de chegada. Por padrao, chama
+     * processSentMessage() para cada uma; subclasses podem, por exemplo,
+     * escrever varios quadros no meio fisico de uma vez. O tempo gasto aqui
+     * e' medido, e os rastros das mensagens anotados, por quem chama, entao
+     * valem para qualquer implementacao.
+     *
+     * @param batch mensagens, que nao devem ser guardadas depois do retorno.
+     */
+    protected void processSentBatch (List<InterlayerData> batch) {
+        for (int i = 0; i < batch.size(); ++i) {
+            processSentMessage(batch.get(i));
+        }
+    }
+
+    /**
+     * Chama processSentData() com o rastro de data em currentTrace().
+     * Subclasses que sobrescrevem processSentBatch() podem usa-lo para as
+     * mensagens que nao tratarem de outra forma.
+     */
+    protected void processSentMessage(InterlayerData data) {
+        PacketTrace previousTrace = enterTrace(data.getTrace());
+        try {
+            processSentData(data);
+        } finally {
+            exitTrace(previousTrace);
+        }
+    }
+
+    /**
+     * Entrega um lote (ou, em modo sincrono, uma mensagem so) a
+     * processSentBatch(), medindo quanto tempo leva e anotando a saida do
+     * buffer e o fim do processamento no rastro de cada mensagem.
+     */
+    private void dispatchSentBatch(List<InterlayerData> batch) {
+        int count = batch.size();
+        PacketTrace traces[] = null;
+        if (Tracing.isEnabled()) {
+            traces = new PacketTrace[count];
+            for (int i = 0; i < count; ++i) {
+                traces[i] = batch.get(i).getTrace();
+            }
+            traceEvents(traces, Direction.DOWN, Stage.DEQUEUED);
+        }
+        PacketTrace previousTrace = enterTrace(commonTrace(traces));
+        long begin = System.nanoTime();
+        try {
+            processSentBatch(batch);
+        } finally {
+            getMetrics().sentSince(begin, count);
+            traceEvents(traces, Direction.DOWN, Stage.DONE);
+            exitTrace(previousTrace);
+        }
+    }
+
     /**
      * Esvazia o buffer e inicia a thread de recebimento de mensagens.
      */
     @Override
     public synchronized void start() {
         logger.info("Iniciando servico");
-        downThread = new Thread(getName() + ":sender") {
-            @Override
+        if (isSynchronous()) {
+            logger.info("Modo sincrono: sem threads de trabalho");
+            return;
+        }
+        downThread = startWorker(getName() + ":sender", new Runnable() {
             public void run() {
+                List<InterlayerData> batch = new ArrayList<InterlayerData>();
                 try {
-                    while (!interrupted()) {
-                        processSentData(downBuffer.take());
+                    while (!Thread.currentThread().isInterrupted()) {
+                        takeBatch(downBuffer.queue(), batch);
+                        dispatchSentBatch(batch);
+                        downBuffer.finished(batch.size());
+                        batch.clear();
                     }
                 } catch (InterruptedException e) {
                 }
                 logger.debug("Thread de recebimento interrompida.");
             }
-        };
-        downThread.start();
+        });
     }
 
 }
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -94,6 +95,26 @@ public class Connection {
         return myFather.isActive(this);
     }
 
+    /**
+     * @return <code>false</code> se escrever em getOutputStream() agora
+     * provavelmente bloquearia, porque a conexao ou as camadas de baixo
+     * estao cheias. Quem pode adiar a producao deve consultar isto (ou
+     * awaitWritable()) antes de escrever.
+     */
+    public boolean isWritable() {
+        return myFather.isWritable(this);
+    }
+
+    /**
+     * Espera isWritable() ficar verdadeiro, no maximo <code>timeout</code>.
+     *
+     * @return <code>false</code> se o prazo acabou antes.
+     */
+    public boolean awaitWritable(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return myFather.awaitWritable(this, timeout, unit);
+    }
+
     private void put (int b) {
         myFather.put(this, (byte)b);
     }
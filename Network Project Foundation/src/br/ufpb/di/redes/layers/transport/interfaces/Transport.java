@@ -5,12 +5,21 @@
 
 package br.ufpb.di.redes.layers.transport.interfaces;
 
+import br.ufpb.di.redes.layers.all.BufferPolicy;
 import br.ufpb.di.redes.layers.all.DefaultValues;
+import br.ufpb.di.redes.layers.all.DirectDispatcher;
 import br.ufpb.di.redes.layers.all.InterlayerData;
 import br.ufpb.di.redes.layers.all.Layer;
+import br.ufpb.di.redes.layers.all.LayerBuffer;
 import br.ufpb.di.redes.layers.all.NullLayer;
+import br.ufpb.di.redes.layers.all.PacketTrace;
+import br.ufpb.di.redes.layers.all.PacketTrace.Direction;
+import br.ufpb.di.redes.layers.all.PacketTrace.Stage;
+import br.ufpb.di.redes.layers.all.Priority;
+import br.ufpb.di.redes.layers.all.Tracing;
 import br.ufpb.di.redes.layers.network.interfaces.Network;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,7 +36,7 @@ public abstract class Transport extends Layer<NullLayer, Network> {
     private static int receivedBufferSize = DefaultValues.DOWN_BUFFER_SIZE;
 
     /**Usado para armazenar mensagens vindas da camada de rede, no buffer*/
-    private static class ToReceiveMessage {
+    protected static class ToReceiveMessage {
         public final InterlayerData data;
         public final int source_ip;
         public ToReceiveMessage(InterlayerData data, int source_ip) {
@@ -37,42 +46,75 @@ public abstract class Transport extends Layer<NullLayer, Network> {
     }
 
     /**Buffer de mensagens recebidas da camada de baixo.*/
-    private ArrayBlockingQueue<ToReceiveMessage> receivedBuffer;
+    private volatile LayerBuffer<ToReceiveMessage> receivedBuffer;
+
+    /**Processa mensagens da camada de baixo em modo sincrono.*/
+    private final DirectDispatcher<ToReceiveMessage> receivedDirect =
+            new DirectDispatcher<ToReceiveMessage>() {
+        @Override
+        protected void process(ToReceiveMessage message) {
+            dispatchReceived(message);
+        }
+    };
 
     /**Thread que processa mensagens recebidas da camada de baixo.*/
-    private Thread receivedThread;
+    private Future<?> receivedThread;
 
     public Transport(Network downLayer) {
         super(downLayer);
-        receivedBuffer = new ArrayBlockingQueue<ToReceiveMessage>(receivedBufferSize);
+        receivedBuffer = new LayerBuffer<ToReceiveMessage>(BufferPolicy.block(receivedBufferSize), false);
         attach(new NullLayer());
     }
 
+    /**
+     * Define o tamanho e a politica de receivedBuffer so para esta entidade.
+     * Deve ser chamado antes de start().
+     *
+     * @param policy nova politica. O padrao e' BufferPolicy.block(), com o
+     * tamanho padrao de DefaultValues.
+     *
+     * @throws IllegalStateException se a entidade ja foi iniciada.
+     */
+    public void setReceivedBufferPolicy(BufferPolicy policy) {
+        if (receivedThread != null)
+            throw new IllegalStateException("Entidade ja iniciada");
+        receivedBuffer = new LayerBuffer<ToReceiveMessage>(policy, false);
+    }
+
+    /**
+     * @return receivedBuffer desta entidade.
+     */
+    public LayerBuffer<?> getReceivedBuffer() {
+        return receivedBuffer;
+    }
+
     @Override
     public void start() {
         super.start();
         logger.info("Iniciando servico");
-        receivedThread = new Thread(getName() + ":receiver") {
-            @Override
+        if (isSynchronous()) {
+            logger.info("Modo sincrono: sem threads de trabalho");
+            return;
+        }
+        receivedThread = startWorker(getName() + ":receiver", new Runnable() {
             public void run() {
                 try {
-                    while (!interrupted()) {
-                        ToReceiveMessage tmp = receivedBuffer.take();
-                        processReceivedData(tmp.data, tmp.source_ip);
+                    while (!Thread.currentThread().isInterrupted()) {
+                        dispatchReceived(receivedBuffer.queue().take());
+                        receivedBuffer.finished(1);
                     }
                 } catch (InterruptedException e) {
                 }
                 logger.debug("Thread de envio interrompida.");
             }
-        };
-
-        receivedThread.start();
+        });
     }
 
 
     /**
      * Armazena data e source_ip, se houver espaco imediatamente. Se nao
-     * houver espaco imediatamente, bloqueia ate que haja espaco disponivel.
+     * houver espaco imediatamente, segue a politica do buffer (por padrao,
+     * bloqueia ate que haja espaco disponivel).
      * <p/>
      * Esta e' a interface publica que deve ser chamada a partir de camadas
      * inferiores. Em geral, nao deve ser chamado diretamente o metodo
@@ -86,11 +128,23 @@ public abstract class Transport extends Layer<NullLayer, Network> {
      */
     public void received(InterlayerData data, int source_ip) {
         EntityState state = getState();
+        if (state == EntityState.HALTED) {
+            logger.debug("Entidade parada. Mensagem descartada.");
+            return;
+        }
         if (state == EntityState.RUNNING) {
+            traceEvent(traceOf(data), Direction.UP, Stage.ENQUEUED);
+            ToReceiveMessage tmp = new ToReceiveMessage(data, source_ip);
+            if (isSynchronous()) {
+                logger.debug("Dados recebidos da rede. Processando direto!");
+                receivedDirect.dispatch(tmp);
+                return;
+            }
             logger.debug("Dados recebidos da rede. Para a fila!");
             try {
-                ToReceiveMessage tmp = new ToReceiveMessage(data, source_ip);
-                receivedBuffer.put(tmp);
+                if (!receivedBuffer.put(tmp)) {
+                    logger.warn("Buffer de recebimento cheio. Mensagem descartada.");
+                }
             } catch (InterruptedException e) {
                 logger.error("Interrompido.", e);
                 Thread.currentThread().interrupt();
@@ -109,9 +163,46 @@ public abstract class Transport extends Layer<NullLayer, Network> {
      */
     protected void bubbleDown (InterlayerData data, int dest_ip) {
         logger.debug("Repassando mensagem para a camada de rede.");
+        PacketTrace trace = traceOf(data);
+        if (trace == null && Tracing.isEnabled()) {
+            trace = Tracing.start(getName());
+            data.setTrace(trace);
+        }
+        traceEvent(trace, Direction.DOWN, Stage.DONE);
         downLayer.send(data, dest_ip);
     }
 
+    /**
+     * Repassa data e dest_ip, para a camada de baixo, com a prioridade dada.
+     * Segmentos de controle (SYN, FIN, ACK puro) devem usar
+     * Priority.CONTROL, para nao esperar atras de dados nos buffers que tem
+     * faixa de controle.
+     */
+    protected void bubbleDown (InterlayerData data, int dest_ip, Priority priority) {
+        Priority previous = enterPriority(priority);
+        try {
+            bubbleDown(data, dest_ip);
+        } finally {
+            exitPriority(previous);
+        }
+    }
+
+    /**
+     * Repassa data e dest_ip, para a camada de baixo, com idade maxima: se
+     * a mensagem ainda estiver num buffer de rede ou de enlace depois de
+     * <code>maxAge</code>, e' descartada. Util para segmentos que serao
+     * retransmitidos apos um timeout.
+     */
+    protected void bubbleDown (InterlayerData data, int dest_ip, long maxAge,
+            TimeUnit unit) {
+        long previous = enterDeadline(deadlineAfter(maxAge, unit));
+        try {
+            bubbleDown(data, dest_ip);
+        } finally {
+            exitDeadline(previous);
+        }
+    }
+
     /**
      * Este metodo e' chamado automaticamente, pela thread de recebimento.
      * <p/>
@@ -132,11 +223,49 @@ public abstract class Transport extends Layer<NullLayer, Network> {
             throws UnnableToConnectException;
 
     @Override
-    protected void finalize() throws Throwable {
+    protected LayerBuffer<?> receivedSideBuffer() {
+        return receivedBuffer;
+    }
 
-        receivedThread.interrupt();
+    /**
+     * Chama processReceivedData() com o rastro de tmp em currentTrace().
+     * O tempo gasto aqui e' medido, e o rastro anotado, por quem chama,
+     * entao valem tambem para subclasses que o sobrescrevem.
+     */
+    protected void processReceivedMessage(ToReceiveMessage tmp) {
+        PacketTrace previousTrace = enterTrace(tmp.data.getTrace());
+        try {
+            processReceivedData(tmp.data, tmp.source_ip);
+        } finally {
+            exitTrace(previousTrace);
+        }
+    }
 
-        super.finalize();
+    /**
+     * Chama processReceivedMessage(), medindo quanto tempo leva e anotando a
+     * saida do buffer e o fim do processamento no rastro da mensagem.
+     */
+    private void dispatchReceived(ToReceiveMessage tmp) {
+        PacketTrace trace = tmp.data.getTrace();
+        traceEvent(trace, Direction.UP, Stage.DEQUEUED);
+        PacketTrace previousTrace = enterTrace(trace);
+        long begin = System.nanoTime();
+        try {
+            processReceivedMessage(tmp);
+        } finally {
+            getMetrics().receivedSince(begin);
+            traceEvent(trace, Direction.UP, Stage.DONE);
+            exitTrace(previousTrace);
+        }
+    }
+
+    /**
+     * Descarta o que restou no buffer.
+     */
+    @Override
+    protected void release() {
+        receivedBuffer.clear();
+        super.release();
     }
 
     /**
@@ -153,6 +282,25 @@ public abstract class Transport extends Layer<NullLayer, Network> {
 
     protected abstract void put (Connection con, byte b);
 
+    /**
+     * Se <code>con</code> pode receber mais dados sem bloquear quem escreve.
+     * Por padrao, consulta a camada de rede; implementacoes com buffer por
+     * conexao devem consulta-lo tambem.
+     */
+    protected boolean isWritable (Connection con) {
+        return downLayer.isWritable();
+    }
+
+    /**
+     * Espera isWritable(con) ficar verdadeiro.
+     *
+     * @return <code>false</code> se o prazo acabou antes.
+     */
+    protected boolean awaitWritable (Connection con, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return downLayer.awaitWritable(timeout, unit);
+    }
+
 
     /**
      * Repassa um byte para a conexao especificada.
@@ -0,0 +1,113 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.InterlayerData;
+
+/**
+ * Versoes bit a bit das operacoes de InterlayerData, do jeito que eram
+ * implementadas antes das versoes por palavra. Servem de referencia para os
+ * testes e de base de comparacao para os benchmarks.
+ *
+ * @author Thiago
+ */
+public class BitByBit {
+
+    private BitByBit() {
+    }
+
+    public static void putInfo (InterlayerData dest, int start, int len, int infoToPut) {
+        for (int i = start+len-1; i >= start; --i) {
+            if ((infoToPut & 0x01) != 0)
+                dest.setBit(i);
+            else
+                dest.clearBit(i);
+
+            infoToPut = infoToPut >>> 1;
+        }
+    }
+
+    public static int takeInfo (InterlayerData src, int start, int len) {
+        int result = 0;
+
+        for (int i = 0; i < len; ++i) {
+            result <<= 1;
+            if (src.getBit(start+i) == true)
+                result |= 0x01;
+        }
+
+        return result;
+    }
+
+    public static void copyBits (
+            InterlayerData dest,
+            InterlayerData src,
+            int offset,
+            int len,
+            int start) {
+
+        for (int i = 0; i < len; ++i) {
+            if (src.getBit(i+offset) == true) {
+                dest.setBit(i+start);
+            } else {
+                dest.clearBit(i+start);
+            }
+        }
+    }
+
+    /**
+     * op: 0 para E, 1 para OU, 2 para OU exclusivo. Os bits de src sao lidos
+     * antes de qualquer escrita, entao regioes sobrepostas funcionam.
+     */
+    public static void combine (int op, InterlayerData dest, int start,
+            InterlayerData src, int srcStart, int len) {
+        boolean bits[] = new boolean[len];
+        for (int i = 0; i < len; ++i) {
+            bits[i] = src.getBit(srcStart+i);
+        }
+        for (int i = 0; i < len; ++i) {
+            boolean a = dest.getBit(start+i);
+            boolean r = op == 0 ? a & bits[i] : op == 1 ? a | bits[i] : a ^ bits[i];
+            if (r)
+                dest.setBit(start+i);
+            else
+                dest.clearBit(start+i);
+        }
+    }
+
+    public static void not (InterlayerData dest, int start, int len) {
+        for (int i = start; i < start+len; ++i) {
+            dest.flipBit(i);
+        }
+    }
+
+    public static int bitCount (InterlayerData src, int start, int len) {
+        int count = 0;
+        for (int i = start; i < start+len; ++i) {
+            if (src.getBit(i))
+                ++count;
+        }
+        return count;
+    }
+
+    public static int nextSetBit (InterlayerData src, int from) {
+        for (int i = from; i < src.length; ++i) {
+            if (src.getBit(i))
+                return i;
+        }
+        return -1;
+    }
+
+    public static boolean rangeEquals (InterlayerData a, int start,
+            InterlayerData b, int bStart, int len) {
+        for (int i = 0; i < len; ++i) {
+            if (a.getBit(start+i) != b.getBit(bStart+i))
+                return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.BitReader;
+import br.ufpb.di.redes.layers.all.InterlayerData;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class BitReaderTest extends TestCase {
+
+    public void testReadSequence () {
+        InterlayerData data = new InterlayerData(80);
+        data.putInfo(0, 3, 5);
+        data.putInfo(3, 30, 0x2AAAAAAA);
+        data.putInfo(33, 1, 1);
+        data.putInfo(34, 32, 0xCAFEBABE);
+
+        BitReader reader = new BitReader(data);
+        assertEquals(5, reader.read(3));
+        assertEquals(0x2AAAAAAA, reader.read(30));
+        assertTrue(reader.readBit());
+        assertEquals(0xCAFEBABE, reader.read(32));
+        assertEquals(66, reader.position());
+        assertEquals(14, reader.remaining());
+        assertEquals(0, reader.read(14));
+        assertEquals(0, reader.remaining());
+    }
+
+    public void testSkipAndRest () {
+        InterlayerData data = new InterlayerData(40);
+        data.putInfo(8, 16, 0xBEEF);
+        data.putInfo(24, 16, 0x1234);
+
+        BitReader reader = new BitReader(data).skip(8);
+        assertEquals(0xBEEF, reader.read(16));
+
+        InterlayerData rest = reader.rest();
+        assertEquals(16, rest.length);
+        assertEquals(0x1234, rest.takeInfo(0, 16));
+        assertEquals(24, reader.position());
+    }
+
+    public void testSliceOffset () {
+        InterlayerData data = new InterlayerData(64);
+        data.putInfo(29, 8, 0xA5);
+
+        BitReader reader = new BitReader(data.slice(29, 8));
+        assertEquals(0xA, reader.read(4));
+        assertEquals(0x5, reader.read(4));
+    }
+
+    public void testReadPastEnd () {
+        BitReader reader = new BitReader(new InterlayerData(10));
+        reader.read(8);
+        try {
+            reader.read(3);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            assertEquals(8, reader.position());
+        }
+    }
+
+    public void testReset () {
+        InterlayerData first = new InterlayerData(8);
+        InterlayerData second = new InterlayerData(8);
+        first.putInfo(0, 8, 0x11);
+        second.putInfo(0, 8, 0x22);
+
+        BitReader reader = new BitReader(first);
+        assertEquals(0x11, reader.read(8));
+        assertEquals(0x22, reader.reset(second).read(8));
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.BitReader;
+import br.ufpb.di.redes.layers.all.BitWriter;
+import br.ufpb.di.redes.layers.all.InterlayerData;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class BitWriterTest extends TestCase {
+
+    public void testWriteSequence () {
+        InterlayerData data = new InterlayerData(80);
+        new BitWriter(data)
+                .write(3, 5)
+                .write(30, 0x2AAAAAAA)
+                .writeBit(true)
+                .write(32, 0xCAFEBABE);
+
+        assertEquals(5, data.takeInfo(0, 3));
+        assertEquals(0x2AAAAAAA, data.takeInfo(3, 30));
+        assertEquals(1, data.takeInfo(33, 1));
+        assertEquals(0xCAFEBABE, data.takeInfo(34, 32));
+    }
+
+    public void testSkipKeepsBits () {
+        InterlayerData data = new InterlayerData(16);
+        data.putInfo(4, 4, 0xF);
+
+        new BitWriter(data).write(4, 0x1).skip(4).write(8, 0x23);
+        assertEquals(0x1F23, data.takeInfo(0, 16));
+    }
+
+    public void testRoundTrip () {
+        InterlayerData data = new InterlayerData(8, 45, 8);
+        BitWriter writer = new BitWriter(data);
+        for (int len = 1; len <= 9; ++len) {
+            writer.write(len, len);
+        }
+        assertEquals(0, writer.remaining());
+
+        BitReader reader = new BitReader(data);
+        for (int len = 1; len <= 9; ++len) {
+            assertEquals(len & ((1 << len) - 1), reader.read(len));
+        }
+        assertEquals(0, data.data[0] >>> 24);
+    }
+
+    public void testWritePastEnd () {
+        BitWriter writer = new BitWriter(new InterlayerData(10));
+        try {
+            writer.write(11, 0);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            assertEquals(0, writer.position());
+        }
+    }
+
+    public void testReadOnly () {
+        InterlayerData data = new InterlayerData(16);
+        try {
+            new BitWriter(data.slice(0, 8));
+            fail();
+        } catch (UnsupportedOperationException ex) {
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.HeaderLayout;
+import br.ufpb.di.redes.layers.all.InterlayerData;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class HeaderLayoutTest extends TestCase {
+
+    private static final int WIDTHS[] = {2, 3, 3, 2, 1, 1, 4, 17, 32, 7, 30};
+
+    private static HeaderLayout layout () {
+        HeaderLayout layout = new HeaderLayout();
+        for (int i = 0; i < WIDTHS.length; ++i) {
+            layout.add("f" + i, WIDTHS[i]);
+        }
+        return layout;
+    }
+
+    public void testPositions () {
+        HeaderLayout layout = layout();
+        assertEquals(WIDTHS.length, layout.size());
+
+        int start = 0;
+        for (int i = 0; i < WIDTHS.length; ++i) {
+            HeaderLayout.Field field = layout.field(i);
+            assertEquals(start, field.getStart());
+            assertEquals(WIDTHS[i], field.getWidth());
+            assertSame(field, layout.field("f" + i));
+            start += WIDTHS[i];
+        }
+        assertEquals(start, layout.length());
+        assertNull(layout.field("nada"));
+        assertEquals("f0:2 f1:3 f2:3", layout.toString().substring(0, 14));
+    }
+
+    public void testMatchesPutInfo () {
+        HeaderLayout layout = layout();
+        Random random = new Random(7);
+
+        for (int headroom = 0; headroom < 70; headroom += 3) {
+            InterlayerData data = new InterlayerData(headroom, layout.length() + 5, 0);
+            InterlayerData expected = new InterlayerData(layout.length() + 5);
+            int values[] = new int[layout.size()];
+
+            for (int i = 0; i < layout.size(); ++i) {
+                HeaderLayout.Field field = layout.field(i);
+                values[i] = random.nextInt();
+                field.set(data, values[i]);
+                expected.putInfo(field.getStart(), field.getWidth(), values[i]);
+            }
+
+            assertEquals(expected, data);
+            int decoded[] = layout.decode(data, new int[layout.size()]);
+            for (int i = 0; i < layout.size(); ++i) {
+                HeaderLayout.Field field = layout.field(i);
+                assertEquals(expected.takeInfo(field.getStart(), field.getWidth()), decoded[i]);
+                assertEquals(decoded[i], field.get(data));
+            }
+        }
+    }
+
+    public void testEncodeKeepsNeighbours () {
+        HeaderLayout layout = new HeaderLayout();
+        layout.add("a", 4);
+        HeaderLayout.Field b = layout.add("b", 4);
+
+        InterlayerData data = new InterlayerData(16);
+        data.putInfo(0, 16, 0xFFFF);
+        b.set(data, 0);
+        assertEquals(0xF0FF, data.takeInfo(0, 16));
+
+        layout.encode(data, new int[] {0x1, 0x2});
+        assertEquals(0x12FF, data.takeInfo(0, 16));
+        assertEquals(2, b.get(data));
+    }
+
+    public void testBounds () {
+        HeaderLayout layout = layout();
+        InterlayerData data = new InterlayerData(layout.length() - 1);
+        try {
+            layout.field(layout.size() - 1).get(data);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException ex) {
+        }
+        try {
+            layout.decode(data, new int[layout.size()]);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException ex) {
+        }
+        try {
+            layout.field(0).set(data.slice(0, 8), 1);
+            fail();
+        } catch (UnsupportedOperationException ex) {
+        }
+    }
+
+}
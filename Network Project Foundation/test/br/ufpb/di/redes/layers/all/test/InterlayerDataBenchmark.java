@@ -0,0 +1,174 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.InterlayerData;
+import junit.framework.TestCase;
+
+/**
+ * Compara o tempo das operacoes de InterlayerData com as versoes bit a bit de
+ * BitByBit. Nao verifica nada, so imprime os tempos.
+ *
+ * @author Thiago
+ */
+public class InterlayerDataBenchmark extends TestCase {
+
+    public static int REPEAT = 2000000;
+
+    private static final int FIELD_SIZES[] = {4, 8, 16};
+
+    /**Evita que o JIT descarte os resultados das leituras*/
+    private static volatile int sink;
+
+    private static void report(String what, long bitByBit, long wordLevel) {
+        System.out.println(String.format("%-24s bit a bit %6d ms, " +
+                "por palavra %6d ms, %.1fx", what, bitByBit / 1000000,
+                wordLevel / 1000000, (double) bitByBit / Math.max(wordLevel, 1)));
+    }
+
+    public void testPutInfo () {
+        InterlayerData data = new InterlayerData(1024);
+
+        for (int len : FIELD_SIZES) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < REPEAT; ++i) {
+                BitByBit.putInfo(data, (i * 7) % (1024 - len), len, i);
+            }
+            long bitByBit = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            for (int i = 0; i < REPEAT; ++i) {
+                data.putInfo((i * 7) % (1024 - len), len, i);
+            }
+            long wordLevel = System.nanoTime() - begin;
+
+            report("putInfo, " + len + " bits:", bitByBit, wordLevel);
+        }
+    }
+
+    public void testTakeInfo () {
+        InterlayerData data = new InterlayerData(1024);
+        for (int i = 0; i < data.data.length; ++i) {
+            data.data[i] = i * 0x9E3779B9;
+        }
+
+        for (int len : FIELD_SIZES) {
+            int acc = 0;
+            long begin = System.nanoTime();
+            for (int i = 0; i < REPEAT; ++i) {
+                acc += BitByBit.takeInfo(data, (i * 7) % (1024 - len), len);
+            }
+            long bitByBit = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            for (int i = 0; i < REPEAT; ++i) {
+                acc += data.takeInfo((i * 7) % (1024 - len), len);
+            }
+            long wordLevel = System.nanoTime() - begin;
+            sink = acc;
+
+            report("takeInfo, " + len + " bits:", bitByBit, wordLevel);
+        }
+    }
+
+    public void testCopyBits () {
+        InterlayerData src = new InterlayerData(1024);
+        InterlayerData dest = new InterlayerData(1024 + 64);
+        int copies = REPEAT / 100;
+
+        //alinhado (cabecalho de 32 bits) e desalinhado (cabecalho de rede)
+        int starts[] = {32, 8};
+
+        for (int start : starts) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < copies; ++i) {
+                BitByBit.copyBits(dest, src, 0, src.length, start);
+            }
+            long bitByBit = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            for (int i = 0; i < copies; ++i) {
+                InterlayerData.copyBits(dest, src, 0, src.length, start);
+            }
+            long wordLevel = System.nanoTime() - begin;
+
+            report("copyBits, start " + start + ":", bitByBit, wordLevel);
+        }
+    }
+
+    public void testXor () {
+        InterlayerData src = new InterlayerData(1024);
+        InterlayerData dest = new InterlayerData(1024 + 64);
+        int ops = REPEAT / 100;
+
+        int starts[] = {32, 8};
+
+        for (int start : starts) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < ops; ++i) {
+                BitByBit.combine(2, dest, start, src, 0, src.length);
+            }
+            long bitByBit = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            for (int i = 0; i < ops; ++i) {
+                dest.xor(start, src, 0, src.length);
+            }
+            long wordLevel = System.nanoTime() - begin;
+
+            report("xor, start " + start + ":", bitByBit, wordLevel);
+        }
+    }
+
+    public void testBitCountAndSearch () {
+        InterlayerData data = new InterlayerData(1024);
+        for (int i = 0; i < data.data.length; ++i) {
+            data.data[i] = i * 0x9E3779B9;
+        }
+        InterlayerData sparse = new InterlayerData(1024);
+        sparse.setBit(1000);
+        InterlayerData copy = new InterlayerData(1024);
+        InterlayerData.copyBits(copy, data, 0, data.length, 0);
+        int ops = REPEAT / 100;
+
+        int acc = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < ops; ++i) {
+            acc += BitByBit.bitCount(data, 0, data.length);
+        }
+        long bitByBit = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        for (int i = 0; i < ops; ++i) {
+            acc += data.bitCount();
+        }
+        report("bitCount:", bitByBit, System.nanoTime() - begin);
+
+        begin = System.nanoTime();
+        for (int i = 0; i < ops; ++i) {
+            acc += BitByBit.nextSetBit(sparse, i & 7);
+        }
+        bitByBit = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        for (int i = 0; i < ops; ++i) {
+            acc += sparse.nextSetBit(i & 7);
+        }
+        report("nextSetBit:", bitByBit, System.nanoTime() - begin);
+
+        begin = System.nanoTime();
+        for (int i = 0; i < ops; ++i) {
+            acc += BitByBit.rangeEquals(data, 0, copy, 0, data.length) ? 1 : 0;
+        }
+        bitByBit = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        for (int i = 0; i < ops; ++i) {
+            acc += data.rangeEquals(0, copy, 0, data.length) ? 1 : 0;
+        }
+        report("rangeEquals:", bitByBit, System.nanoTime() - begin);
+
+        sink = acc;
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.BufferPolicy;
+import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.all.InterlayerDataPool;
+import br.ufpb.di.redes.layers.all.LayerBuffer;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class InterlayerDataPoolTest extends TestCase {
+
+    public void testReuse () {
+        InterlayerDataPool pool = new InterlayerDataPool(4, 8, 16);
+
+        InterlayerData first = pool.acquire(16);
+        assertEquals(16, first.length);
+        assertEquals(0, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(1, pool.getLeaks());
+
+        first.putInfo(0, 16, 0xFFFF);
+        InterlayerDataPool.recycle(first);
+        assertEquals(0, pool.getLeaks());
+
+        InterlayerData second = pool.acquire(16);
+        assertSame(first, second);
+        assertEquals(0, second.takeInfo(0, 16));
+        assertEquals(1, pool.getHits());
+
+        assertNotSame(second, pool.acquire(8));
+    }
+
+    public void testInvalidReleases () {
+        InterlayerDataPool pool = new InterlayerDataPool(4, 16);
+        InterlayerDataPool other = new InterlayerDataPool(4, 16);
+
+        InterlayerData frame = pool.acquire(16);
+        pool.release(frame);
+        pool.release(frame);
+        other.release(frame);
+        assertEquals(2, pool.getInvalidReleases() + other.getInvalidReleases());
+        assertEquals(1, pool.getReleases());
+
+        assertSame(frame, pool.acquire(16));
+        assertNotSame(frame, pool.acquire(16));
+    }
+
+    public void testUnpooledSizes () {
+        InterlayerDataPool pool = new InterlayerDataPool(4, 16);
+
+        InterlayerData frame = pool.acquire(12);
+        assertEquals(12, frame.length);
+        assertEquals(0, pool.getLeaks());
+
+        InterlayerDataPool.recycle(frame);
+        InterlayerDataPool.recycle(new InterlayerData(16));
+        InterlayerDataPool.recycle(null);
+        assertEquals(0, pool.getReleases());
+        assertEquals(0, pool.getInvalidReleases());
+    }
+
+    public void testDroppedFramesRecycled () throws InterruptedException {
+        InterlayerDataPool pool = new InterlayerDataPool(4, 16);
+
+        LayerBuffer<InterlayerData> oldest = new LayerBuffer<InterlayerData>(
+                BufferPolicy.dropOldest(1), true, InterlayerDataPool.recycler());
+        LayerBuffer<InterlayerData> newest = new LayerBuffer<InterlayerData>(
+                BufferPolicy.dropNewest(1), true, InterlayerDataPool.recycler());
+        for (int i = 0; i < 3; ++i) {
+            oldest.put(pool.acquire(16));
+            newest.put(pool.acquire(16));
+        }
+        assertEquals(4, pool.getReleases());
+        assertEquals(2, pool.getLeaks());
+
+        for (InterlayerData frame : oldest.clear())
+            InterlayerDataPool.recycle(frame);
+        for (InterlayerData frame : newest.clear())
+            InterlayerDataPool.recycle(frame);
+        assertEquals(0, pool.getLeaks());
+    }
+
+    public void testCapacity () {
+        InterlayerDataPool pool = new InterlayerDataPool(2, 16);
+
+        InterlayerData frames[] = new InterlayerData[3];
+        for (int i = 0; i < frames.length; ++i) {
+            frames[i] = pool.acquire(16);
+        }
+        for (InterlayerData frame : frames) {
+            InterlayerDataPool.recycle(frame);
+        }
+
+        assertEquals(3, pool.getReleases());
+        assertEquals(1, pool.getDiscarded());
+        assertEquals(0, pool.getLeaks());
+
+        pool.acquire(16);
+        pool.acquire(16);
+        pool.acquire(16);
+        assertEquals(2, pool.getHits());
+        assertEquals(4, pool.getMisses());
+    }
+
+}
@@ -6,6 +6,10 @@
 package br.ufpb.di.redes.layers.all.test;
 
 import br.ufpb.di.redes.layers.all.InterlayerData;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Random;
 import junit.framework.TestCase;
 
@@ -62,4 +66,454 @@ public class InterlayerDataTest extends TestCase {
 
     }
 
+    public void testPutInfo () {
+        Random rand = new Random();
+
+        for (int i = 0; i < REPEAT; ++i) {
+            int length = 1 + rand.nextInt(200);
+            int len = rand.nextInt(Math.min(length, 32) + 1);
+            int start = rand.nextInt(length - len + 1);
+            int info = rand.nextInt();
+
+            InterlayerData expected = new InterlayerData(length);
+            InterlayerData actual = new InterlayerData(length);
+            for (int j = 0; j < expected.data.length; ++j) {
+                expected.data[j] = actual.data[j] = rand.nextInt();
+            }
+
+            BitByBit.putInfo(expected, start, len, info);
+            actual.putInfo(start, len, info);
+
+            assertTrue(Arrays.equals(expected.data, actual.data));
+        }
+    }
+
+    public void testTakeInfo () {
+        Random rand = new Random();
+
+        for (int i = 0; i < REPEAT; ++i) {
+            int length = 1 + rand.nextInt(200);
+            int len = rand.nextInt(Math.min(length, 32) + 1);
+            int start = rand.nextInt(length - len + 1);
+
+            InterlayerData sample = new InterlayerData(length);
+            for (int j = 0; j < sample.data.length; ++j) {
+                sample.data[j] = rand.nextInt();
+            }
+
+            assertEquals(BitByBit.takeInfo(sample, start, len),
+                    sample.takeInfo(start, len));
+        }
+    }
+
+    private static InterlayerData randomData(Random rand, int length) {
+        InterlayerData result = new InterlayerData(length);
+        for (int j = 0; j < result.data.length; ++j) {
+            result.data[j] = rand.nextInt();
+        }
+        return result;
+    }
+
+    public void testCopyBits () {
+        Random rand = new Random();
+
+        for (int i = 0; i < REPEAT/10; ++i) {
+            InterlayerData src = randomData(rand, 1 + rand.nextInt(300));
+            InterlayerData expected = randomData(rand, 1 + rand.nextInt(300));
+            InterlayerData actual = new InterlayerData(expected.length);
+            System.arraycopy(expected.data, 0, actual.data, 0, expected.data.length);
+
+            int len = rand.nextInt(Math.min(src.length, expected.length) + 1);
+            int offset = rand.nextInt(src.length - len + 1);
+            int start = rand.nextInt(expected.length - len + 1);
+
+            BitByBit.copyBits(expected, src, offset, len, start);
+            InterlayerData.copyBits(actual, src, offset, len, start);
+
+            assertTrue(Arrays.equals(expected.data, actual.data));
+        }
+    }
+
+    public void testCopyBitsOverlapping () {
+        Random rand = new Random();
+
+        for (int i = 0; i < REPEAT/10; ++i) {
+            InterlayerData actual = randomData(rand, 1 + rand.nextInt(300));
+            int len = rand.nextInt(actual.length + 1);
+            int offset = rand.nextInt(actual.length - len + 1);
+            int start = rand.nextInt(actual.length - len + 1);
+
+            InterlayerData copy = new InterlayerData(len);
+            BitByBit.copyBits(copy, actual, offset, len, 0);
+            InterlayerData expected = new InterlayerData(actual.length);
+            System.arraycopy(actual.data, 0, expected.data, 0, actual.data.length);
+            BitByBit.copyBits(expected, copy, 0, len, start);
+
+            InterlayerData.copyBits(actual, actual, offset, len, start);
+
+            assertTrue(Arrays.equals(expected.data, actual.data));
+        }
+    }
+
+    public void testSlice () {
+        Random rand = new Random();
+
+        for (int i = 0; i < REPEAT/10; ++i) {
+            InterlayerData whole = randomData(rand, 1 + rand.nextInt(300));
+            int len = rand.nextInt(whole.length + 1);
+            int from = rand.nextInt(whole.length - len + 1);
+
+            InterlayerData slice = whole.slice(from, len);
+            InterlayerData copy = new InterlayerData(len);
+            BitByBit.copyBits(copy, whole, from, len, 0);
+
+            assertSame(whole.data, slice.data);
+            assertEquals(copy, slice);
+            assertEquals(slice, copy);
+            assertEquals(copy.hashCode(), slice.hashCode());
+            assertEquals(copy.toString(), slice.toString());
+
+            if (len > 0) {
+                int inner = rand.nextInt(len);
+                int innerLen = Math.min(len - inner, rand.nextInt(33));
+                assertEquals(copy.takeInfo(inner, innerLen),
+                        slice.slice(inner, innerLen).takeInfo(0, innerLen));
+            }
+
+            InterlayerData dest = randomData(rand, len + 40);
+            InterlayerData expected = new InterlayerData(dest.length);
+            System.arraycopy(dest.data, 0, expected.data, 0, dest.data.length);
+            int start = rand.nextInt(41);
+            BitByBit.copyBits(expected, copy, 0, len, start);
+            InterlayerData.copyBits(dest, slice, 0, len, start);
+            assertEquals(expected, dest);
+        }
+    }
+
+    public void testSliceIsReadOnly () {
+        InterlayerData whole = new InterlayerData(16);
+        whole.putInfo(0, 16, 0xABCD);
+        InterlayerData slice = whole.slice(4, 8);
+
+        assertTrue(slice.isReadOnly());
+        assertEquals(0xBC, slice.takeInfo(0, 8));
+
+        try {
+            slice.putInfo(0, 8, 0);
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            InterlayerData.copyBits(slice, whole, 0, 8, 0);
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+
+        whole.putInfo(4, 8, 0x12);
+        assertEquals(0x12, slice.takeInfo(0, 8));
+        assertEquals(0xA12D, whole.takeInfo(0, 16));
+    }
+
+    public void testEqualsDoesNotChangeData () {
+        InterlayerData data1 = new InterlayerData(20);
+        InterlayerData data2 = new InterlayerData(20);
+        data1.data[0] = data2.data[0] = 0x12345678;
+        data2.data[0] |= 0x00000FFF;
+
+        assertEquals(data1, data2);
+        assertEquals(data1.hashCode(), data2.hashCode());
+        assertEquals(0x12345678, data1.data[0]);
+        assertEquals(0x12345FFF, data2.data[0]);
+    }
+
+    public void testPushHeader () {
+        InterlayerData payload = new InterlayerData(12, 20, 5);
+        assertEquals(20, payload.length);
+        assertEquals(12, payload.headroom());
+        assertEquals(64 - 12 - 20, payload.tailroom());
+
+        payload.putInfo(0, 20, 0xABCDE);
+
+        InterlayerData packet = payload.pushHeader(8);
+        assertSame(payload.data, packet.data);
+        assertEquals(28, packet.length);
+        assertEquals(4, packet.headroom());
+        packet.putInfo(0, 8, 0x5A);
+
+        assertEquals(0x5A, packet.takeInfo(0, 8));
+        assertEquals(0xABCDE, packet.takeInfo(8, 20));
+        assertEquals(0xABCDE, payload.takeInfo(0, 20));
+
+        InterlayerData frame = packet.pushHeader(4).putTrailer(3);
+        assertEquals(35, frame.length);
+        assertEquals(0, frame.headroom());
+
+        try {
+            frame.pushHeader(1);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException e) {
+        }
+
+        assertEquals(0, payload.slice(0, 8).headroom());
+        assertEquals(0, new InterlayerData(10).headroom());
+    }
+
+    public void testBytes () {
+        Random rand = new Random();
+
+        for (int i = 0; i < REPEAT/10; ++i) {
+            byte bytes[] = new byte[rand.nextInt(40)];
+            rand.nextBytes(bytes);
+
+            InterlayerData data = InterlayerData.fromBytes(bytes);
+            assertEquals(bytes.length * 8, data.length);
+            for (int j = 0; j < bytes.length; ++j) {
+                assertEquals(bytes[j] & 0xff, data.takeInfo(j * 8, 8));
+            }
+            assertTrue(Arrays.equals(bytes, data.toBytes()));
+
+            //escrita e leitura fora do alinhamento da palavra
+            int start = rand.nextInt(40);
+            InterlayerData shifted = new InterlayerData(3, start + bytes.length * 8, 5);
+            shifted.putBytes(start, bytes, 0, bytes.length);
+            byte back[] = new byte[bytes.length];
+            shifted.takeBytes(start, back, 0, bytes.length);
+            assertTrue(Arrays.equals(bytes, back));
+        }
+
+        InterlayerData odd = new InterlayerData(12);
+        odd.putInfo(0, 12, 0xABC);
+        assertTrue(Arrays.equals(new byte[] {(byte) 0xAB, (byte) 0xC0}, odd.toBytes()));
+    }
+
+    public void testBitBytes () {
+        byte bits[] = {9, 1, 0, 1, 1, 0, 0, 0, 1, 1, 9};
+        InterlayerData data = InterlayerData.fromBitBytes(bits, 1, 9);
+        assertEquals(9, data.length);
+        assertEquals(Integer.parseInt("101100011", 2), data.takeInfo(0, 9));
+
+        byte back[] = new byte[11];
+        data.takeBitBytes(0, back, 1, 9);
+        for (int i = 1; i < 10; ++i) {
+            assertEquals(bits[i], back[i]);
+        }
+
+        Random rand = new Random();
+        InterlayerData big = randomData(rand, 100);
+        assertEquals(big, InterlayerData.fromBitBytes(big.toBitBytes(), 0, 100));
+    }
+
+    public void testByteBuffer () {
+        Random rand = new Random();
+
+        for (int length = 0; length < 100; length += 7) {
+            InterlayerData data = randomData(rand, length);
+            for (int k = 0; k < 2; ++k) {
+                ByteBuffer buf = ByteBuffer.allocate(20);
+                buf.order(k == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                buf.put((byte) 0x77);
+                data.writeTo(buf);
+                assertEquals(1 + (length + 7) / 8, buf.position());
+
+                byte expected[] = data.toBytes();
+                for (int i = 0; i < expected.length; ++i) {
+                    assertEquals(expected[i], buf.get(i + 1));
+                }
+
+                buf.flip();
+                buf.get();
+                InterlayerData back = new InterlayerData(5, length, 0);
+                back.readFrom(buf);
+                assertEquals(data, back);
+                assertFalse(buf.hasRemaining());
+            }
+        }
+
+        try {
+            new InterlayerData(17).readFrom(ByteBuffer.allocate(2));
+            fail();
+        } catch (BufferUnderflowException e) {
+        }
+    }
+
+    public void testBitwise () {
+        Random rand = new Random();
+
+        for (int i = 0; i < REPEAT/10; ++i) {
+            InterlayerData src = randomData(rand, 1 + rand.nextInt(200));
+            InterlayerData dest = randomData(rand, 1 + rand.nextInt(200));
+            int len = rand.nextInt(Math.min(src.length, dest.length) + 1);
+            int from = rand.nextInt(src.length - len + 1);
+            int to = rand.nextInt(dest.length - len + 1);
+            int op = rand.nextInt(3);
+
+            InterlayerData expected = new InterlayerData(dest.length);
+            InterlayerData.copyBits(expected, dest, 0, dest.length, 0);
+            BitByBit.combine(op, expected, to, src, from, len);
+
+            if (op == 0)
+                dest.and(to, src, from, len);
+            else if (op == 1)
+                dest.or(to, src, from, len);
+            else
+                dest.xor(to, src, from, len);
+            assertEquals(expected, dest);
+
+            //origem e destino no mesmo objeto, com sobreposicao
+            int other = rand.nextInt(dest.length - len + 1);
+            BitByBit.combine(op, expected, other, expected, to, len);
+            if (op == 0)
+                dest.and(other, dest, to, len);
+            else if (op == 1)
+                dest.or(other, dest, to, len);
+            else
+                dest.xor(other, dest, to, len);
+            assertEquals(expected, dest);
+
+            BitByBit.not(expected, to, len);
+            dest.not(to, len);
+            assertEquals(expected, dest);
+        }
+
+        try {
+            new InterlayerData(16).slice(0, 8).xor(0, new InterlayerData(8), 0, 8);
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    public void testBitCountAndNextSetBit () {
+        Random rand = new Random();
+
+        for (int i = 0; i < REPEAT/10; ++i) {
+            InterlayerData data = randomData(rand, 1 + rand.nextInt(200));
+            //deixa trechos zerados para nextSetBit() ter o que pular
+            data.and(0, new InterlayerData(data.length), 0, rand.nextInt(data.length));
+            InterlayerData view = data.slice(rand.nextInt(data.length), 0);
+            int start = rand.nextInt(data.length);
+            int len = rand.nextInt(data.length - start + 1);
+
+            assertEquals(BitByBit.bitCount(data, start, len), data.bitCount(start, len));
+            assertEquals(BitByBit.bitCount(data, 0, data.length), data.bitCount());
+            assertEquals(BitByBit.nextSetBit(data, start), data.nextSetBit(start));
+            assertEquals(-1, view.nextSetBit(0));
+
+            InterlayerData tail = data.slice(start, data.length - start);
+            int expected = BitByBit.nextSetBit(data, start);
+            assertEquals(expected < 0 ? -1 : expected - start, tail.nextSetBit(0));
+        }
+
+        assertEquals(-1, new InterlayerData(100).nextSetBit(0));
+        assertEquals(-1, new InterlayerData(100).nextSetBit(100));
+    }
+
+    public void testRangeEquals () {
+        Random rand = new Random();
+
+        for (int i = 0; i < REPEAT/10; ++i) {
+            InterlayerData a = randomData(rand, 1 + rand.nextInt(200));
+            int len = rand.nextInt(a.length + 1);
+            int from = rand.nextInt(a.length - len + 1);
+            int to = rand.nextInt(40);
+
+            InterlayerData b = randomData(rand, to + len);
+            InterlayerData.copyBits(b, a, from, len, to);
+            assertTrue(a.rangeEquals(from, b, to, len));
+
+            if (len > 0) {
+                b.flipBit(to + rand.nextInt(len));
+                assertFalse(a.rangeEquals(from, b, to, len));
+                assertEquals(BitByBit.rangeEquals(a, 0, b, 0, Math.min(a.length, b.length)),
+                        a.rangeEquals(0, b, 0, Math.min(a.length, b.length)));
+            }
+        }
+    }
+
+    public void testFreeze () {
+        Random rand = new Random();
+
+        for (int i = 0; i < REPEAT/10; ++i) {
+            InterlayerData data = randomData(rand, 1 + rand.nextInt(200));
+            int from = rand.nextInt(data.length);
+            InterlayerData view = data.slice(from, data.length - from);
+
+            InterlayerData frozen = view.freeze();
+            assertTrue(frozen.isFrozen());
+            assertTrue(frozen.isReadOnly());
+            assertEquals(0, frozen.offset);
+            assertSame(frozen, frozen.freeze());
+            assertEquals(view, frozen);
+            assertEquals(frozen, view);
+            assertEquals(view.hashCode(), frozen.hashCode());
+            assertEquals(frozen, view.freeze());
+
+            //a copia nao acompanha mudancas no original
+            data.flipBit(from);
+            assertFalse(frozen.equals(view));
+            assertFalse(frozen.equals(view.freeze()));
+        }
+
+        InterlayerData frozen = new InterlayerData(8).freeze();
+        try {
+            frozen.setBit(0);
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            frozen.not(0, 8);
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        assertFalse(new InterlayerData(8).isFrozen());
+    }
+
+    public void testFrozenAsKey () {
+        java.util.Map<InterlayerData, Integer> map = new java.util.HashMap<InterlayerData, Integer>();
+        InterlayerData data = new InterlayerData(5, 20, 0);
+        data.putInfo(0, 20, 0x12345);
+        map.put(data.freeze(), 1);
+
+        InterlayerData same = new InterlayerData(20);
+        same.putInfo(0, 20, 0x12345);
+        assertEquals(Integer.valueOf(1), map.get(same.freeze()));
+        assertEquals(Integer.valueOf(1), map.get(same));
+
+        same.flipBit(19);
+        assertNull(map.get(same.freeze()));
+    }
+
+    public void testScatterGather () {
+        Random rand = new Random();
+
+        for (int i = 0; i < REPEAT/10; ++i) {
+            InterlayerData data = randomData(rand, 1 + rand.nextInt(300));
+            int chunk = 1 + rand.nextInt(40);
+
+            java.util.List<InterlayerData> pieces = data.scatter(chunk);
+            assertEquals((data.length + chunk - 1) / chunk, pieces.size());
+            for (int j = 0; j < pieces.size(); ++j) {
+                InterlayerData piece = pieces.get(j);
+                assertTrue(piece.isReadOnly());
+                assertSame(data.data, piece.data);
+                assertTrue(data.rangeEquals(j * chunk, piece, 0, piece.length));
+            }
+            assertEquals(data, InterlayerData.gather(pieces));
+        }
+
+        //so o trecho do meio de cada quadro, como no enlace
+        java.util.List<InterlayerData> frames = new java.util.ArrayList<InterlayerData>();
+        for (int i = 0; i < 5; ++i) {
+            InterlayerData frame = new InterlayerData(16);
+            frame.putInfo(0, 16, 0xC00F | (i << 6));
+            frames.add(frame);
+        }
+        InterlayerData message = InterlayerData.gather(frames, 2, 8);
+        assertEquals(40, message.length);
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(i, message.takeInfo(i * 8, 8));
+        }
+
+        assertEquals(0, InterlayerData.gather(new java.util.ArrayList<InterlayerData>()).length);
+    }
+
 }
@@ -0,0 +1,77 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.LaneQueue;
+import br.ufpb.di.redes.layers.all.Priority;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class LaneQueueTest extends TestCase {
+
+    public void testControlFirst() throws InterruptedException {
+        LaneQueue<String> queue = new LaneQueue<String>(4, 4, 8, false);
+        queue.put("d1");
+        queue.put("d2");
+        queue.put("c1", Priority.CONTROL);
+        queue.put("c2", Priority.CONTROL);
+        assertEquals("c1", queue.peek());
+        assertEquals("c1", queue.take());
+        assertEquals("c2", queue.take());
+        assertEquals("d1", queue.take());
+        assertEquals("d2", queue.poll());
+        assertNull(queue.poll());
+    }
+
+    public void testStarvationLimit() {
+        LaneQueue<String> queue = new LaneQueue<String>(8, 8, 2, false);
+        queue.offer("d1");
+        queue.offer("d2");
+        for (int i = 1; i <= 5; ++i) {
+            queue.offer("c" + i, Priority.CONTROL);
+        }
+        List<String> order = new ArrayList<String>();
+        queue.drainTo(order);
+        assertEquals(Arrays.asList("c1", "c2", "d1", "c3", "c4", "d2", "c5"),
+                order);
+    }
+
+    public void testLaneCapacity() throws InterruptedException {
+        LaneQueue<String> queue = new LaneQueue<String>(1, 2, 1, false);
+        assertTrue(queue.offer("d1"));
+        assertTrue(queue.offer("d2"));
+        assertFalse(queue.offer("d3"));
+        assertEquals(0, queue.remainingCapacity());
+
+        /* A faixa de dados cheia nao impede a de controle. */
+        assertTrue(queue.offer("c1", Priority.CONTROL, 10, TimeUnit.MILLISECONDS));
+        assertFalse(queue.offer("c2", Priority.CONTROL, 10, TimeUnit.MILLISECONDS));
+        assertEquals(1, queue.size(Priority.CONTROL));
+        assertEquals(3, queue.size());
+
+        assertEquals("d1", queue.poll(Priority.DATA));
+        assertTrue(queue.offer("d3"));
+    }
+
+    public void testRemoveObjectUnsupported() {
+        LaneQueue<String> queue = new LaneQueue<String>(2, 2, 1, false);
+        queue.offer("a");
+        try {
+            queue.remove("a");
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        assertEquals(1, queue.size());
+        assertEquals("a", queue.poll());
+    }
+}
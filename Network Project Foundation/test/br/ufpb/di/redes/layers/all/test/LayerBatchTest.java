@@ -0,0 +1,96 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.physical.interfaces.Physical;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class LayerBatchTest extends TestCase {
+
+    /**Fisica que so anota o tamanho de cada lote e o que foi enviado.*/
+    private static class BatchPhysical extends Physical {
+        final List<Integer> batches = new ArrayList<Integer>();
+        final List<Integer> sent = new ArrayList<Integer>();
+        final CountDownLatch done;
+
+        BatchPhysical(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        protected void processSentBatch(List<InterlayerData> batch) {
+            batches.add(batch.size());
+            super.processSentBatch(batch);
+        }
+
+        @Override
+        protected void processSentData(InterlayerData data) {
+            sent.add(data.takeInfo(0, 8));
+            done.countDown();
+        }
+
+        @Override
+        public int minPacketSize() {
+            return 8;
+        }
+
+        @Override
+        public int maxPacketSize() {
+            return 8;
+        }
+    }
+
+    private static BatchPhysical sendBeforeStart(int count, int maxBatchSize)
+            throws InterruptedException {
+        BatchPhysical physical = new BatchPhysical(count);
+        physical.setMaxBatchSize(maxBatchSize);
+        physical.attach(null);
+        for (int i = 0; i < count; ++i) {
+            InterlayerData data = new InterlayerData(8);
+            data.putInfo(0, 8, i);
+            physical.send(data);
+        }
+        physical.start();
+        assertTrue(physical.done.await(5, TimeUnit.SECONDS));
+        return physical;
+    }
+
+    public void testOneByOne() throws InterruptedException {
+        BatchPhysical physical = sendBeforeStart(5, 1);
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(Integer.valueOf(i), physical.sent.get(i));
+            assertEquals(Integer.valueOf(1), physical.batches.get(i));
+        }
+    }
+
+    public void testBatches() throws InterruptedException {
+        BatchPhysical physical = sendBeforeStart(20, 8);
+        for (int i = 0; i < 20; ++i) {
+            assertEquals(Integer.valueOf(i), physical.sent.get(i));
+        }
+        assertEquals(Integer.valueOf(8), physical.batches.get(0));
+        assertEquals(Integer.valueOf(8), physical.batches.get(1));
+        assertEquals(Integer.valueOf(4), physical.batches.get(2));
+    }
+
+    public void testInvalidSize() {
+        try {
+            new BatchPhysical(0).setMaxBatchSize(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.BufferPolicy;
+import br.ufpb.di.redes.layers.all.DropHandler;
+import br.ufpb.di.redes.layers.all.LayerBuffer;
+import br.ufpb.di.redes.layers.all.Priority;
+import br.ufpb.di.redes.layers.all.WritabilityListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class LayerBufferTest extends TestCase {
+
+    private static LayerBuffer<Integer> full(BufferPolicy policy)
+            throws InterruptedException {
+        LayerBuffer<Integer> buffer = new LayerBuffer<Integer>(policy, false);
+        for (int i = 0; i < policy.getCapacity(); ++i) {
+            assertTrue(buffer.put(i));
+        }
+        return buffer;
+    }
+
+    public void testDropNewest() throws InterruptedException {
+        LayerBuffer<Integer> buffer = full(BufferPolicy.dropNewest(2));
+        assertFalse(buffer.put(2));
+        assertFalse(buffer.put(3));
+        assertEquals(2, buffer.getDropped());
+        assertEquals(Integer.valueOf(0), buffer.queue().poll());
+        assertEquals(Integer.valueOf(1), buffer.queue().poll());
+    }
+
+    public void testDropOldest() throws InterruptedException {
+        LayerBuffer<Integer> buffer = full(BufferPolicy.dropOldest(2));
+        assertTrue(buffer.put(2));
+        assertTrue(buffer.put(3));
+        assertEquals(2, buffer.getDropped());
+        assertEquals(Integer.valueOf(2), buffer.queue().poll());
+        assertEquals(Integer.valueOf(3), buffer.queue().poll());
+    }
+
+    public void testDropHandler() throws InterruptedException {
+        final List<Integer> dropped = new ArrayList<Integer>();
+        DropHandler<Integer> handler = new DropHandler<Integer>() {
+            public void dropped(Integer e) {
+                dropped.add(e);
+            }
+        };
+
+        LayerBuffer<Integer> oldest =
+                new LayerBuffer<Integer>(BufferPolicy.dropOldest(2), false, handler);
+        oldest.put(0);
+        oldest.put(1);
+        oldest.put(2);
+        LayerBuffer<Integer> newest =
+                new LayerBuffer<Integer>(BufferPolicy.dropNewest(1), false, handler);
+        newest.put(3);
+        newest.put(4);
+        LayerBuffer<Integer> rejecting =
+                new LayerBuffer<Integer>(BufferPolicy.reject(1), false, handler);
+        rejecting.put(5);
+        try {
+            rejecting.put(6);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        assertEquals(2, dropped.size());
+        assertEquals(Integer.valueOf(0), dropped.get(0));
+        assertEquals(Integer.valueOf(4), dropped.get(1));
+    }
+
+    public void testReject() throws InterruptedException {
+        LayerBuffer<Integer> buffer = full(BufferPolicy.reject(1));
+        try {
+            buffer.put(1);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(1, buffer.getRejected());
+        assertEquals(0, buffer.getDropped());
+    }
+
+    public void testBlockWithTimeout() throws InterruptedException {
+        LayerBuffer<Integer> buffer = full(
+                BufferPolicy.blockWithTimeout(1, 20, TimeUnit.MILLISECONDS));
+        assertFalse(buffer.put(1));
+        assertEquals(1, buffer.getDropped());
+        assertTrue(buffer.getBlockedNanos() >= TimeUnit.MILLISECONDS.toNanos(15));
+    }
+
+    public void testBlock() throws InterruptedException {
+        final LayerBuffer<Integer> buffer = full(BufferPolicy.block(1));
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(30);
+                    buffer.queue().take();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        consumer.start();
+        assertTrue(buffer.put(1));
+        consumer.join();
+        assertEquals(0, buffer.getDropped());
+        assertTrue(buffer.getBlockedNanos() > 0);
+    }
+
+    public void testControlLane() throws InterruptedException {
+        LayerBuffer<Integer> buffer = full(
+                BufferPolicy.dropOldest(2).withControlLane(1, 4));
+        assertTrue(buffer.put(100, Priority.CONTROL));
+        assertTrue(buffer.put(101, Priority.CONTROL));
+        assertEquals(1, buffer.getDropped());
+        assertEquals(Integer.valueOf(101), buffer.queue().poll());
+        assertEquals(Integer.valueOf(0), buffer.queue().poll());
+
+        LayerBuffer<Integer> plain = full(BufferPolicy.dropNewest(1));
+        assertFalse(plain.put(1, Priority.CONTROL));
+    }
+
+    public void testWatermarks() throws InterruptedException {
+        LayerBuffer<Integer> buffer =
+                new LayerBuffer<Integer>(BufferPolicy.block(10), false);
+        buffer.setWatermarks(2, 4);
+        final List<Boolean> changes = new ArrayList<Boolean>();
+        buffer.addWritabilityListener(new WritabilityListener() {
+            public void writabilityChanged(boolean writable) {
+                changes.add(writable);
+            }
+        });
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(buffer.put(i));
+        }
+        assertTrue(buffer.isWritable());
+        assertTrue(buffer.put(3));
+        assertFalse(buffer.isWritable());
+        assertFalse(buffer.awaitWritable(System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(10)));
+
+        //abaixo da marca alta, mas acima da baixa: continua cheio
+        buffer.queue().poll();
+        buffer.finished(1);
+        assertFalse(buffer.isWritable());
+        buffer.queue().poll();
+        buffer.finished(1);
+        assertTrue(buffer.isWritable());
+        assertTrue(buffer.awaitWritable(System.nanoTime()));
+        assertEquals("[false, true]", changes.toString());
+    }
+
+    public void testListenerRunsUnlocked() throws InterruptedException {
+        final LayerBuffer<Integer> buffer =
+                new LayerBuffer<Integer>(BufferPolicy.block(4), false);
+        buffer.setWatermarks(1, 3);
+        final List<Boolean> locked = new ArrayList<Boolean>();
+        buffer.addWritabilityListener(new WritabilityListener() {
+            public void writabilityChanged(boolean writable) {
+                locked.add(Thread.holdsLock(buffer));
+                if (writable) {
+                    //retoma a producao de dentro do aviso
+                    try {
+                        buffer.put(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(buffer.put(i));
+        }
+        assertFalse(buffer.isWritable());
+        for (int i = 0; i < 2; ++i) {
+            buffer.queue().poll();
+            buffer.finished(1);
+        }
+        assertTrue(buffer.isWritable());
+        assertEquals("[false, false]", locked.toString());
+        assertEquals(2, buffer.queue().size());
+    }
+
+    public void testParse() {
+        assertEquals("20,DROP_OLDEST;4,2",
+                BufferPolicy.parse("20,DROP_OLDEST; 4,2").toString());
+        assertTrue(BufferPolicy.parse("10;1,1").hasControlLane());
+        assertEquals("50,BLOCK", BufferPolicy.parse("50").toString());
+        assertEquals("20,DROP_OLDEST", BufferPolicy.parse(" 20, drop_oldest ").toString());
+        BufferPolicy policy = BufferPolicy.parse("10,BLOCK_TIMEOUT,200");
+        assertEquals(BufferPolicy.Overflow.BLOCK_TIMEOUT, policy.getOverflow());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), policy.getTimeoutNanos());
+
+        String invalid[] = {"", "x", "0", "10,NADA", "10,BLOCK_TIMEOUT", "10;1"};
+        for (String text : invalid) {
+            try {
+                BufferPolicy.parse(text);
+                fail(text);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.all.InterlayerDataPool;
+import br.ufpb.di.redes.layers.all.Layer;
+import br.ufpb.di.redes.layers.all.PacketTrace;
+import br.ufpb.di.redes.layers.all.PacketTrace.Stage;
+import br.ufpb.di.redes.layers.all.Priority;
+import br.ufpb.di.redes.layers.all.Tracing;
+import br.ufpb.di.redes.layers.datalink.interfaces.DataLink;
+import br.ufpb.di.redes.layers.physical.interfaces.Physical;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class LayerDeadlineTest extends TestCase {
+
+    /**Fisica sincrona que guarda os quadros e o contexto de cada envio.*/
+    private static class RecordingPhysical extends Physical {
+        final List<Integer> values =
+                Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Long> deadlines =
+                Collections.synchronizedList(new ArrayList<Long>());
+        final List<Priority> priorities =
+                Collections.synchronizedList(new ArrayList<Priority>());
+
+        RecordingPhysical() {
+            setSynchronous(true);
+        }
+
+        @Override
+        protected void processSentData(InterlayerData data) {
+            deadlines.add(currentDeadline());
+            priorities.add(currentPriority());
+            values.add(data.takeInfo(0, 8));
+        }
+
+        @Override
+        public int minPacketSize() {
+            return 8;
+        }
+
+        @Override
+        public int maxPacketSize() {
+            return 8;
+        }
+    }
+
+    /**Enlace cujo envio espera uma permissao, como quem espera o token.*/
+    private static class GatedDataLink extends DataLink {
+        final Semaphore gate = new Semaphore(0);
+
+        GatedDataLink(Physical physical) {
+            super(physical, 0);
+        }
+
+        @Override
+        protected void processSentData(InterlayerData data, int dest_mac) {
+            gate.acquireUninterruptibly();
+            bubbleDown(data);
+        }
+
+        @Override
+        protected void processReceivedData(InterlayerData data) {
+        }
+
+        @Override
+        public int getMac() {
+            return 0;
+        }
+
+        @Override
+        public int minPacketSize() {
+            return 8;
+        }
+
+        @Override
+        public int maxPacketSize() {
+            return 8;
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        Tracing.setSampleEvery(0);
+        Tracing.clear();
+    }
+
+    private static InterlayerData frame(int value) {
+        InterlayerData data = new InterlayerData(8);
+        data.putInfo(0, 8, value);
+        return data;
+    }
+
+    private static <U extends Layer<?, ?>, L extends Layer<? super U, ?>> L started(L layer, U up) {
+        layer.attach(up);
+        layer.start();
+        return layer;
+    }
+
+    public void testExpiredInBuffer() throws InterruptedException {
+        RecordingPhysical physical = new RecordingPhysical();
+        GatedDataLink link = new GatedDataLink(physical);
+        started(physical, link);
+        started(link, null);
+
+        InterlayerDataPool pool = new InterlayerDataPool(4, 8);
+        InterlayerData expiring = pool.acquire(8);
+        Tracing.setSampleEvery(1);
+        PacketTrace trace = Tracing.start("teste");
+        expiring.setTrace(trace);
+
+        link.send(frame(1), 0);
+        link.send(expiring, 0, 20, TimeUnit.MILLISECONDS);
+        link.send(frame(3), 0, 10, TimeUnit.SECONDS);
+        Thread.sleep(60);
+        link.gate.release(3);
+
+        long limit = System.currentTimeMillis() + 2000;
+        while (physical.values.size() < 2 && System.currentTimeMillis() < limit) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(20);
+
+        assertEquals(1, link.getSendBuffer().getExpired());
+        assertEquals(0, pool.getLeaks());
+        List<PacketTrace.Event> events = trace.getEvents();
+        assertEquals(Stage.EXPIRED, events.get(events.size() - 1).stage);
+        assertEquals(2, physical.values.size());
+        assertEquals(Integer.valueOf(1), physical.values.get(0));
+        assertEquals(Integer.valueOf(3), physical.values.get(1));
+        assertEquals(Layer.NO_DEADLINE, physical.deadlines.get(0).longValue());
+        assertFalse(Layer.isExpired(physical.deadlines.get(1)));
+    }
+
+    public void testContextReachesPhysical() {
+        RecordingPhysical physical = new RecordingPhysical();
+        GatedDataLink link = new GatedDataLink(physical);
+        link.setSynchronous(true);
+        started(physical, link);
+        started(link, null);
+
+        link.gate.release(2);
+        link.send(frame(1), 0, Priority.CONTROL);
+        link.send(frame(2), 0, 1, TimeUnit.SECONDS);
+
+        assertEquals(Priority.CONTROL, physical.priorities.get(0));
+        assertEquals(Priority.DATA, physical.priorities.get(1));
+        assertTrue(physical.deadlines.get(1) != Layer.NO_DEADLINE);
+
+        //o contexto nao vaza para quem chamou
+        assertEquals(Priority.DATA, Layer.currentPriority());
+        assertEquals(Layer.NO_DEADLINE, Layer.currentDeadline());
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.LayerExecutor;
+import br.ufpb.di.redes.layers.all.LayerExecutors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class LayerExecutorsTest extends TestCase {
+
+    /**Laco como o das camadas: bloqueia ate ser interrompido.*/
+    private static class Worker implements Runnable {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile String name;
+
+        public void run() {
+            name = Thread.currentThread().getName();
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+            }
+            finished.countDown();
+        }
+    }
+
+    private static void runAndCancel(LayerExecutor executor) throws Exception {
+        Worker worker = new Worker();
+        Future<?> future = executor.execute("teste:sender", worker);
+
+        assertTrue(worker.started.await(5, TimeUnit.SECONDS));
+        assertEquals("teste:sender", worker.name);
+        assertFalse(future.isDone());
+
+        future.cancel(true);
+        assertTrue(worker.finished.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testDedicated() throws Exception {
+        runAndCancel(LayerExecutors.dedicated());
+    }
+
+    public void testFromThreadFactory() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        runAndCancel(LayerExecutors.fromThreadFactory(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                created.incrementAndGet();
+                return new Thread(r);
+            }
+        }));
+        assertEquals(1, created.get());
+    }
+
+    public void testShared() throws Exception {
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            LayerExecutor executor = LayerExecutors.shared(pool);
+            runAndCancel(executor);
+            runAndCancel(executor);
+
+            final String names[] = new String[1];
+            executor.execute("outro", new Runnable() {
+                public void run() {
+                }
+            }).get();
+            pool.submit(new Runnable() {
+                public void run() {
+                    names[0] = Thread.currentThread().getName();
+                }
+            }).get();
+            assertFalse("outro".equals(names[0]));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
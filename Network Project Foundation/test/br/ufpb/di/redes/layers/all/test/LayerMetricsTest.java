@@ -0,0 +1,157 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.BufferPolicy;
+import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.all.LatencyHistogram;
+import br.ufpb.di.redes.layers.all.LayerBuffer;
+import br.ufpb.di.redes.layers.all.LayerMetrics;
+import br.ufpb.di.redes.layers.physical.interfaces.Physical;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class LayerMetricsTest extends TestCase {
+
+    /**Fisica sincrona que so descarta os quadros.*/
+    private static class SinkPhysical extends Physical {
+        SinkPhysical() {
+            setSynchronous(true);
+        }
+
+        @Override
+        protected void processSentData(InterlayerData data) {
+        }
+
+        @Override
+        public int minPacketSize() {
+            return 8;
+        }
+
+        @Override
+        public int maxPacketSize() {
+            return 8;
+        }
+    }
+
+    /**Fisica que envia o lote inteiro de uma vez, sem processSentMessage().*/
+    private static class WholeBatchPhysical extends SinkPhysical {
+        int sent;
+
+        @Override
+        protected void processSentBatch(List<InterlayerData> batch) {
+            sent += batch.size();
+        }
+    }
+
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.snapshot().getP99Nanos());
+        for (long i = 1; i <= 1000; ++i) {
+            histogram.record(i * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000000, snapshot.getMaxNanos());
+        assertEquals(500500, snapshot.getMeanNanos());
+        long p50 = snapshot.getP50Nanos();
+        assertTrue(String.valueOf(p50), p50 >= 500000 && p50 <= 625000);
+        long p99 = snapshot.getP99Nanos();
+        assertTrue(String.valueOf(p99), p99 >= 990000 && p99 <= 1000000);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    public void testBatchRecord() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000, 4);
+        histogram.record(3000, 0);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(4, snapshot.getCount());
+        assertEquals(4000, snapshot.getTotalNanos());
+        assertEquals(1000, snapshot.getMaxNanos());
+    }
+
+    public void testBatchOverrideMeasured() throws InterruptedException {
+        WholeBatchPhysical physical = new WholeBatchPhysical();
+        physical.attach(null);
+        physical.send(new InterlayerData(8));
+        assertEquals(1, physical.sent);
+        assertEquals(1, physical.getMetrics().getSentLatency().getCount());
+        physical.stop();
+
+        physical = new WholeBatchPhysical();
+        physical.setSynchronous(false);
+        physical.setMaxBatchSize(8);
+        physical.attach(null);
+        for (int i = 0; i < 10; ++i) {
+            physical.send(new InterlayerData(8));
+        }
+        physical.start();
+        assertTrue(physical.getDownBuffer().awaitIdle(
+                System.nanoTime() + TimeUnit.SECONDS.toNanos(5)));
+        assertEquals(10, physical.sent);
+        assertEquals(10, physical.getMetrics().getSentLatency().getCount());
+        physical.stop();
+    }
+
+    public void testBufferCounters() throws InterruptedException {
+        LayerBuffer<Integer> buffer =
+                new LayerBuffer<Integer>(BufferPolicy.dropOldest(2), false);
+        buffer.put(1);
+        buffer.put(2);
+        buffer.put(3);
+        assertEquals(3, buffer.getEnqueued());
+        assertEquals(1, buffer.getDequeued());
+        assertEquals(2, buffer.getHighWater());
+
+        buffer.queue().poll();
+        buffer.finished(1);
+        buffer.put(4);
+        assertEquals(2, buffer.getDequeued());
+        assertEquals(2, buffer.getHighWater());
+        assertEquals(2, buffer.size());
+    }
+
+    public void testJmx() throws Exception {
+        LayerMetrics.setJmxEnabled(true);
+        SinkPhysical physical;
+        try {
+            physical = new SinkPhysical();
+            physical.attach(null);
+        } finally {
+            LayerMetrics.setJmxEnabled(false);
+        }
+        for (int i = 0; i < 10; ++i) {
+            physical.send(new InterlayerData(8));
+        }
+        assertEquals(10, physical.getMetrics().getSentLatency().getCount());
+        assertNull(physical.getMetrics().getReceivedBuffer());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = physical.getMetrics().getObjectName();
+        assertNotNull(name);
+        CompositeData latency = (CompositeData) server.getAttribute(name, "SentLatency");
+        assertEquals(Long.valueOf(10), latency.get("count"));
+        CompositeData buffer = (CompositeData) server.getAttribute(name, "SendBuffer");
+        assertEquals(Integer.valueOf(0), buffer.get("depth"));
+
+        physical.stop();
+        assertFalse(server.isRegistered(name));
+        assertNull(physical.getMetrics().getObjectName());
+    }
+
+}
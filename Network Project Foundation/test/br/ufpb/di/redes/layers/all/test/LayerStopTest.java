@@ -0,0 +1,148 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.all.Layer;
+import br.ufpb.di.redes.layers.all.Layer.EntityState;
+import br.ufpb.di.redes.layers.datalink.interfaces.DataLink;
+import br.ufpb.di.redes.layers.physical.interfaces.Physical;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class LayerStopTest extends TestCase {
+
+    /**Fisica lenta, que so envia quando recebe permissao.*/
+    private static class GatedPhysical extends Physical {
+        final List<Integer> sent =
+                Collections.synchronizedList(new ArrayList<Integer>());
+        final Semaphore gate = new Semaphore(0);
+        volatile Thread worker;
+
+        @Override
+        protected void processSentData(InterlayerData data) {
+            worker = Thread.currentThread();
+            try {
+                gate.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            sent.add(data.takeInfo(0, 8));
+        }
+
+        @Override
+        public int minPacketSize() {
+            return 8;
+        }
+
+        @Override
+        public int maxPacketSize() {
+            return 8;
+        }
+    }
+
+    private static class PlainDataLink extends DataLink {
+        volatile Thread worker;
+
+        PlainDataLink(Physical physical) {
+            super(physical, 0);
+        }
+
+        @Override
+        protected void processSentData(InterlayerData data, int dest_mac) {
+            worker = Thread.currentThread();
+            bubbleDown(data);
+        }
+
+        @Override
+        protected void processReceivedData(InterlayerData data) {
+        }
+
+        @Override
+        public int getMac() {
+            return 0;
+        }
+
+        @Override
+        public int minPacketSize() {
+            return 8;
+        }
+
+        @Override
+        public int maxPacketSize() {
+            return 8;
+        }
+    }
+
+    private static InterlayerData frame(int value) {
+        InterlayerData data = new InterlayerData(8);
+        data.putInfo(0, 8, value);
+        return data;
+    }
+
+    /**O laco avisa que terminou um pouco antes de a thread morrer.*/
+    private static boolean stillAlive(Thread thread) throws InterruptedException {
+        thread.join(1000);
+        return thread.isAlive();
+    }
+
+    private PlainDataLink link;
+    private GatedPhysical physical;
+
+    @Override
+    protected void setUp() {
+        physical = new GatedPhysical();
+        link = new PlainDataLink(physical);
+        physical.attach(link);
+        physical.start();
+        link.attach(null);
+        link.start();
+        for (int i = 0; i < 3; ++i) {
+            link.send(frame(i), 0);
+        }
+    }
+
+    public void testDrain() throws InterruptedException {
+        physical.gate.release(3);
+        assertTrue(link.stop(Layer.StopPolicy.DRAIN, 5, TimeUnit.SECONDS));
+
+        assertEquals(3, physical.sent.size());
+        assertEquals(EntityState.HALTED, link.getState());
+        assertEquals(EntityState.HALTED, physical.getState());
+        assertFalse(stillAlive(link.worker));
+        assertFalse(stillAlive(physical.worker));
+    }
+
+    public void testDiscard() throws InterruptedException {
+        //a fisica fica presa no primeiro quadro ate ser interrompida
+        while (physical.worker == null) {
+            Thread.sleep(5);
+        }
+        long start = System.nanoTime();
+        assertTrue(link.stop(Layer.StopPolicy.DISCARD, 5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+        assertTrue(physical.sent.isEmpty());
+        assertEquals(0, physical.getDownBuffer().queue().size());
+        assertFalse(stillAlive(physical.worker));
+
+        //entidade parada nao aceita mais nada, e stop() repetido nao falha
+        assertTrue(link.stop());
+        physical.gate.release(3);
+        Thread.sleep(20);
+        assertTrue(physical.sent.isEmpty());
+    }
+
+}
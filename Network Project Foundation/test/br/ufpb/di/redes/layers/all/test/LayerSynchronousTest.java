@@ -0,0 +1,126 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.datalink.interfaces.DataLink;
+import br.ufpb.di.redes.layers.physical.interfaces.Physical;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class LayerSynchronousTest extends TestCase {
+
+    /**Fisica que devolve cada quadro enviado para o proprio enlace.*/
+    private static class LoopbackPhysical extends Physical {
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        @Override
+        protected void processSentData(InterlayerData data) {
+            threads.add(Thread.currentThread());
+            bubbleUp(data);
+        }
+
+        @Override
+        public int minPacketSize() {
+            return 8;
+        }
+
+        @Override
+        public int maxPacketSize() {
+            return 8;
+        }
+    }
+
+    /**
+     * Enlace que reenvia cada quadro recebido com o valor decrementado, ate
+     * chegar a zero, como um token que da voltas num anel.
+     */
+    private static class CountdownDataLink extends DataLink {
+        final List<Integer> received = new ArrayList<Integer>();
+        int depth;
+        int maxDepth;
+
+        CountdownDataLink(Physical physical) {
+            super(physical, 0);
+        }
+
+        @Override
+        protected void processSentData(InterlayerData data, int dest_mac) {
+            bubbleDown(data);
+        }
+
+        @Override
+        protected void processReceivedData(InterlayerData data) {
+            maxDepth = Math.max(maxDepth, ++depth);
+            int value = data.takeInfo(0, 8);
+            received.add(value);
+            if (value > 0) {
+                InterlayerData next = new InterlayerData(8);
+                next.putInfo(0, 8, value - 1);
+                bubbleDown(next);
+            }
+            --depth;
+        }
+
+        @Override
+        public int getMac() {
+            return 0;
+        }
+
+        @Override
+        public int minPacketSize() {
+            return 8;
+        }
+
+        @Override
+        public int maxPacketSize() {
+            return 8;
+        }
+    }
+
+    public void testCallsThrough() {
+        LoopbackPhysical physical = new LoopbackPhysical();
+        CountdownDataLink link = new CountdownDataLink(physical);
+        physical.setSynchronous(true);
+        link.setSynchronous(true);
+        physical.attach(link);
+        physical.start();
+        link.attach(null);
+        link.start();
+
+        InterlayerData data = new InterlayerData(8);
+        data.putInfo(0, 8, 100);
+        link.send(data, 0);
+
+        //tudo ja foi processado, na thread do teste
+        assertEquals(101, link.received.size());
+        for (int i = 0; i <= 100; ++i) {
+            assertEquals(Integer.valueOf(100 - i), link.received.get(i));
+        }
+        for (Thread thread : physical.threads) {
+            assertSame(Thread.currentThread(), thread);
+        }
+
+        //as voltas nao empilham chamadas
+        assertEquals(1, link.maxDepth);
+    }
+
+    public void testDefault() {
+        assertFalse(new LoopbackPhysical().isSynchronous());
+        Physical.setDefaultSynchronous(true);
+        try {
+            assertTrue(new LoopbackPhysical().isSynchronous());
+        } finally {
+            Physical.setDefaultSynchronous(false);
+        }
+    }
+
+}
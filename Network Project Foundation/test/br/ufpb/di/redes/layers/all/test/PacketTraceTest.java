@@ -0,0 +1,218 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.all.Layer;
+import br.ufpb.di.redes.layers.all.PacketTrace;
+import br.ufpb.di.redes.layers.all.PacketTrace.Direction;
+import br.ufpb.di.redes.layers.all.PacketTrace.Stage;
+import br.ufpb.di.redes.layers.all.Tracing;
+import br.ufpb.di.redes.layers.datalink.interfaces.DataLink;
+import br.ufpb.di.redes.layers.physical.interfaces.Physical;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class PacketTraceTest extends TestCase {
+
+    /**Fisica que entrega os quadros direto a outra, como um fio.*/
+    private static class WirePhysical extends Physical {
+        WirePhysical other;
+
+        @Override
+        protected void processSentData(InterlayerData data) {
+            other.bubbleUp(data);
+        }
+
+        @Override
+        public int minPacketSize() {
+            return 8;
+        }
+
+        @Override
+        public int maxPacketSize() {
+            return 8;
+        }
+    }
+
+    /**Fisica sincrona que trata o lote inteiro, sem processSentMessage().*/
+    private static class WholeBatchPhysical extends WirePhysical {
+        PacketTrace seen;
+
+        WholeBatchPhysical() {
+            setSynchronous(true);
+        }
+
+        @Override
+        protected void processSentBatch(List<InterlayerData> batch) {
+            seen = Layer.currentTrace();
+        }
+    }
+
+    /**Enlace que copia cada mensagem num quadro novo, como os de verdade.*/
+    private static class CopyingDataLink extends DataLink {
+        final CountDownLatch received = new CountDownLatch(1);
+
+        CopyingDataLink(Physical physical) {
+            super(physical, 0);
+        }
+
+        @Override
+        protected void processSentData(InterlayerData data, int dest_mac) {
+            InterlayerData frame = new InterlayerData(8);
+            frame.putInfo(0, 8, data.takeInfo(0, 8));
+            bubbleDown(frame);
+        }
+
+        @Override
+        protected void processReceivedData(InterlayerData data) {
+            received.countDown();
+        }
+
+        @Override
+        public int getMac() {
+            return 0;
+        }
+
+        @Override
+        public int minPacketSize() {
+            return 8;
+        }
+
+        @Override
+        public int maxPacketSize() {
+            return 8;
+        }
+
+        @Override
+        public String getName() {
+            return "enlace";
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        Tracing.setSampleEvery(0);
+        Tracing.clear();
+    }
+
+    private static String describe(PacketTrace.Event event) {
+        return event.layer + " " + event.direction + " " + event.stage;
+    }
+
+    public void testAcrossStacks() throws Exception {
+        WirePhysical physicalA = new WirePhysical();
+        WirePhysical physicalB = new WirePhysical();
+        physicalA.other = physicalB;
+        physicalB.other = physicalA;
+        CopyingDataLink linkA = new CopyingDataLink(physicalA);
+        CopyingDataLink linkB = new CopyingDataLink(physicalB);
+        physicalA.attach(linkA);
+        physicalB.attach(linkB);
+        physicalA.start();
+        physicalB.start();
+        linkA.attach(null);
+        linkB.attach(null);
+        linkA.start();
+        linkB.start();
+
+        Tracing.setSampleEvery(1);
+        PacketTrace trace = Tracing.start("teste");
+        InterlayerData data = new InterlayerData(8);
+        data.setTrace(trace);
+        linkA.send(data, 0);
+        assertTrue(linkB.received.await(5, TimeUnit.SECONDS));
+        Thread.sleep(20);
+        linkA.stop();
+        linkB.stop();
+
+        List<String> path = new ArrayList<String>();
+        for (PacketTrace.Event event : trace.getEvents()) {
+            path.add(describe(event));
+        }
+        String dataLink = CopyingDataLink.class.getSimpleName();
+        String physical = WirePhysical.class.getSimpleName();
+        assertEquals(path.toString(), 10, path.size());
+        assertEquals(dataLink + " DOWN ENQUEUED", path.get(0));
+        assertEquals(dataLink + " DOWN DEQUEUED", path.get(1));
+        //o quadro novo herdou o rastro
+        assertEquals(physical + " DOWN ENQUEUED", path.get(2));
+        String others[] = {dataLink + " DOWN DONE", physical + " DOWN DEQUEUED",
+            physical + " DOWN DONE", physical + " UP DONE",
+            dataLink + " UP ENQUEUED", dataLink + " UP DEQUEUED",
+            dataLink + " UP DONE"};
+        for (String event : others) {
+            assertTrue(event, path.contains(event));
+        }
+        assertEquals("enlace", trace.getEvents().get(0).entity);
+
+        StringBuilder out = new StringBuilder();
+        Tracing.export(out);
+        String lines[] = out.toString().split("\n");
+        assertEquals(11, lines.length);
+        assertTrue(lines[1].startsWith(trace.getId() + ";teste;" + dataLink + ";enlace;DOWN;ENQUEUED;"));
+    }
+
+    public void testBatchOverrideTraced() {
+        WholeBatchPhysical physical = new WholeBatchPhysical();
+        physical.attach(null);
+
+        Tracing.setSampleEvery(1);
+        PacketTrace trace = Tracing.start("teste");
+        InterlayerData data = new InterlayerData(8);
+        data.setTrace(trace);
+        physical.send(data);
+        physical.stop();
+
+        assertSame(trace, physical.seen);
+        List<String> path = new ArrayList<String>();
+        for (PacketTrace.Event event : trace.getEvents()) {
+            path.add(describe(event));
+        }
+        String name = WholeBatchPhysical.class.getSimpleName();
+        assertEquals(path.toString(), 3, path.size());
+        assertEquals(name + " DOWN ENQUEUED", path.get(0));
+        assertEquals(name + " DOWN DEQUEUED", path.get(1));
+        assertEquals(name + " DOWN DONE", path.get(2));
+    }
+
+    public void testSampling() {
+        assertNull(Tracing.start("desligado"));
+        Tracing.setSampleEvery(2);
+        Tracing.setKeep(3);
+        try {
+            int started = 0;
+            for (int i = 0; i < 10; ++i) {
+                if (Tracing.start("amostra") != null)
+                    ++started;
+            }
+            assertEquals(5, started);
+            assertEquals(3, Tracing.recent().size());
+        } finally {
+            Tracing.setKeep(1000);
+        }
+    }
+
+    public void testSliceKeepsTrace() {
+        Tracing.setSampleEvery(1);
+        InterlayerData data = new InterlayerData(16);
+        PacketTrace trace = Tracing.start("teste");
+        data.setTrace(trace);
+        assertSame(trace, data.slice(8, 8).getTrace());
+        assertSame(trace, data.scatter(4).get(3).getTrace());
+        assertNull(data.freeze().getTrace());
+        trace.record("Teste", "x", Direction.UP, Stage.DONE);
+        assertTrue(trace.toString().contains("Teste [x] UP DONE"));
+    }
+
+}
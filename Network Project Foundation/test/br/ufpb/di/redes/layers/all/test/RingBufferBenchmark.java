@@ -0,0 +1,134 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.RingBuffer;
+import br.ufpb.di.redes.layers.all.RingBuffer.WaitStrategy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import junit.framework.TestCase;
+
+/**
+ * Compara os buffers entre camadas: ArrayBlockingQueue (a comum e a justa,
+ * usada por Physical) e RingBuffer com cada estrategia de espera. Nao
+ * verifica nada, so imprime os tempos.
+ * <p/>
+ * Vazao: um produtor, como uma camada enviando, e um consumidor, como a
+ * thread de trabalho da camada de baixo. Latencia: uma mensagem vai e volta
+ * entre duas threads, por duas filas, como uma passagem de token.
+ *
+ * @author Thiago
+ */
+public class RingBufferBenchmark extends TestCase {
+
+    public static int MESSAGES = 1000000;
+
+    public static int ROUND_TRIPS = 100000;
+
+    private static final int CAPACITY = 50;
+
+    private static interface QueueFactory {
+        BlockingQueue<Integer> create();
+    }
+
+    private static QueueFactory[] factories() {
+        QueueFactory result[] = new QueueFactory[2 + WaitStrategy.values().length];
+        result[0] = new QueueFactory() {
+            public BlockingQueue<Integer> create() {
+                return new ArrayBlockingQueue<Integer>(CAPACITY);
+            }
+            @Override
+            public String toString() {
+                return "ArrayBlockingQueue";
+            }
+        };
+        result[1] = new QueueFactory() {
+            public BlockingQueue<Integer> create() {
+                return new ArrayBlockingQueue<Integer>(CAPACITY, true);
+            }
+            @Override
+            public String toString() {
+                return "ArrayBlockingQueue justa";
+            }
+        };
+        int i = 2;
+        for (final WaitStrategy strategy : WaitStrategy.values()) {
+            result[i++] = new QueueFactory() {
+                public BlockingQueue<Integer> create() {
+                    return new RingBuffer<Integer>(CAPACITY, strategy);
+                }
+                @Override
+                public String toString() {
+                    return "RingBuffer " + strategy;
+                }
+            };
+        }
+        return result;
+    }
+
+    public void testThroughput() throws InterruptedException {
+        final Integer message = Integer.valueOf(1);
+
+        for (QueueFactory factory : factories()) {
+            final BlockingQueue<Integer> queue = factory.create();
+            Thread producer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < MESSAGES; ++i) {
+                            queue.put(message);
+                        }
+                    } catch (InterruptedException e) {
+                    }
+                }
+            };
+
+            long begin = System.nanoTime();
+            producer.start();
+            for (int i = 0; i < MESSAGES; ++i) {
+                queue.take();
+            }
+            long elapsed = System.nanoTime() - begin;
+            producer.join();
+
+            System.out.println(String.format("%-28s vazao %8.0f mensagens/ms",
+                    factory + ":", MESSAGES / (elapsed / 1000000.0)));
+        }
+    }
+
+    public void testLatency() throws InterruptedException {
+        final Integer message = Integer.valueOf(1);
+
+        for (QueueFactory factory : factories()) {
+            final BlockingQueue<Integer> there = factory.create();
+            final BlockingQueue<Integer> back = factory.create();
+            Thread echo = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < ROUND_TRIPS; ++i) {
+                            back.put(there.take());
+                        }
+                    } catch (InterruptedException e) {
+                    }
+                }
+            };
+
+            echo.start();
+            long begin = System.nanoTime();
+            for (int i = 0; i < ROUND_TRIPS; ++i) {
+                there.put(message);
+                back.take();
+            }
+            long elapsed = System.nanoTime() - begin;
+            echo.join();
+
+            System.out.println(String.format("%-28s latencia por passagem %6d ns",
+                    factory + ":", elapsed / ROUND_TRIPS / 2));
+        }
+    }
+
+}
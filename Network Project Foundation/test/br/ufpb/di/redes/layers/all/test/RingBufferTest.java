@@ -0,0 +1,157 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.layers.all.test;
+
+import br.ufpb.di.redes.layers.all.RingBuffer;
+import br.ufpb.di.redes.layers.all.RingBuffer.WaitStrategy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class RingBufferTest extends TestCase {
+
+    public void testFifoAndCapacity() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(3);
+        assertNull(buffer.poll());
+        assertNull(buffer.peek());
+
+        //varias voltas pelo array
+        for (int round = 0; round < 5; ++round) {
+            assertTrue(buffer.offer(round));
+            assertTrue(buffer.offer(round + 10));
+            assertTrue(buffer.offer(round + 20));
+            assertFalse(buffer.offer(-1));
+            assertEquals(3, buffer.size());
+            assertEquals(0, buffer.remainingCapacity());
+
+            assertEquals(Integer.valueOf(round), buffer.peek());
+            assertEquals(Integer.valueOf(round), buffer.poll());
+            assertEquals(Integer.valueOf(round + 10), buffer.poll());
+            assertEquals(Integer.valueOf(round + 20), buffer.poll());
+            assertNull(buffer.poll());
+            assertTrue(buffer.isEmpty());
+        }
+    }
+
+    public void testDrainTo() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(10);
+        for (int i = 0; i < 7; ++i) {
+            buffer.offer(i);
+        }
+
+        List<Integer> out = new ArrayList<Integer>();
+        assertEquals(4, buffer.drainTo(out, 4));
+        assertEquals(3, buffer.drainTo(out));
+        assertEquals(0, buffer.drainTo(out));
+        for (int i = 0; i < 7; ++i) {
+            assertEquals(Integer.valueOf(i), out.get(i));
+        }
+    }
+
+    public void testTimeouts() throws InterruptedException {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            RingBuffer<Integer> buffer = new RingBuffer<Integer>(1, strategy);
+            assertNull(buffer.poll(10, TimeUnit.MILLISECONDS));
+            assertTrue(buffer.offer(1, 10, TimeUnit.MILLISECONDS));
+            assertFalse(buffer.offer(2, 10, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    public void testInterrupt() throws InterruptedException {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            final RingBuffer<Integer> buffer = new RingBuffer<Integer>(1, strategy);
+            final boolean interrupted[] = new boolean[1];
+            Thread taker = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        buffer.take();
+                    } catch (InterruptedException e) {
+                        interrupted[0] = true;
+                    }
+                }
+            };
+            taker.start();
+            Thread.sleep(20);
+            taker.interrupt();
+            taker.join(5000);
+            assertFalse(taker.isAlive());
+            assertTrue(strategy.name(), interrupted[0]);
+        }
+    }
+
+    /**
+     * Varios produtores e um consumidor, como nos buffers das camadas, com
+     * uma fila pequena para que todos esperem muito.
+     */
+    public void testProducersAndConsumer() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 20000;
+
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            final RingBuffer<Integer> buffer = new RingBuffer<Integer>(5, strategy);
+            Thread threads[] = new Thread[producers];
+            for (int p = 0; p < producers; ++p) {
+                final int base = p * perProducer;
+                threads[p] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; i < perProducer; ++i) {
+                                buffer.put(base + i);
+                            }
+                        } catch (InterruptedException e) {
+                        }
+                    }
+                };
+                threads[p].start();
+            }
+
+            //cada produtor deve aparecer em ordem
+            int last[] = new int[producers];
+            for (int p = 0; p < producers; ++p) {
+                last[p] = p * perProducer - 1;
+            }
+            for (int i = 0; i < producers * perProducer; ++i) {
+                int value = buffer.take();
+                int p = value / perProducer;
+                assertEquals(strategy.name(), last[p] + 1, value);
+                last[p] = value;
+            }
+
+            for (Thread thread : threads) {
+                thread.join(5000);
+                assertFalse(thread.isAlive());
+            }
+            assertTrue(buffer.isEmpty());
+        }
+    }
+
+    public void testNull() {
+        try {
+            new RingBuffer<Integer>(1).offer(null);
+            fail();
+        } catch (NullPointerException e) {
+        }
+    }
+
+    public void testRemoveObjectUnsupported() {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(3);
+        buffer.offer(1);
+        try {
+            buffer.remove(Integer.valueOf(1));
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        assertEquals(1, buffer.size());
+        assertEquals(Integer.valueOf(1), buffer.poll());
+    }
+}
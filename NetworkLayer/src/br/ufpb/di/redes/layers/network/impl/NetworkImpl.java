@@ -1,6 +1,7 @@
 package br.ufpb.di.redes.layers.network.impl;
 
 
+import br.ufpb.di.redes.layers.all.HeaderLayout;
 import br.ufpb.di.redes.layers.all.InterlayerData;
 import br.ufpb.di.redes.layers.datalink.interfaces.DataLink;
 import br.ufpb.di.redes.layers.network.impl.tables.Table;
@@ -49,6 +50,16 @@ public class NetworkImpl extends Network {
         }
     }
 
+    /**
+     * Cabecalho da implementacao 1: ip origem seguido do ip destino, cada um
+     * com NETWORK_FULL_ADDRESS_SIZE bits.
+     */
+    private static final HeaderLayout HEADER_IMPL_1 = new HeaderLayout();
+    private static final HeaderLayout.Field SOURCE_IP =
+            HEADER_IMPL_1.add("source_ip", Constants.NETWORK_FULL_ADDRESS_SIZE.getValue());
+    private static final HeaderLayout.Field DEST_IP =
+            HEADER_IMPL_1.add("dest_ip", Constants.NETWORK_FULL_ADDRESS_SIZE.getValue());
+
 //    static {
 //        for(Constants constants : Constants.values()){
 //            System.out.println(constants);
@@ -86,7 +97,8 @@ public class NetworkImpl extends Network {
 
     @Override
     protected void processReceivedData(InterlayerData data, int soruce_mac, int datalink_id) {
-        int ip_dest = data.takeInfo(Constants.NETWORK_FULL_ADDRESS_SIZE.getValue(), Constants.NETWORK_FULL_ADDRESS_SIZE.getValue());
+        int source_ip = SOURCE_IP.get(data);
+        int ip_dest = DEST_IP.get(data);
         LOGGER.debug("Abri pacote de destino {}.", ip_dest);
 
         //Pega o IP destino e verifica se e' o nosso IP, se o pacote nao for para nos repessa o pacote para o enlace
@@ -109,16 +121,9 @@ public class NetworkImpl extends Network {
             return;
         }
 
-        //Se for para nos, cria um novo pacate para manda para camada de cima
-        InterlayerData dataToTransport = new InterlayerData(data.length - Constants.HEADER_LENGHT_IMPL_1.getValue());
-
+        //Se for para nos, manda para camada de cima apenas o que vem depois do cabecalho, sem copiar
         //Obs: Total de bits que ele vai ler: "data.length - HEADER_LENGHT', se for menor q zero ferrou
-        //Copia de bits
-        InterlayerData.copyBits(dataToTransport, data, (int) Constants.HEADER_LENGHT_IMPL_1.getValue(),
-                data.length - Constants.HEADER_LENGHT_IMPL_1.getValue(), 0);
-
-        //Obtem o ip
-        int source_ip = data.takeInfo(0, Constants.NETWORK_FULL_ADDRESS_SIZE.getValue());
+        InterlayerData dataToTransport = data.slice(HEADER_IMPL_1.length(), data.length - HEADER_IMPL_1.length());
 
         LOGGER.debug("Pacote e' para mim, origem {}", source_ip);
 
@@ -152,6 +157,11 @@ public class NetworkImpl extends Network {
         return Constants.HEADER_LENGHT_IMPL_1.value;
     }
 
+    @Override
+    public int headerSize() {
+        return Constants.HEADER_LENGHT_IMPL_1.value;
+    }
+
     @Override
     public int getIp() {
         return source_ips[Constants.PATERN_IP_POSITION.getValue()];
@@ -192,10 +202,10 @@ public class NetworkImpl extends Network {
      * @return o ip origem relacionado com o ip destino
      */
     private int getIp(int dest_ip) {
-        int dest_network = splitIP(dest_ip)[0];
+        int dest_network = networkOf(dest_ip);
 
         for(int ip: source_ips){
-            int source_network = splitIP(ip)[0];
+            int source_network = networkOf(ip);
             if(source_network == dest_network)
                 return ip;
         }
@@ -229,10 +239,10 @@ public class NetworkImpl extends Network {
      * @return o mac a ser usado para enviar o pacote ou -1 se nada foi encontrado
      */
     private int getMacToSendToIp(int ip_dest, int id_dataLink) {
-        int network_dest = splitIP(ip_dest)[0];
+        int network_dest = networkOf(ip_dest);
 
         int my_ip = getIpFromDataLinkId(id_dataLink);
-        int my_network = splitIP(my_ip)[0];
+        int my_network = networkOf(my_ip);
 
         //Comecado a modificacao
         int map_size = route_table.size();
@@ -241,45 +251,29 @@ public class NetworkImpl extends Network {
         for(int i = 0; i < map_size; i++){
             //int ip_sender = route_table.get(my_ip, network_dest);
             int ip_sender = getInRouteTable(network_dest);
-            int network_sender = splitIP(ip_sender)[0];
+            int network_sender = networkOf(ip_sender);
 
             if(network_sender == my_network || ip_sender==my_ip)
                 return arp_table.get(my_ip, ip_sender);//Retorna o MAC e ip_sender(quem envia para ip_dest)
 
-            network_dest = splitIP(ip_sender)[0];
+            network_dest = networkOf(ip_sender);
         }
 
         return -1;
     }
 
     /**
-     * Retira o ip do InterlayerData e retorna o endereco de rede e da estacao.
-     *
-     * @param interlayerData o pacote
-     *
-     * @return um array onde a primeira posicao indica o endereco de rede e a segunda indica o endereco da estacao
-     */
-    private int[] splitIP(InterlayerData interlayerData){
-        int network = interlayerData.takeInfo(0, Constants.NETWORK_LENGHT_OF_IP.getValue());
-        int station = interlayerData.takeInfo(Constants.NETWORK_LENGHT_OF_IP.getValue(), Constants.STATION_LENGHT_OF_IP.getValue());
-
-        return new int[]{network, station};
-    }
-
-    /**
-     * Retira do ip o endereco de rede e da estacao.
+     * Retira do ip o endereco de rede, sem criar objetos. O ip ocupa os
+     * NETWORK_FULL_ADDRESS_SIZE bits menos significativos, com a rede na
+     * frente, como no cabecalho.
      *
      * @param ip o ip
      *
-     * @return um array onde a primeira posicao indica o endereco de rede e a segunda indica o endereco da estacao
+     * @return o endereco de rede
      */
-    private int[] splitIP(int ip){
-
-        InterlayerData interlayerData = new InterlayerData(Constants.NETWORK_FULL_ADDRESS_SIZE.getValue());
-
-        interlayerData.putInfo(0, Constants.NETWORK_FULL_ADDRESS_SIZE.getValue(), ip);
-
-        return splitIP(interlayerData);
+    private static int networkOf(int ip){
+        return (ip >>> Constants.STATION_LENGHT_OF_IP.getValue())
+                & ((1 << Constants.NETWORK_LENGHT_OF_IP.getValue()) - 1);
     }
 
     /**
@@ -382,7 +376,7 @@ public class NetworkImpl extends Network {
 
     @Override
     public void putRouteEntry (int local_ip, int remote_ip) {
-        int network = splitIP(remote_ip)[0];
+        int network = networkOf(remote_ip);
 
         setInRouteTable(network, local_ip);
     }
@@ -401,11 +395,19 @@ public class NetworkImpl extends Network {
      *                     Isso e' uma gambiarra porque eu to sem paciencia de ajeitar!
      */
     private void makesRouting(InterlayerData data, int dest_ip, boolean isUpperLayer){
-        //Array de bits suficiente para anexar o nosso cebecalho
-        InterlayerData interlayerData = isUpperLayer ?
-            new InterlayerData(data.length + Constants.HEADER_LENGHT_IMPL_1.getValue()) : data;
-
-        int network_dest = splitIP(dest_ip)[0];
+        //Se o transporte reservou espaco, o cabecalho e' escrito na frente dos dados, sem copia
+        boolean inPlace = isUpperLayer && data.headroom() >= Constants.HEADER_LENGHT_IMPL_1.getValue();
+
+        //Senao, array de bits suficiente para anexar o nosso cebecalho
+        InterlayerData interlayerData;
+        if (!isUpperLayer)
+            interlayerData = data;
+        else if (inPlace)
+            interlayerData = data.pushHeader(Constants.HEADER_LENGHT_IMPL_1.getValue());
+        else
+            interlayerData = new InterlayerData(data.length + Constants.HEADER_LENGHT_IMPL_1.getValue());
+
+        int network_dest = networkOf(dest_ip);
         LOGGER.debug("Network de destino e' {} do ip de destino {}!", network_dest, dest_ip);
 
         Integer sender = route_table.get(network_dest);
@@ -418,7 +420,7 @@ public class NetworkImpl extends Network {
 
         int my_ip = getIp(sender);
 
-        LOGGER.debug("Rede do meu ip e' {} e rede do sender e' {}", splitIP(my_ip)[0], splitIP(sender)[0]);
+        LOGGER.debug("Rede do meu ip e' {} e rede do sender e' {}", networkOf(my_ip), networkOf(sender));
 
         LOGGER.debug("Meu ip e' {} correspondente ao ip destino {}.", my_ip, dest_ip);
         LOGGER.debug("Enviado via sender de ip {}", sender);
@@ -432,9 +434,10 @@ public class NetworkImpl extends Network {
 
         //Adiciona os respectivos IPs origem e destino
         if(isUpperLayer) {
-            interlayerData.putInfo(0, Constants.NETWORK_FULL_ADDRESS_SIZE.getValue(), getIp());
-            interlayerData.putInfo(Constants.NETWORK_FULL_ADDRESS_SIZE.getValue(), Constants.NETWORK_FULL_ADDRESS_SIZE.getValue(), dest_ip);
-            InterlayerData.copyBits(interlayerData, data, 0, data.length, Constants.HEADER_LENGHT_IMPL_1.getValue());
+            SOURCE_IP.set(interlayerData, getIp());
+            DEST_IP.set(interlayerData, dest_ip);
+            if (!inPlace)
+                InterlayerData.copyBits(interlayerData, data, 0, data.length, Constants.HEADER_LENGHT_IMPL_1.getValue());
         }
 
         //Pega o id do enlace do meu ip
@@ -447,7 +450,7 @@ public class NetworkImpl extends Network {
     private boolean ipAtNetwork(int ip){
         for(int i=0;i<source_ips.length;i++){
             
-            if(splitIP(source_ips[i])[0]==splitIP(ip)[0]){
+            if(networkOf(source_ips[i])==networkOf(ip)){
                 return true;
             }
             
@@ -0,0 +1,84 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.host;
+
+import br.ufpb.di.redes.layers.all.Layer;
+import br.ufpb.di.redes.layers.all.LayerExecutor;
+import br.ufpb.di.redes.layers.datalink.interfaces.DataLink;
+import br.ufpb.di.redes.layers.network.interfaces.Network;
+import br.ufpb.di.redes.layers.transport.interfaces.Transport;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uma pilha completa de uma maquina rodando em HostRunner: um meio fisico
+ * e um enlace por interface, a rede e o transporte.
+ *
+ * @author Thiago
+ */
+public class Host {
+
+    /**Numero da maquina em topology.properties*/
+    public final int id;
+
+    public Transport transport;
+    public Network network;
+    public DataLink datalink[];
+    public MemoryPhysical physical[];
+
+    /**Ip de cada interface, na ordem de datalink*/
+    public int ips[];
+
+    public Host(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Amarra as camadas e faz todas usarem <code>executor</code> para suas
+     * threads de trabalho.
+     */
+    public void attach(LayerExecutor executor) {
+        for (int i = 0; i < physical.length; ++i) {
+            physical[i].setExecutor(executor);
+            physical[i].attach(datalink[i]);
+        }
+
+        for (int i = 0; i < datalink.length; ++i) {
+            datalink[i].setExecutor(executor);
+            datalink[i].attach(network);
+        }
+
+        network.setExecutor(executor);
+        network.attach(transport);
+        //o transporte se amarra sozinho, no construtor
+        transport.setExecutor(executor);
+    }
+
+    public void start() {
+        for (int i = 0; i < physical.length; ++i) {
+            physical[i].start();
+        }
+
+        for (int i = 0; i < datalink.length; ++i) {
+            datalink[i].start();
+        }
+
+        network.start();
+
+        transport.start();
+    }
+
+    /**
+     * Para a pilha inteira, a partir do topo, descartando o que estiver nos
+     * buffers.
+     *
+     * @return <code>false</code> se alguma thread nao terminou no prazo.
+     */
+    public boolean stop(long timeout, TimeUnit unit) {
+        Layer<?, ?> top = transport != null ? transport : network;
+        return top.stop(Layer.StopPolicy.DISCARD, timeout, unit);
+    }
+
+}
@@ -0,0 +1,439 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.host;
+
+import br.ufpb.di.redes.layers.all.BufferPolicy;
+import br.ufpb.di.redes.layers.all.LayerExecutor;
+import br.ufpb.di.redes.layers.all.LayerExecutors;
+import br.ufpb.di.redes.layers.datalink.datalink1.src.DataLink1;
+import br.ufpb.di.redes.layers.datalink.interfaces.DataLink;
+import br.ufpb.di.redes.layers.network.impl.NetworkImpl;
+import br.ufpb.di.redes.layers.network.interfaces.Network;
+import br.ufpb.di.redes.layers.transport.source.TCP;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Roda numa so JVM todas as maquinas de um topology.properties, cada uma com
+ * a pilha de verdade (DataLink1, NetworkImpl e TCP) sobre MemoryPhysical,
+ * com as rotas de um routetable.properties. Os formatos sao os mesmos usados
+ * pelos testes do projeto.
+ * <p/>
+ * Todas as camadas de todas as pilhas tiram suas threads do LayerExecutor
+ * passado ao construtor (por padrao, um pool que cresce conforme a
+ * necessidade). As pilhas sao montadas e iniciadas em paralelo, num pool
+ * proprio; quem quiser usa-las deve esperar awaitReady(). Opcionalmente,
+ * topology.properties pode ter:
+ * <ul>
+ * <li><code>medium.delay</code>: tempo de transmissao de cada quadro, em
+ * milissegundos (padrao: DEFAULT_MEDIUM_DELAY);</li>
+ * <li><code>machine.N.datalink.M.buffer</code>: politica dos buffers do
+ * enlace (vide BufferPolicy.parse()).</li>
+ * </ul>
+ * Escala testada, com main() numa JVM 17: a topologia de 6 maquinas e 2
+ * aneis do projeto (vide HostRunnerTest) e uma gerada com 300 maquinas em
+ * 150 aneis de 2, que fica pronta em cerca de 2 s com cerca de 2100 threads
+ * de plataforma, uma por laco de trabalho. Cada maquina ocupa umas 7
+ * threads, entao topologias maiores esbarram no limite de threads do
+ * sistema antes de qualquer outra coisa. Threads virtuais (vide main())
+ * ainda nao foram medidas.
+ *
+ * @author Thiago
+ */
+public class HostRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(HostRunner.class);
+
+    /**Tempo de transmissao padrao de um quadro, em milissegundos.*/
+    public static final long DEFAULT_MEDIUM_DELAY = 10;
+
+    /**Tamanho dos quadros do meio, em bits, como em CheaterPhysicalLayer.*/
+    private static final int FRAME_SIZE = 16;
+
+    /**Interfaces de um anel, como "maquina.enlace" em topology.properties.*/
+    private static class Ring {
+        final List<Host> hosts = new ArrayList<Host>();
+        final List<Integer> dataLinkIds = new ArrayList<Integer>();
+    }
+
+    private final Properties topology;
+    private final Properties routeTable;
+
+    private final ExecutorService pool;
+    private final LayerExecutor executor;
+
+    private Host hosts[];
+    private Ring rings[];
+
+    private CountDownLatch ready;
+    private final AtomicReference<Throwable> failure =
+            new AtomicReference<Throwable>();
+
+    /**
+     * As camadas usam o mesmo pool da montagem (vide LayerExecutors.shared()).
+     *
+     * @param topology conteudo de topology.properties
+     * @param routeTable conteudo de routetable.properties
+     */
+    public HostRunner(Properties topology, Properties routeTable) {
+        this(topology, routeTable, null);
+    }
+
+    /**
+     * @param topology conteudo de topology.properties
+     * @param routeTable conteudo de routetable.properties
+     * @param executor de onde as camadas de todas as pilhas tiram as threads
+     * dos seus lacos de trabalho, ou <code>null</code> para usar o pool da
+     * montagem. Deve poder rodar todos os lacos ao mesmo tempo.
+     */
+    public HostRunner(Properties topology, Properties routeTable,
+            LayerExecutor executor) {
+        this.topology = topology;
+        this.routeTable = routeTable;
+        this.pool = Executors.newCachedThreadPool(daemonThreads("host-"));
+        this.executor = executor != null ? executor : LayerExecutors.shared(pool);
+    }
+
+    /**
+     * Monta todas as pilhas, em paralelo, e as inicia, tambem em paralelo,
+     * sem esperar que terminem de iniciar.
+     *
+     * @throws IllegalStateException se ja foi chamado.
+     * @throws ExecutionException se a montagem de alguma maquina falhou;
+     * nesse caso, nenhuma foi iniciada.
+     */
+    public synchronized void start() throws InterruptedException, ExecutionException {
+        if (hosts != null)
+            throw new IllegalStateException("Ja iniciado");
+
+        hosts = new Host[intProperty(topology, "machine.count")];
+        rings = new Ring[intProperty(topology, "ring.count")];
+
+        List<Callable<Object>> builds = new ArrayList<Callable<Object>>();
+        for (int i = 0; i < hosts.length; ++i) {
+            final int id = i + 1;
+            builds.add(new Callable<Object>() {
+                public Object call() {
+                    hosts[id - 1] = build(id);
+                    return null;
+                }
+            });
+        }
+        //barreira: o meio e as tabelas precisam de todas as maquinas
+        for (Future<Object> build : pool.invokeAll(builds)) {
+            build.get();
+        }
+
+        initRings();
+        connectMedium();
+        configureRouteAndArpTables();
+
+        ready = new CountDownLatch(hosts.length);
+        for (final Host host : hosts) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        host.start();
+                    } catch (RuntimeException e) {
+                        logger.error("Maquina " + host.id + " nao iniciou", e);
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        ready.countDown();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Espera todas as pilhas terminarem start(). A partir dai, todas as
+     * camadas estao rodando, mas o primeiro token de cada anel pode ainda
+     * estar circulando.
+     *
+     * @return <code>false</code> se o prazo acabou antes.
+     * @throws IllegalStateException se start() nao foi chamado ou se
+     * alguma maquina falhou ao iniciar.
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        CountDownLatch curReady;
+        synchronized (this) {
+            curReady = ready;
+        }
+        if (curReady == null)
+            throw new IllegalStateException("start() nao foi chamado");
+        boolean done = curReady.await(timeout, unit);
+        Throwable error = failure.get();
+        if (error != null)
+            throw new IllegalStateException("Alguma maquina nao iniciou", error);
+        return done;
+    }
+
+    /**
+     * Para todas as pilhas, em paralelo, e desliga o pool.
+     *
+     * @return <code>false</code> se alguma thread nao terminou no prazo.
+     */
+    public synchronized boolean stop(final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        if (hosts == null)
+            return true;
+
+        boolean result = true;
+        List<Callable<Boolean>> stops = new ArrayList<Callable<Boolean>>();
+        for (final Host host : hosts) {
+            if (host != null) {
+                stops.add(new Callable<Boolean>() {
+                    public Boolean call() {
+                        return host.stop(timeout, unit);
+                    }
+                });
+            }
+        }
+        for (Future<Boolean> stop : pool.invokeAll(stops)) {
+            try {
+                result &= stop.get();
+            } catch (ExecutionException e) {
+                logger.error("Erro parando maquina", e.getCause());
+                result = false;
+            }
+        }
+        pool.shutdownNow();
+        return result && pool.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * @return As maquinas, na ordem de topology.properties (a maquina N
+     * esta em N-1), ou <code>null</code> antes de start().
+     */
+    public synchronized Host[] getHosts() {
+        return hosts;
+    }
+
+    /**
+     * @return A maquina <code>id</code> de topology.properties.
+     */
+    public Host getHost(int id) {
+        return getHosts()[id - 1];
+    }
+
+    private Host build(int id) {
+        Host host = new Host(id);
+
+        String datalinkPrefix = String.format("machine.%d.datalink.", id);
+        String networkPrefix = String.format("machine.%d.network.", id);
+        int count = intProperty(topology, datalinkPrefix + "count");
+        long delay = Long.parseLong(topology.getProperty("medium.delay",
+                Long.toString(DEFAULT_MEDIUM_DELAY)).trim());
+
+        host.physical = new MemoryPhysical[count];
+        host.datalink = new DataLink[count];
+        host.ips = new int[count];
+
+        for (int i = 0; i < count; ++i) {
+            String currentDatalinkPrefix = datalinkPrefix + (i + 1) + ".";
+            int mac = intProperty(topology, currentDatalinkPrefix + "mac");
+
+            host.physical[i] = new MemoryPhysical(FRAME_SIZE, FRAME_SIZE);
+            host.physical[i].setDelay(delay, TimeUnit.MILLISECONDS);
+            host.datalink[i] = new DataLink1(host.physical[i], i, mac);
+
+            String buffer = topology.getProperty(currentDatalinkPrefix + "buffer");
+            if (buffer != null) {
+                BufferPolicy policy = BufferPolicy.parse(buffer);
+                host.datalink[i].setSendBufferPolicy(policy);
+                host.datalink[i].setReceivedBufferPolicy(policy);
+            }
+
+            host.ips[i] = intProperty(topology, networkPrefix + "ip." + (i + 1));
+        }
+
+        host.network = new NetworkImpl(host.datalink, host.ips, 80);
+        host.transport = new TCP(host.network);
+        host.attach(executor);
+
+        return host;
+    }
+
+    private void initRings() {
+        for (int i = 0; i < rings.length; ++i) {
+            rings[i] = new Ring();
+            for (String member : topology.getProperty("ring." + (i + 1)).split("[,]")) {
+                int interfaceId[] = parseInterface(member);
+                rings[i].hosts.add(hosts[interfaceId[0]]);
+                rings[i].dataLinkIds.add(interfaceId[1]);
+            }
+        }
+    }
+
+    private void connectMedium() {
+        for (Host host : hosts) {
+            for (int j = 0; j < host.physical.length; ++j) {
+                String out = topology.getProperty(
+                        "machine." + host.id + ".datalink." + (j + 1) + ".out");
+                int interfaceId[] = parseInterface(out);
+                host.physical[j].connectTo(hosts[interfaceId[0]].physical[interfaceId[1]]);
+            }
+        }
+    }
+
+    private void configureRouteAndArpTables() {
+        for (Host host : hosts) {
+            Network network = host.network;
+
+            String rawRoutes = routeTable.getProperty(
+                    String.format("machine.%d.routes", host.id), "");
+            for (String route : rawRoutes.split("[,]")) {
+                if (route.trim().length() > 0) {
+                    String splitRoute[] = route.trim().split("[-][>]");
+                    network.putRouteEntry(new Integer(splitRoute[0]),
+                            new Integer(splitRoute[1]));
+                }
+            }
+
+            network.putDefaultRoute(intProperty(routeTable,
+                    String.format("machine.%d.defaultroute", host.id)));
+        }
+
+        //cada interface conhece todas as outras do seu anel
+        for (Ring ring : rings) {
+            for (int j = 0; j < ring.hosts.size(); ++j) {
+                Network network = ring.hosts.get(j).network;
+                int dl_id = ring.dataLinkIds.get(j);
+
+                for (int k = 0; k < ring.hosts.size(); ++k) {
+                    Host other = ring.hosts.get(k);
+                    int otherDl = ring.dataLinkIds.get(k);
+                    int ip = other.ips[otherDl];
+
+                    network.putArpEntry(ip, dl_id, other.datalink[otherDl].getMac());
+                    network.putRouteEntry(ip, ip);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param raw "maquina.enlace", contando a partir de 1
+     * @return Indices, contando a partir de 0, da maquina e do enlace.
+     */
+    private static int[] parseInterface(String raw) {
+        String split[] = raw.trim().split("[.]");
+        return new int[] {
+            new Integer(split[0]) - 1,
+            new Integer(split[1]) - 1
+        };
+    }
+
+    private static int intProperty(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null)
+            throw new IllegalArgumentException("Faltando " + key);
+        return new Integer(value.trim());
+    }
+
+    /**
+     * @return Fabrica de threads de plataforma que nao seguram a JVM aberta,
+     * chamadas <code>prefix</code> seguido de um numero.
+     */
+    private static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * @return A fabrica de threads virtuais da JVM, obtida por reflexao para
+     * o projeto continuar compilando em versoes sem elas.
+     * @throws UnsupportedOperationException se a JVM nao tiver threads
+     * virtuais.
+     */
+    private static ThreadFactory virtualThreads() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException(
+                    "Esta JVM nao tem threads virtuais", e);
+        }
+    }
+
+    private static Properties load(String file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    /**
+     * Sobe a topologia e informa quanto tempo levou. As pilhas ficam rodando
+     * ate a entrada padrao ser fechada (ou receber uma linha).
+     *
+     * @param args topology.properties, routetable.properties e o tipo das
+     * threads das camadas: <code>platform</code> (o padrao) ou
+     * <code>virtual</code>, em JVMs que as tenham. Os arquivos padrao sao os
+     * do diretorio atual.
+     */
+    public static void main(String[] args) throws Exception {
+        String topologyFile = args.length > 0 ? args[0] : "topology.properties";
+        String routeTableFile = args.length > 1 ? args[1] : "routetable.properties";
+        String threads = args.length > 2 ? args[2] : "platform";
+
+        ThreadFactory factory;
+        if (threads.equals("virtual"))
+            factory = virtualThreads();
+        else if (threads.equals("platform"))
+            factory = daemonThreads("layer-");
+        else
+            throw new IllegalArgumentException("threads = " + threads);
+
+        HostRunner runner = new HostRunner(load(topologyFile),
+                load(routeTableFile), LayerExecutors.fromThreadFactory(factory));
+
+        long begin = System.nanoTime();
+        runner.start();
+        if (!runner.awaitReady(60, TimeUnit.SECONDS)) {
+            System.err.println("Topologia nao ficou pronta em 60s");
+        } else {
+            System.out.printf("%d maquinas prontas em %d ms, %d threads%n",
+                    runner.getHosts().length,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin),
+                    Thread.activeCount());
+        }
+
+        System.in.read();
+
+        if (!runner.stop(10, TimeUnit.SECONDS))
+            System.err.println("Algumas threads nao pararam no prazo");
+    }
+
+}
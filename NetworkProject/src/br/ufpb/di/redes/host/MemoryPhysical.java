@@ -0,0 +1,83 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.host;
+
+import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.physical.interfaces.Physical;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meio fisico em memoria: cada quadro enviado e' entregue a proxima entidade
+ * do anel (vide connectTo()), depois de um atraso que simula o tempo de
+ * transmissao. Serve para rodar muitas pilhas numa mesma JVM, sem placa de
+ * som.
+ *
+ * @author Thiago
+ */
+public class MemoryPhysical extends Physical {
+
+    private final int minPacketSize;
+    private final int maxPacketSize;
+
+    private volatile MemoryPhysical forward;
+
+    private volatile long delayNanos;
+
+    /**
+     * @param minPacketSize tamanho minimo do quadro, em bits
+     * @param maxPacketSize tamanho maximo do quadro, em bits
+     */
+    public MemoryPhysical(int minPacketSize, int maxPacketSize) {
+        this.minPacketSize = minPacketSize;
+        this.maxPacketSize = maxPacketSize;
+    }
+
+    /**
+     * Define quem recebe os quadros enviados por esta entidade. Deve ser
+     * chamado antes de start().
+     */
+    public void connectTo(MemoryPhysical next) {
+        this.forward = next;
+    }
+
+    /**
+     * Define o tempo de transmissao de cada quadro. Sem atraso, o token do
+     * enlace circula sem parar e ocupa um processador por anel.
+     */
+    public void setDelay(long delay, TimeUnit unit) {
+        if (delay < 0)
+            throw new IllegalArgumentException("delay = " + delay);
+        this.delayNanos = unit.toNanos(delay);
+    }
+
+    @Override
+    protected void processSentData(InterlayerData data) {
+        long delay = delayNanos;
+        if (delay > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException ex) {
+                //parando: o quadro se perde, como num meio fisico desligado
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        MemoryPhysical next = forward;
+        if (next != null)
+            next.bubbleUp(data);
+    }
+
+    @Override
+    public int minPacketSize() {
+        return minPacketSize;
+    }
+
+    @Override
+    public int maxPacketSize() {
+        return maxPacketSize;
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package br.ufpb.di.redes.host.test;
+
+import br.ufpb.di.redes.host.Host;
+import br.ufpb.di.redes.host.HostRunner;
+import br.ufpb.di.redes.layers.all.LayerExecutors;
+import br.ufpb.di.redes.layers.transport.interfaces.Connection;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.util.Properties;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author Thiago
+ */
+public class HostRunnerTest extends TestCase {
+
+    private HostRunner runner;
+    private Properties topology;
+    private Properties routeTable;
+
+    @Override
+    public void setUp() throws Exception {
+        topology = new Properties();
+        topology.load(new FileInputStream("topology.properties"));
+        routeTable = new Properties();
+        routeTable.load(new FileInputStream("routetable.properties"));
+
+        runner = new HostRunner(topology, routeTable);
+        runner.start();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        assertTrue(runner.stop(5, TimeUnit.SECONDS));
+    }
+
+    public void testWiring() throws Exception {
+        assertTrue(runner.awaitReady(10, TimeUnit.SECONDS));
+
+        Host hosts[] = runner.getHosts();
+        assertEquals(6, hosts.length);
+        //a maquina 3 e' gateway entre os aneis 1 e 2
+        Host gateway = runner.getHost(3);
+        assertEquals(2, gateway.datalink.length);
+        assertEquals(2, gateway.ips[0]);
+        assertEquals(4, gateway.ips[1]);
+        for (Host host : hosts) {
+            assertNotNull(host.transport);
+        }
+    }
+
+    public void testCustomExecutor() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        HostRunner custom = new HostRunner(topology, routeTable,
+                LayerExecutors.fromThreadFactory(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                created.incrementAndGet();
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+        custom.start();
+        try {
+            assertTrue(custom.awaitReady(10, TimeUnit.SECONDS));
+            //ao menos enlace, rede e transporte de cada maquina
+            assertTrue(String.valueOf(created.get()), created.get() >= 6 * 3);
+        } finally {
+            assertTrue(custom.stop(5, TimeUnit.SECONDS));
+        }
+    }
+
+    public void testAcrossRings() throws Exception {
+        assertTrue(runner.awaitReady(10, TimeUnit.SECONDS));
+
+        final Host server = runner.getHost(1);
+        Host client = runner.getHost(6);
+        final Connection accepted[] = new Connection[1];
+        Thread listener = new Thread() {
+            @Override
+            public void run() {
+                accepted[0] = server.transport.listen(0);
+            }
+        };
+        listener.start();
+        Thread.sleep(100);
+
+        Connection connection = client.transport.connect(server.ips[0], 0);
+        listener.join(30000);
+        assertNotNull(accepted[0]);
+
+        new DataOutputStream(connection.getOutputStream()).writeUTF("Ola pessoal.");
+        assertEquals("Ola pessoal.",
+                new DataInputStream(accepted[0].getInputStream()).readUTF());
+        connection.close();
+    }
+
+}
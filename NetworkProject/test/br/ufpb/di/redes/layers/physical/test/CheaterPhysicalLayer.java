@@ -35,7 +35,9 @@ public class CheaterPhysicalLayer extends Physical {
         try {
             Thread.sleep(100L);
         } catch (InterruptedException ex) {
-            logger.warn("Opa.", ex);
+            //parando: o quadro se perde, como num meio fisico desligado
+            Thread.currentThread().interrupt();
+            return;
         }
         forward.fakeReceived(data);
     }
@@ -5,6 +5,7 @@
 
 package br.ufpb.di.redes.layers.tests;
 
+import br.ufpb.di.redes.layers.all.BufferPolicy;
 import br.ufpb.di.redes.layers.datalink.interfaces.DataLink;
 import br.ufpb.di.redes.layers.datalink.test.CheaterDataLink;
 import br.ufpb.di.redes.layers.network.interfaces.Network;
@@ -69,6 +70,13 @@ public class DefaultTest extends TestCase {
     }
 
     public void tearDown() throws Exception {
+        Machine machines[] = interNetwork.allMachines;
+        for (int i = 0; i < machines.length; ++i) {
+            if (!machines[i].doStops()) {
+                Logger.getLogger(DefaultTest.class.getName()).log(Level.WARNING,
+                        "Maquina {0} nao parou no prazo", i+1);
+            }
+        }
         interNetwork.allMachines = null;
         interNetwork.networks = null;
     }
@@ -100,6 +108,14 @@ public class DefaultTest extends TestCase {
 
             machine.physical[i] = getPhysicalLayer(machineId);
             machine.datalink[i] = getDataLinkLayer(machineId, i, machine.physical[i], mac);
+
+            //opcional: tamanho e politica dos buffers deste enlace
+            String buffer = topology.getProperty(currentDatalinkPrefix+"buffer");
+            if (buffer != null) {
+                BufferPolicy policy = BufferPolicy.parse(buffer);
+                machine.datalink[i].setSendBufferPolicy(policy);
+                machine.datalink[i].setReceivedBufferPolicy(policy);
+            }
         }
 
     }
@@ -5,11 +5,13 @@
 
 package br.ufpb.di.redes.layers.tests;
 
+import br.ufpb.di.redes.layers.all.Layer;
 import br.ufpb.di.redes.layers.datalink.interfaces.DataLink;
 import br.ufpb.di.redes.layers.network.interfaces.Network;
 import br.ufpb.di.redes.layers.physical.interfaces.Physical;
 import br.ufpb.di.redes.layers.physical.test.CheaterPhysicalLayer;
 import br.ufpb.di.redes.layers.transport.interfaces.Transport;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -52,4 +54,15 @@ public class Machine {
 
     }
 
+    /**
+     * Para a pilha inteira, a partir do topo, descartando o que estiver nos
+     * buffers.
+     *
+     * @return <code>false</code> se alguma thread nao terminou no prazo.
+     */
+    public boolean doStops() {
+        Layer<?, ?> top = transport != null ? transport : network;
+        return top.stop(Layer.StopPolicy.DISCARD, 2, TimeUnit.SECONDS);
+    }
+
 }
@@ -45,6 +45,19 @@ public class CaptadorDeSom{
          ******/
     }
 
+    /****
+     *
+     * fecha(): libera a linha de captura. Depois disso, o captador nao pode
+     *          mais ser usado.
+     *
+     ****/
+    public void fecha() {
+        if (linha != null) {
+            linha.stop();
+            linha.close();
+        }
+    }
+
     public byte[] captaMensagem() {
 
         int max = 0;
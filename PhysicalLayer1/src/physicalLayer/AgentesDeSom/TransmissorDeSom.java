@@ -7,6 +7,8 @@ package physicalLayer.AgentesDeSom;
 import physicalLayer.Sinal.Sinal;
 import physicalLayer.UteisSom.Som;
 import br.ufpb.di.redes.layers.all.InterlayerData;
+import java.util.Arrays;
+import java.util.List;
 import javax.sound.sampled.SourceDataLine;
 
 /**
@@ -17,8 +19,77 @@ public class TransmissorDeSom {
     
     SourceDataLine linha = null;/*Linha por onde o sinal e lido da caixa de som*/
 
+    /*Linha que fica aberta entre os quadros no modo continuo; aberta no
+      primeiro envio e fechada por fecha()*/
+    private SourceDataLine linhaContinua = null;
+
+    /*Vide setContinuo()*/
+    private volatile boolean continuo = false;
+
     //byte[] abData = new byte[Sinal.QUANTIDADEAMOSTRAPORSINAL * Sinal.QUANTIDADEDESINAIS];
-    static byte[] bitSinalizador = new byte[Sinal.QUANTIDADEAMOSTRAPORSINAL];
+
+    /*Onda do bit sinalizador, igual para todos os quadros*/
+    static final byte[] BITSINALIZADOR = new byte[Sinal.QUANTIDADEAMOSTRAPORSINAL];
+
+    static {
+        Sinal.escreveUm(BITSINALIZADOR, 0);
+    }
+
+    /*Silencio entre o bit sinalizador e a mensagem, em amostras*/
+    static final int SILENCIO = 3 * Sinal.QUANTIDADEAMOSTRAPORSINAL;
+
+    /*Tamanho do sinal completo de um quadro, em amostras*/
+    static final int TAMANHOQUADRO = BITSINALIZADOR.length + SILENCIO
+            + Sinal.QUANTIDADEAMOSTRAPORSINAL * Sinal.QUANTIDADEDESINAIS;
+
+    /*Bits do quadro sendo montado, com as marcas de inicio e fim*/
+    private final byte[] bits = new byte[Sinal.QUANTIDADEDESINAIS];
+
+    /*Onde os quadros sao montados, com a pausa depois deles; reaproveitado
+      entre os envios*/
+    private byte[] onda = new byte[TAMANHOQUADRO + PAUSAENTREQUADROS];
+
+    /*******
+     *
+     * setContinuo(): escolhe como os quadros sao escritos.
+     *
+     *   No modo continuo, uma mesma linha de som fica aberta e cada quadro
+     *   e' escrito nela seguido da pausa entre quadros, em silencio. O envio
+     *   so espera quando o buffer da linha enche. Ainda nao foi medido num
+     *   enlace de verdade, por isso fica desligado por padrao.
+     *
+     *   Fora dele (o padrao), cada envio abre a linha, escreve o quadro,
+     *   espera ele tocar (drain), fecha a linha e dorme PAUSAENTREQUADROSMS.
+     *
+     * Argumentos: continuo(entrada) - true para o modo continuo
+     *
+     ****/
+    public void setContinuo(boolean continuo) {
+        this.continuo = continuo;
+        if (!continuo) {
+            fecha();
+        }
+    }
+
+    /****
+     *
+     * fecha(): espera o som ja escrito no modo continuo terminar de tocar e
+     *          fecha a linha. Um novo envio abre outra.
+     *
+     ****/
+    public synchronized void fecha() {
+        if (linhaContinua != null) {
+            linhaContinua.drain();
+            linhaContinua.close();
+            linhaContinua = null;
+        }
+    }
+
+    /*Pausa depois de cada quadro, para o captador se preparar para o proximo*/
+    static final int PAUSAENTREQUADROSMS = 30;
+
+    /*A mesma pausa, em amostras (48000 amostras de um byte por segundo)*/
+    static final int PAUSAENTREQUADROS = 48000 * PAUSAENTREQUADROSMS / 1000;
 
 
   
@@ -115,8 +186,29 @@ public class TransmissorDeSom {
      *
      ****/
     public void enviaSom(byte[] onda) {
+        enviaSom(onda, onda.length);
+    }
+
+    /*Escreve as primeiras "comprimento" amostras na linha do modo continuo,
+      sem esperar tocarem*/
+    private synchronized void escreveContinuo(byte[] onda, int comprimento) {
+        if (linhaContinua == null) {
+            linhaContinua = Som.openLineToWrite(48000, 8, 1, true, false);
+        }
+        try {
+            linhaContinua.write(onda, 0, comprimento);
+        } catch (RuntimeException e) {
+            /*a linha pode ter ficado inutilizavel: o proximo envio abre outra*/
+            linhaContinua.close();
+            linhaContinua = null;
+            throw e;
+        }
+    }
+
+    /*Como enviaSom(onda), mas so as primeiras "comprimento" amostras*/
+    private void enviaSom(byte[] onda, int comprimento) {
         linha = Som.openLineToWrite(48000, 8, 1, true, false);
-        linha.write(onda, 0, onda.length);
+        linha.write(onda, 0, comprimento);
         linha.drain();
         linha.close();
     }
@@ -125,40 +217,97 @@ public class TransmissorDeSom {
     {
        int comprimento = Sinal.QUANTIDADEDESINAIS-4;
 
-        byte[] resultado = new byte[comprimento+4];
+        byte[] resultado = bits;
         resultado[0] = 1;
         resultado[1] = 1;
         resultado[18] = 1;
         resultado[19] = 1;
 
+        data.takeBitBytes(0, resultado, 2, comprimento);
 
-        for (int i = 0; i < comprimento; i++) {
-            if (data.getBit(i)) {
-                resultado[i+2] = 1;
+        return resultado;
+    }
+
+    /**
+     * Monta o sinal completo de um quadro em destino, a partir de pos: bit
+     * sinalizador, silencio e a onda da mensagem. Sao TAMANHOQUADRO
+     * amostras, todas copiadas de ondas prontas.
+     */
+    private void montaQuadro(InterlayerData data, byte[] destino, int pos) {
+        System.arraycopy(BITSINALIZADOR, 0, destino, pos, BITSINALIZADOR.length);
+        pos += BITSINALIZADOR.length;
+        Arrays.fill(destino, pos, pos + SILENCIO, (byte) 0);
+        pos += SILENCIO;
+
+        byte[] mens = converteInterlayerDataParaBytes(data);
+        for (int i = 0; i < mens.length; i++) {
+            if (mens[i] == 1) {
+                Sinal.escreveUm(destino, pos);
             } else {
-                resultado[i+2] = 0;
+                Sinal.escreveZero(destino, pos);
             }
+            pos += Sinal.QUANTIDADEAMOSTRAPORSINAL;
         }
-
-        return resultado;
     }
-
    
     public void enviaMensagem(InterlayerData data) {
         
-        byte[] abData = new byte[Sinal.QUANTIDADEAMOSTRAPORSINAL * Sinal.QUANTIDADEDESINAIS];
-        byte[] mensBitSinalizador = Sinal.converteStringParaBytes("1");/*COntem a mensagem do bit sinalizador*/
-        
         try {
 
-           constroiOndaCompleta(converteInterlayerDataParaBytes(data), abData);
-            criaBitSinalizador(mensBitSinalizador, bitSinalizador);
+            montaQuadro(data, onda, 0);
+            if (continuo) {
+                Arrays.fill(onda, TAMANHOQUADRO, TAMANHOQUADRO + PAUSAENTREQUADROS, (byte) 0);
+                escreveContinuo(onda, TAMANHOQUADRO + PAUSAENTREQUADROS);
+            } else {
+                enviaSom(onda, TAMANHOQUADRO);
+                Thread.sleep(PAUSAENTREQUADROSMS);
+            }
+            
+        } catch (Exception ex) {
+            ex.printStackTrace();
 
-            byte[] m = montaSinal(bitSinalizador, 3 * Sinal.QUANTIDADEAMOSTRAPORSINAL, abData);
+        }
+    }
+
+    /*******
+     *
+     * enviaMensagens(): envia varios quadros abrindo a linha de som uma vez
+     *                   so (ou, no modo continuo, na linha que ja esta
+     *                   aberta). Entre os quadros e' escrito o mesmo silencio
+     *                   que enviaMensagem() espera depois de cada quadro.
+     *
+     * Argumentos: dados(entrada) - quadros a serem transmitidos, em ordem
+     *
+     * Retorno: nenhum
+     *
+     ****/
+    public void enviaMensagens(List<InterlayerData> dados) {
+        if (dados.size() == 1) {
+            enviaMensagem(dados.get(0));
+            return;
+        }
+
+        try {
+
+            int total = dados.size() * (TAMANHOQUADRO + PAUSAENTREQUADROS);
+            if (onda.length < total) {
+                onda = new byte[total];
+            }
+
+            int pos = 0;
+            for (InterlayerData data : dados) {
+                montaQuadro(data, onda, pos);
+                pos += TAMANHOQUADRO;
+                Arrays.fill(onda, pos, pos + PAUSAENTREQUADROS, (byte) 0);
+                pos += PAUSAENTREQUADROS;
+            }
+
+            if (continuo) {
+                escreveContinuo(onda, total);
+            } else {
+                enviaSom(onda, total);
+            }
 
-            enviaSom(m);
-            Thread.sleep(30);
-            
         } catch (Exception ex) {
             ex.printStackTrace();
 
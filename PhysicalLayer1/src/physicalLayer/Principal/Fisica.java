@@ -8,7 +8,10 @@ import physicalLayer.AgentesDeSom.CaptadorDeSom;
 import physicalLayer.AgentesDeSom.TransmissorDeSom;
 import physicalLayer.Sinal.Sinal;
 import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.all.InterlayerDataPool;
 import br.ufpb.di.redes.layers.physical.interfaces.Physical;
+import java.util.List;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,10 +25,35 @@ public class Fisica extends Physical{
     TransmissorDeSom transmite = new TransmissorDeSom();
     CaptadorDeSom capta = new CaptadorDeSom();
     
-    private Thread capturaThread;
+    private Future<?> capturaThread;
     
     private static final Logger logger = LoggerFactory.getLogger(Fisica.class);    
 
+    /**
+     * Reserva de onde saem os quadros captados. Se for null, cada quadro
+     * captado e' criado com new.
+     */
+    private volatile InterlayerDataPool pool;
+
+    /**
+     * Passa a criar os quadros captados a partir de uma reserva. Quadros
+     * transmitidos sao devolvidos a reserva de origem depois de enviados.
+     *
+     * @param pool a reserva, ou null para voltar a criar quadros com new.
+     */
+    public void setPool(InterlayerDataPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Escolhe se a linha de som fica aberta entre os quadros, que sao
+     * escritos um atras do outro, ou se e' aberta e fechada a cada envio
+     * (o padrao). Vide TransmissorDeSom.setContinuo().
+     */
+    public void setTransmissaoContinua(boolean continua) {
+        transmite.setContinuo(continua);
+    }
+
     @Override
     public void start()
     {
@@ -54,6 +82,30 @@ public class Fisica extends Physical{
     @Override
     protected void processSentData(InterlayerData data) {
         transmite.enviaMensagem(data);
+        InterlayerDataPool.recycle(data);
+    }
+
+    /**
+     * Escreve todos os quadros do lote na linha de som de uma vez (vide
+     * setMaxBatchSize()).
+     */
+    @Override
+    protected void processSentBatch(List<InterlayerData> batch) {
+        transmite.enviaMensagens(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            InterlayerDataPool.recycle(batch.get(i));
+        }
+    }
+
+    /**
+     * Fecha as linhas de captura e de transmissao, depois que as threads
+     * terminaram. O que ja foi escrito na linha de transmissao ainda toca.
+     */
+    @Override
+    protected void release() {
+        capta.fecha();
+        transmite.fecha();
+        super.release();
     }
 
     @Override
@@ -67,20 +119,17 @@ public class Fisica extends Physical{
     }
 
     private void iniciaCaptura() {
-        capturaThread = new Thread() {
-            @Override
+        capturaThread = startWorker(getName() + ":captura", new Runnable() {
             public void run() {
 
                 byte[] bytes;
-                boolean b = true;
 
                 InterlayerData data;
 
                 logger.info("Thread de recebimento iniciada.");
 
-                while(b)
+                while(!Thread.currentThread().isInterrupted())
                 {
-                    data = new InterlayerData(16);
                     bytes = capta.captaMensagem();
 
                     if(bytes == null)
@@ -93,16 +142,11 @@ public class Fisica extends Physical{
                     }
                     else
                     {
-                        for(int i = 2; i < bytes.length-2; i++)
-                        {
-                            if (bytes[i] == 1) {
-                                data.setBit(i-2);
-                            }
-                            else
-                            {
-                                data.clearBit(i-2);
-                            }
-                        }
+                        InterlayerDataPool curPool = pool;
+                        data = curPool == null ? new InterlayerData(16) : curPool.acquire(16);
+
+                        //os dois primeiros e os dois ultimos sinais sao marcadores
+                        data.putBitBytes(0, bytes, 2, bytes.length-4);
 
                         bubbleUp(data);
                     }
@@ -110,7 +154,6 @@ public class Fisica extends Physical{
 
                 logger.info("Thread de recebimento interrompida.");
             }
-        };
-        capturaThread.start();
+        });
     }
 }
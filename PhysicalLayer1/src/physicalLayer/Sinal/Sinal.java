@@ -46,6 +46,14 @@ public class Sinal {
     private static final int ZERO = 2;
     private static final int UM = 8;
 
+    /**
+     * ONDAZERO, ONDAUM: as ondas de cada bit, calculadas uma vez so.
+     * escreveZero() e escreveUm() apenas as copiam.
+     *
+     ***/
+    private static final byte[] ONDAZERO = criaOnda(ZERO);
+    private static final byte[] ONDAUM = criaOnda(UM);
+
     /**
      * escreveOndaSenoide(): escreve uma onda senoide. O valor que determina
      *                      quem vai parar no zero é o angulo e nao o tamanho
@@ -90,6 +98,12 @@ public class Sinal {
     }
 
     
+    private static byte[] criaOnda(int frequencia) {
+        byte[] onda = new byte[QUANTIDADEAMOSTRAPORSINAL];
+        escreveOndaSenoide(onda, 0, frequencia, AMPLITUDE);
+        return onda;
+    }
+
     /****
      *
      * escreveZero():  escreve um "bit zero" nao onda
@@ -100,7 +114,7 @@ public class Sinal {
      *
      ****/
     public static void escreveZero(byte[] simbolo, int offset) {
-        escreveOndaSenoide(simbolo, offset, ZERO, AMPLITUDE);
+        System.arraycopy(ONDAZERO, 0, simbolo, offset, QUANTIDADEAMOSTRAPORSINAL);
     }
 
     /****
@@ -113,7 +127,7 @@ public class Sinal {
      *
      ****/
     public static void escreveUm(byte[] simbolo, int offset) {
-        escreveOndaSenoide(simbolo, offset, UM, AMPLITUDE);
+        System.arraycopy(ONDAUM, 0, simbolo, offset, QUANTIDADEAMOSTRAPORSINAL);
     }
 
     public static byte[] converteStringParaBytes(String a) {
@@ -6,11 +6,16 @@
 package br.ufpb.di.redes.layers.transport.source;
 
 import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.all.PacketTrace;
+import br.ufpb.di.redes.layers.all.PacketTrace.Direction;
+import br.ufpb.di.redes.layers.all.PacketTrace.Stage;
+import br.ufpb.di.redes.layers.all.Tracing;
 import br.ufpb.di.redes.layers.transport.interfaces.Connection;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -42,8 +47,7 @@ public class ConnectionState {
         this.tcp = tcp;
         seqNumber = "1";
         
-        sendThread = new Thread(new SenderThread());
-        sendThread.start();
+        sendThread = tcp.startConnectionThread(new SenderThread());
         
     }
     
@@ -53,12 +57,14 @@ public class ConnectionState {
     volatile public ThreeWaysHandshake handshake;
     volatile public ThreeWaysHandshakeClose handshakeClose;
     volatile public PacketTCP lastPacket;
+    /** Bits do ultimo pacote de dados aceito, para descartar retransmissoes. */
+    volatile public InterlayerData lastDataReceived;
     volatile public ArrayBlockingQueue<Byte> toSend;
     volatile public PacketTCP waitingAck;
     volatile public InterlayerData waitingAckData;
     volatile public String seqNumber;
     
-    public final Thread sendThread;
+    public final Future<?> sendThread;
     
     volatile public ConnectionState next_hop_CONNECT_2;
     
@@ -74,6 +80,10 @@ public class ConnectionState {
                     break;
                 }
                 
+                /* O rastro comeca no primeiro octeto, para medir a espera pelos demais. */
+                PacketTrace trace = Tracing.start(tcp.getName());
+                trace(trace, Stage.ENQUEUED);
+                
                 long initialTime, finalTime, ellapsed;
                 
                 initialTime = System.currentTimeMillis();
@@ -89,6 +99,7 @@ public class ConnectionState {
                         next = toSend.poll(Math.abs(IConstants.PACKET_WAIT_TIMEOUT - ellapsed), TimeUnit.MILLISECONDS);
                     } catch (InterruptedException ex) {
                         Logger.getLogger(ConnectionState.class.getName()).log(Level.SEVERE, null, ex);
+                        Thread.currentThread().interrupt();
                     }
                     
                     if (next == null) {
@@ -101,17 +112,28 @@ public class ConnectionState {
                     
                 }
                 
-                tcp.send(con, data);
+                trace(trace, Stage.DEQUEUED);
+                tcp.send(con, data, trace);
+                /* Aqui o ACK ja chegou. */
+                trace(trace, Stage.DONE);
                 
             }
         }
         
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        sendThread.interrupt();
-        super.finalize();
+    private void trace(PacketTrace trace, Stage stage) {
+        if (trace != null)
+            trace.record("ConnectionState", tcp.getName() + ":" + con.localPort,
+                    Direction.DOWN, stage);
+    }
+
+    /**
+     * Interrompe a thread de envio desta conexao. Chamado quando a conexao
+     * e' encerrada ou quando a entidade TCP e' parada.
+     */
+    public void stop() {
+        sendThread.cancel(true);
     }
     
     
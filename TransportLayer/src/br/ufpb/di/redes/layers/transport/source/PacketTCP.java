@@ -5,6 +5,8 @@
 
 package br.ufpb.di.redes.layers.transport.source;
 
+import br.ufpb.di.redes.layers.all.BitReader;
+import br.ufpb.di.redes.layers.all.HeaderLayout;
 import br.ufpb.di.redes.layers.all.InterlayerData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +19,19 @@ public class PacketTCP implements IConstants {
 
     private static final Logger logger = LoggerFactory.getLogger(PacketTCP.class);
 
+    /**
+     * Formato do cabecalho, na ordem em que os campos vao para a rede.
+     */
+    private static final HeaderLayout HEADER = new HeaderLayout();
+    private static final HeaderLayout.Field PORT_LOCAL = HEADER.add("portLocal", NUM_BITS_MAX_PORT);
+    private static final HeaderLayout.Field PORT_REMOTE = HEADER.add("portRemote", NUM_BITS_MAX_PORT);
+    private static final HeaderLayout.Field SEQUENCE_NUMBER = HEADER.add("sequenceNumber", NUM_BITS_MAX_SEQNUMBER);
+    private static final HeaderLayout.Field ACK_NUMBER = HEADER.add("ackNumber", NUM_BITS_MAX_ACKNUMBER);
+    private static final HeaderLayout.Field WINDOW_SIZE = HEADER.add("windowSize", NUM_BITS_MAX_WINDOW);
+    private static final HeaderLayout.Field ACK_FLAG = HEADER.add("ACK", 1);
+    private static final HeaderLayout.Field SYN_FLAG = HEADER.add("SYN", 1);
+    private static final HeaderLayout.Field FIN_FLAG = HEADER.add("FIN", 1);
+
     private String portLocal;
     private String portRemote;
     private String sequenceNumber;
@@ -29,6 +44,13 @@ public class PacketTCP implements IConstants {
 
     private String data;
 
+    /**
+     * Dados ja em bits, quando o pacote foi montado a partir de bytes ou
+     * recebido da rede. Nesse caso <code>data</code> so e' montado se alguem
+     * pedir getData().
+     */
+    private InterlayerData payload;
+
     public PacketTCP(String portLocal, String portRemote, String data) {
         this.portLocal = portLocal;
         this.portRemote = portRemote;
@@ -43,6 +65,15 @@ public class PacketTCP implements IConstants {
         this.data = data;
     }
 
+    /**
+     * Monta um pacote de dados a partir dos bytes a enviar, sem passar pela
+     * cadeia de 0s e 1s.
+     */
+    public PacketTCP(String portLocal, String portRemote, byte payload[]) {
+        this(portLocal, portRemote, (String) null);
+        this.payload = InterlayerData.fromBytes(payload);
+    }
+
     public PacketTCP(String stream) {
         logger.debug(stream);
         int initial = 0, last = NUM_BITS_MAX_PORT;
@@ -78,22 +109,115 @@ public class PacketTCP implements IConstants {
         }
     }
 
+    /**
+     * Monta o pacote lendo os campos diretamente dos bits recebidos, em uma
+     * unica passada, sem montar antes a cadeia de 0s e 1s inteira.
+     *
+     * @param packet bits do pacote, cabecalho seguido dos dados.
+     */
+    public PacketTCP(InterlayerData packet) {
+        logger.debug("{}", packet);
+
+        this.portLocal = readField(packet, PORT_LOCAL);
+        this.portRemote = readField(packet, PORT_REMOTE);
+        this.sequenceNumber = readField(packet, SEQUENCE_NUMBER);
+        this.ackNumber = readField(packet, ACK_NUMBER);
+        this.windowSize = readField(packet, WINDOW_SIZE);
+
+        this.ACK = readField(packet, ACK_FLAG);
+        this.SYN = readField(packet, SYN_FLAG);
+        this.FIN = readField(packet, FIN_FLAG);
+
+        this.payload = packet.slice(HEADER.length(), packet.length - HEADER.length());
+    }
+
+    /**
+     * Le um campo do cabecalho como uma cadeia de 0s e 1s.
+     */
+    private static String readField(InterlayerData packet, HeaderLayout.Field field) {
+        StringBuilder sb = new StringBuilder(field.getWidth());
+        appendBits(sb, field.get(packet), field.getWidth());
+        return sb.toString();
+    }
+
+    private static void appendBits(StringBuilder sb, int value, int len) {
+        for (int i = len - 1; i >= 0; --i) {
+            sb.append((value >>> i & 1) == 1 ? '1' : '0');
+        }
+    }
+
+    /**
+     * @return os bits de <code>bits</code> como uma cadeia de 0s e 1s.
+     */
+    private static String toBitString(InterlayerData bits) {
+        BitReader reader = new BitReader(bits);
+        StringBuilder sb = new StringBuilder(bits.length);
+        while (reader.remaining() > 0) {
+            int len = Math.min(32, reader.remaining());
+            appendBits(sb, reader.read(len), len);
+        }
+        return sb.toString();
+    }
+
+    private String headerString() {
+        return portLocal + portRemote + sequenceNumber + ackNumber +
+                windowSize + ACK + SYN + FIN;
+    }
+
     @Override
    public String toString() {
-        return (portLocal + portRemote + sequenceNumber + ackNumber +
-                windowSize + ACK + SYN + FIN + data);
+        return (headerString() + getData());
     }
     
     public InterlayerData getInterlayerData () {
-        String asString = toString();
-        InterlayerData result = new InterlayerData(asString.length());
-        for (int i = 0; i < asString.length(); ++i) {
-            if (asString.charAt(i) == '1') {
-                result.setBit(i);
+        return getInterlayerData(0);
+    }
+
+    /**
+     * Monta o pacote reservando <code>headroom</code> bits antes dele, para
+     * os cabecalhos das camadas de baixo.
+     */
+    public InterlayerData getInterlayerData (int headroom) {
+        if (payload == null) {
+            String asString = toString();
+            InterlayerData result = new InterlayerData(headroom, asString.length(), 0);
+            putBitString(result, asString);
+            return result;
+        }
+
+        //os dados ja estao em bits: so o cabecalho passa pela cadeia de 0s e 1s
+        String header = headerString();
+        InterlayerData result = new InterlayerData(headroom, header.length() + payload.length, 0);
+        putBitString(result, header);
+        InterlayerData.copyBits(result, payload, 0, payload.length, header.length());
+        return result;
+    }
+
+    private static void putBitString(InterlayerData dest, String bits) {
+        for (int i = 0; i < bits.length(); ++i) {
+            if (bits.charAt(i) == '1') {
+                dest.setBit(i);
             } else {
-                result.clearBit(i);
+                dest.clearBit(i);
             }
         }
+    }
+
+    /**
+     * @return os dados do pacote em bytes, 8 bits por byte. Bits que nao
+     * completam um byte no fim sao ignorados.
+     */
+    public byte[] getPayload() {
+        if (payload != null) {
+            byte result[] = new byte[payload.length / 8];
+            payload.takeBytes(0, result, 0, result.length);
+            return result;
+        }
+
+        byte result[] = new byte[data.length() / 8];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = (byte) Integer.parseInt(data.substring(i * 8, i * 8 + 8), 2);
+        }
         return result;
     }
 
@@ -114,11 +238,15 @@ public class PacketTCP implements IConstants {
     }
 
     public String getData() {
+        if (data == null && payload != null) {
+            data = toBitString(payload);
+        }
         return data;
     }
 
     public void setData(String data) {
         this.data = data;
+        this.payload = null;
     }
 
     public String getFINFlag() {
@@ -1,6 +1,8 @@
 package br.ufpb.di.redes.layers.transport.source;
 
 import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.all.PacketTrace;
+import br.ufpb.di.redes.layers.all.Priority;
 import br.ufpb.di.redes.layers.network.interfaces.Network;
 import br.ufpb.di.redes.layers.transport.interfaces.Connection;
 import br.ufpb.di.redes.layers.transport.interfaces.Transport;
@@ -11,6 +13,8 @@ import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -81,10 +85,10 @@ public class TCP extends Transport {
                 PacketTCP firstWay = state.handshakeClose.firstWay(state.lastPacket);
                 String dataHeaderFirstWay = firstWay.toString();
 
-                InterlayerData dataFirstWay = new InterlayerData(dataHeaderFirstWay.length());
+                InterlayerData dataFirstWay = new InterlayerData(downLayer.headroom(), dataHeaderFirstWay.length(), 0);
                 dataFirstWay.putInfo(0, IConstants.NUM_BITS_HEADER, parseStringToInt(dataHeaderFirstWay));
 
-                bubbleDown(dataFirstWay, con.destIp);
+                bubbleDown(dataFirstWay, con.destIp, Priority.CONTROL);
 
                 long initialTime, finalTime;
                 long elapsedTime;
@@ -162,10 +166,10 @@ public class TCP extends Transport {
         
         PacketTCP firstWay = handshake.firstWay(local_port, remote_port);
         String dataHeaderFirstWay = firstWay.toString();
-        InterlayerData dataFirstWay = new InterlayerData(dataHeaderFirstWay.length());
+        InterlayerData dataFirstWay = new InterlayerData(downLayer.headroom(), dataHeaderFirstWay.length(), 0);
         dataFirstWay.putInfo(0, IConstants.NUM_BITS_HEADER, parseStringToInt(dataHeaderFirstWay));
         
-        bubbleDown(dataFirstWay, dest_ip);
+        bubbleDown(dataFirstWay, dest_ip, Priority.CONTROL);
         
        initialTime = System.currentTimeMillis();
 
@@ -203,6 +207,44 @@ public class TCP extends Transport {
                state.curState == ConnectionState.State.WAIT_ACK;
     }
 
+    /**
+     * Uma conexao aceita escrita sem bloquear se ainda cabe byte no seu
+     * buffer de envio e a camada de rede nao esta saturada.
+     *
+     * @param con Conexao que se quer' avaliar.
+     * @return true ou false.
+     */
+    @Override
+    protected boolean isWritable(Connection con) {
+        ConnectionState state = connections.get(con);
+        if (state == null)
+            return false;
+        return state.toSend.remainingCapacity() > 0 && super.isWritable(con);
+    }
+
+    /**
+     * Espera a camada de rede sair da saturacao e, depois, o buffer de
+     * envio da conexao ter espaco. O buffer e' uma fila simples, sem aviso,
+     * entao e' consultado a cada PACKET_WAIT_TIMEOUT.
+     */
+    @Override
+    protected boolean awaitWritable(Connection con, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = deadlineAfter(timeout, unit);
+        if (!super.awaitWritable(con, timeout, unit))
+            return false;
+        while (true) {
+            ConnectionState state = connections.get(con);
+            if (state == null)
+                return false;
+            if (state.toSend.remainingCapacity() > 0)
+                return true;
+            if (deadline - System.nanoTime() <= 0)
+                return false;
+            Thread.sleep(IConstants.PACKET_WAIT_TIMEOUT);
+        }
+    }
+
 
     /**
      * Metodo que aguarda uma conexao, e tera' transicao do estado CONNECT_2
@@ -270,17 +312,8 @@ public class TCP extends Transport {
      */
     @Override
     protected void processReceivedData(InterlayerData data, int source_ip) {
-               
-        StringBuilder sb = new StringBuilder(data.length);
-        for (int i = 0; i < data.length; ++i) {
-            if (data.getBit(i)) {
-                sb.append('1');
-            } else {
-                sb.append('0');
-            }
-        }
-        
-        PacketTCP pack = new PacketTCP(sb.toString());
+
+        PacketTCP pack = new PacketTCP(data);
 
         /*************************Connection reply*************************/
         if (pack.getACKFlag().equals("1") && pack.getSYNFlag().equals("1")) {
@@ -308,10 +341,10 @@ public class TCP extends Transport {
 
                 String dataHeaderThirdWay = thirdWay.toString();
 
-                InterlayerData dataThirdWay = new InterlayerData(dataHeaderThirdWay.length());
+                InterlayerData dataThirdWay = new InterlayerData(downLayer.headroom(), dataHeaderThirdWay.length(), 0);
                 dataThirdWay.putInfo(0, IConstants.NUM_BITS_HEADER, parseStringToInt(dataHeaderThirdWay));
 
-                bubbleDown(dataThirdWay, remote_ip);
+                bubbleDown(dataThirdWay, remote_ip, Priority.CONTROL);
 
                 state.curState = ConnectionState.State.CONNECTED;
                 state.lastPacket = pack;
@@ -342,6 +375,7 @@ public class TCP extends Transport {
             if (oldConnection.curState == ConnectionState.State.LISTEN) {
                 
                 connections.remove(oldConnection.con);
+                oldConnection.stop();
                 
                 Connection newConnection = new Connection(local_port, remote_port, remote_ip, local_ip, this);
                 
@@ -352,10 +386,10 @@ public class TCP extends Transport {
                 PacketTCP secondWay = oldConnection.handshake.secondWay(local_port, remote_port, pack);
                 String dataHeaderSecondWay = secondWay.toString();
 
-                InterlayerData dataSecondWay = new InterlayerData(dataHeaderSecondWay.length());
+                InterlayerData dataSecondWay = new InterlayerData(downLayer.headroom(), dataHeaderSecondWay.length(), 0);
                 dataSecondWay.putInfo(0, IConstants.NUM_BITS_HEADER, parseStringToInt(dataHeaderSecondWay));
 
-                bubbleDown(dataSecondWay, remote_ip);
+                bubbleDown(dataSecondWay, remote_ip, Priority.CONTROL);
 
                 oldConnection.next_hop_CONNECT_2 = state;
                 oldConnection.con = newConnection;
@@ -406,15 +440,16 @@ public class TCP extends Transport {
             PacketTCP secondWay = state.handshakeClose.secondWay(pack);
 
             String dataHeaderSecondWay = secondWay.toString();
-            InterlayerData dataSecondWay = new InterlayerData(dataHeaderSecondWay.length());
+            InterlayerData dataSecondWay = new InterlayerData(downLayer.headroom(), dataHeaderSecondWay.length(), 0);
 
             dataSecondWay.putInfo(0, IConstants.NUM_BITS_HEADER, parseStringToInt(dataHeaderSecondWay));
             
-            bubbleDown(dataSecondWay, remote_ip);
+            bubbleDown(dataSecondWay, remote_ip, Priority.CONTROL);
 
             state.lastPacket = pack;
             state.curState = ConnectionState.State.CLOSED;
             connections.remove(state.con);
+            state.stop();
             
             listen_avail.add(state.con.localPort);
             
@@ -453,6 +488,7 @@ public class TCP extends Transport {
             
             state.curState = ConnectionState.State.CLOSED;
             connections.remove(state.con);
+            state.stop();
             
             listen_avail.add(state.con.localPort);
             
@@ -541,15 +577,14 @@ public class TCP extends Transport {
                 }
             }
             
-            if (!pack.equals(state.lastPacket)) {
+            //uma retransmissao (mesmos bits, mesmo numero de sequencia) so
+            //precisa de um novo ack
+            InterlayerData received = data.freeze();
+            if (!received.equals(state.lastDataReceived)) {
+                state.lastDataReceived = received;
                 state.lastPacket = pack;
-                int numBytes = pack.getData().length()/8;
-                int initial = 0, last = 8;
-                for (int c = 0; c < numBytes; c++) {
-                    int num = parseStringToInt(pack.getData().substring(initial, last));
-                    bubbleUp(state.con, num);
-                    initial += 8;
-                    last += 8;
+                for (byte b : pack.getPayload()) {
+                    bubbleUp(state.con, b & 0xff);
                 }
             }
             
@@ -561,9 +596,9 @@ public class TCP extends Transport {
             ack.setAckNumber(pack.getSequenceNumber());
             
             
-            InterlayerData ackData = ack.getInterlayerData();
+            InterlayerData ackData = ack.getInterlayerData(downLayer.headroom());
             
-            bubbleDown(ackData, remote_ip);
+            bubbleDown(ackData, remote_ip, Priority.CONTROL);
             
             logger.debug("Pacote recebido. Ack enviado.");
             
@@ -667,6 +702,39 @@ public class TCP extends Transport {
     }
 
 
+    /**
+     * Inicia a thread de envio de uma conexao, como as demais threads desta
+     * entidade, para que stop() espere por ela.
+     */
+    Future<?> startConnectionThread(Runnable task) {
+        return startWorker(getName() + ":conexao", task);
+    }
+
+    /**
+     * Para as threads das conexoes que restaram e esquece as conexoes.
+     */
+    @Override
+    protected void release() {
+        for (ConnectionState state : connections.values()) {
+            state.stop();
+        }
+        connections.clear();
+        super.release();
+    }
+
+    /**
+     * Como send(con, data), com <code>trace</code> como rastro do segmento
+     * (vide ConnectionState.SenderThread).
+     */
+    void send(Connection con, List<Byte> data, PacketTrace trace) {
+        PacketTrace previous = enterTrace(trace);
+        try {
+            send(con, data);
+        } finally {
+            exitTrace(previous);
+        }
+    }
+
     /**
      * Empacota e envia pacote, com timeout de ACK. Caso der timeout, reenvia
      * pacote.
@@ -690,6 +758,9 @@ public class TCP extends Transport {
                     try {
                         wait();
                     } catch (InterruptedException ex) {
+                        //conexao ou entidade sendo parada
+                        Thread.currentThread().interrupt();
+                        return;
                     }
                 }
             }
@@ -700,10 +771,10 @@ public class TCP extends Transport {
         
         logger.debug("Preparando para enviar.");
         
-        StringBuilder sb = new StringBuilder();
-        
-        for (byte i : data) {
-            sb.append(parseIntToString(i & 0xff, 8));
+        byte payload[] = new byte[data.size()];
+        int pos = 0;
+        for (byte b : data) {
+            payload[pos++] = b;
         }
         
         String seqNumber = state.seqNumber;
@@ -718,10 +789,10 @@ public class TCP extends Transport {
         PacketTCP packet = new PacketTCP(
                 parseIntToString(con.localPort, IConstants.NUM_BITS_MAX_PORT), 
                 parseIntToString(con.remotePort, IConstants.NUM_BITS_MAX_PORT), 
-                sb.toString());
+                payload);
         
         packet.setSequenceNumber(seqNumber);
-        InterlayerData packData = packet.getInterlayerData();
+        InterlayerData packData = packet.getInterlayerData(downLayer.headroom());
         
         state.waitingAck = packet;
         state.waitingAckData = packData;
@@ -732,7 +803,9 @@ public class TCP extends Transport {
         while (state.curState != ConnectionState.State.CONNECTED) {
 
             state.curState = ConnectionState.State.WAIT_ACK;
-            bubbleDown(packData, con.destIp);
+            /* Apos TIME_OUT_SEND, esta copia sera retransmitida. */
+            bubbleDown(packData, con.destIp, IConstants.TIME_OUT_SEND,
+                    TimeUnit.MILLISECONDS);
             logger.debug("Enviado, aguardando ack. Estado = {}", state.curState);
             
             synchronized (this) {
@@ -746,7 +819,11 @@ public class TCP extends Transport {
                     }
                     try {
                         wait(IConstants.TIME_OUT_SEND - elapsedTime);
-                    } catch (InterruptedException ex) {}
+                    } catch (InterruptedException ex) {
+                        /* Conexao ou entidade sendo parada: desiste do envio. */
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
                 }
             }
 
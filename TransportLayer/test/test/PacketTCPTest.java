@@ -5,6 +5,8 @@
 
 package test;
 
+import br.ufpb.di.redes.layers.all.InterlayerData;
+import br.ufpb.di.redes.layers.transport.source.PacketTCP;
 import junit.framework.TestCase;
 
 /**
@@ -17,6 +19,36 @@ public class PacketTCPTest extends TestCase {
 //        PacketTCP p = new PacketTCP("100100100100100100100100111");
 //    }
 
+    public void testFromInterlayerData() {
+        String stream = "0011" + "1010" + "1" + "0" + "101" + "110"
+                + "0100100001101001";
+        PacketTCP expected = new PacketTCP(stream);
+        InterlayerData data = expected.getInterlayerData(24);
+
+        PacketTCP p = new PacketTCP(data);
+        assertEquals(stream, p.toString());
+        assertEquals("0011", p.getPortLocal());
+        assertEquals("1010", p.getPortRemote());
+        assertEquals("101", p.getWindowSize());
+        assertEquals("1", p.getACKFlag());
+        assertEquals("0", p.getFINFlag());
+        assertEquals("0100100001101001", p.getData());
+
+        assertEquals("", new PacketTCP(data.slice(0, 16)).getData());
+    }
+
+    public void testPayloadBytes() {
+        byte payload[] = {0x48, 0x69, (byte) 0xF0};
+        PacketTCP sent = new PacketTCP("0011", "1010", payload);
+        assertEquals("010010000110100111110000", sent.getData());
+
+        PacketTCP received = new PacketTCP(sent.getInterlayerData(8));
+        assertEquals(sent.toString(), received.toString());
+        assertTrue(java.util.Arrays.equals(payload, received.getPayload()));
+        assertTrue(java.util.Arrays.equals(payload,
+                new PacketTCP(received.toString()).getPayload()));
+    }
+
     public void testParseIntToString() {
         int s = parseStringToInt("1000");
        // char c = s.charAt(23);